@@ -0,0 +1,46 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.api;
+
+import javax.annotation.Nonnull;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Prepares a statement once for every item of a batch.
+ *
+ * @param <T> the Type of item the statement is prepared for
+ */
+public interface BatchPreparer<T> {
+
+    /**
+     * Determines what data to impart to a statement for a single item.
+     *
+     * @param s the statement that is to be modified
+     * @param item the item whose data is imparted to the statement
+     * @throws SQLException if there is an exception during the connection or in syntax
+     */
+    void prepare(@Nonnull final PreparedStatement s, @Nonnull final T item) throws SQLException;
+}
@@ -28,11 +28,12 @@ import javax.annotation.Nonnull;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A simple {@link Connection} getter and configure-r.
  */
-public interface Database {
+public interface Database extends AutoCloseable {
 
     /**
      * Gets the protocol this {@link Database} is using.
@@ -67,4 +68,45 @@ public interface Database {
      * @return true if this {@link Database} has been set as default; false otherwise
      */
     boolean isDefaultDatabase();
+
+    /**
+     * Closes this {@link Database} right away, along with its pool.
+     *
+     * <p>Depending on the pool, connections still checked out may be closed
+     * under the calls using them; use {@link #drain(long, TimeUnit)} to let
+     * them finish. Closing an already closed {@link Database} does nothing.</p>
+     *
+     * <p>Does nothing by default, for implementations that don't own their pool.</p>
+     */
+    @Override
+    default void close() {}
+
+    /**
+     * Waits for every checked out connection to be returned, then closes this {@link Database}.
+     *
+     * <p>New connections may still be checked out while draining, so that
+     * calls which got hold of this {@link Database} just before it was
+     * replaced still succeed.</p>
+     *
+     * <p>Simply {@link #close() closes} by default.</p>
+     *
+     * @param timeout the longest time to wait before closing regardless
+     * @param unit the unit of the timeout
+     * @return true if every connection was returned in time; false if some were closed while in use
+     */
+    default boolean drain(final long timeout, @Nonnull final TimeUnit unit) {
+        this.close();
+        return true;
+    }
+
+    /**
+     * Determines whether or not this {@link Database} has been closed.
+     *
+     * <p>Always false by default.</p>
+     *
+     * @return true if this {@link Database} has been closed; false otherwise
+     */
+    default boolean isClosed() {
+        return false;
+    }
 }
@@ -0,0 +1,48 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.api;
+
+import javax.annotation.Nonnull;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Shapes a single row of a query into an object.
+ *
+ * @param <T> the Type of object each row is shaped into
+ */
+public interface RowMapper<T> {
+
+    /**
+     * Shapes the current row of a {@link ResultSet} into an object.
+     *
+     * <p>The {@link ResultSet} must not be moved to another row.</p>
+     *
+     * @param r the {@link ResultSet}, positioned on the row to be shaped
+     * @return the object the row has been shaped into
+     * @throws SQLException if there is an exception during the connection or in syntax
+     */
+    T map(@Nonnull final ResultSet r) throws SQLException;
+}
@@ -28,10 +28,14 @@
  *
  * <p>Special Interfaces:
  * <ul>
+ *     <li>{@link tech.ferus.util.sql.api.BatchPreparer}</li>
  *     <li>{@link tech.ferus.util.sql.api.Database}</li>
+ *     <li>{@link tech.ferus.util.sql.api.HandleConnection}</li>
  *     <li>{@link tech.ferus.util.sql.api.HandleResults}</li>
  *     <li>{@link tech.ferus.util.sql.api.Preparer}</li>
+ *     <li>{@link tech.ferus.util.sql.api.ReturnConnection}</li>
  *     <li>{@link tech.ferus.util.sql.api.ReturnResults}</li>
+ *     <li>{@link tech.ferus.util.sql.api.RowMapper}</li>
  * </ul>
  */
 package tech.ferus.util.sql.api;
\ No newline at end of file
@@ -27,12 +27,42 @@ package tech.ferus.util.sql.core;
 import tech.ferus.util.sql.api.Database;
 
 import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public abstract class BasicDatabase implements Database {
 
+    /**
+     * The logger for {@link BasicDatabase}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BasicDatabase.class);
+
+    /**
+     * The number of seconds to wait for a {@link Connection} to be validated during warm-up.
+     */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    /**
+     * The time, in milliseconds, between checks for returned connections while draining.
+     */
+    private static final long DRAIN_POLL = 10;
+
     /**
      * The protocol this database is using.
      */
@@ -43,14 +73,74 @@ public abstract class BasicDatabase implements Database {
      */
     @Nonnull private final ComboPooledDataSource dataSource;
 
+    /**
+     * The pool connections are checked out from.
+     */
+    @Nonnull private final PoolType poolType;
+
+    /**
+     * The built-in pool, once created, if this database uses one.
+     */
+    @Nullable private volatile BasicPool pool = null;
+
+    /**
+     * Measures how long connections are held, once enabled.
+     */
+    @Nullable private volatile HoldTracker holdTracker = null;
+
+    /**
+     * Whether or not this database has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * The statements to be prepared on every {@link Connection} during {@link #warmUp()}.
+     */
+    @Nonnull private final Set<String> hotStatements = new CopyOnWriteArraySet<>();
+
+    /**
+     * The statements run on every new {@link Connection}.
+     */
+    @Nonnull private final List<String> initStatements = new CopyOnWriteArrayList<>();
+
+    /**
+     * The number of connections checked out through {@link #getConnection()}.
+     */
+    @Nonnull private final LongAdder checkouts = new LongAdder();
+
+    /**
+     * The number of {@link BasicSql} calls currently using this database, from before their connection is checked out.
+     */
+    @Nonnull private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The total time, in nanoseconds, spent waiting in {@link #getConnection()}.
+     */
+    @Nonnull private final LongAdder checkoutWait = new LongAdder();
+
     /**
      * Constructs a new {@link Database}.
      *
      * @param protocol The type of {@link Database} being constructed
      */
     public BasicDatabase(@Nonnull final String protocol) {
+        this(protocol, PoolType.C3P0);
+    }
+
+    /**
+     * Constructs a new {@link Database}.
+     *
+     * <p>With {@link PoolType#BASIC}, the {@link ComboPooledDataSource} only
+     * holds settings; they are read once, when the first {@link Connection}
+     * is checked out, and its own pool is never started.</p>
+     *
+     * @param protocol The type of {@link Database} being constructed
+     * @param poolType the pool connections are checked out from
+     */
+    public BasicDatabase(@Nonnull final String protocol, @Nonnull final PoolType poolType) {
         this.protocol = protocol;
         this.dataSource = new ComboPooledDataSource();
+        this.poolType = poolType;
     }
 
     @Nonnull
@@ -67,11 +157,334 @@ public abstract class BasicDatabase implements Database {
 
     @Override
     public Connection getConnection() throws SQLException {
-        return this.getDataSource().getConnection();
+        if (this.closed) {
+            throw new SQLException("Database is closed: " + this.protocol);
+        }
+
+        final long start = System.nanoTime();
+        final Connection connection;
+        try {
+            if (this.poolType == PoolType.BASIC) {
+                connection = this.getBasicPool().getConnection();
+            } else {
+                connection = this.getDataSource().getConnection();
+            }
+        } finally {
+            this.checkoutWait.add(System.nanoTime() - start);
+            this.checkouts.increment();
+        }
+
+        final HoldTracker tracker = this.holdTracker;
+        return tracker == null ? connection : tracker.track(connection);
+    }
+
+    /**
+     * Starts measuring how long every connection checked out from now on is held.
+     *
+     * @return the {@link HoldTracker} measuring this database
+     */
+    @Nonnull
+    public synchronized HoldTracker enableHoldTracking() {
+        HoldTracker tracker = this.holdTracker;
+        if (tracker == null) {
+            tracker = new HoldTracker(this.protocol);
+            this.holdTracker = tracker;
+        }
+        return tracker;
+    }
+
+    /**
+     * Gets the {@link HoldTracker} measuring how long connections are held.
+     *
+     * @return the {@link HoldTracker}, or null if tracking hasn't been enabled
+     */
+    @Nullable
+    public HoldTracker getHoldTracker() {
+        return this.holdTracker;
+    }
+
+    /**
+     * Gets the pool connections are checked out from.
+     *
+     * @return the pool connections are checked out from
+     */
+    @Nonnull
+    public PoolType getPoolType() {
+        return this.poolType;
+    }
+
+    /**
+     * Gets the built-in pool, creating it from the settings of {@link #getDataSource()} on first use.
+     *
+     * @return the built-in pool
+     * @throws IllegalStateException if this database uses c3p0
+     */
+    @Nonnull
+    public BasicPool getBasicPool() {
+        if (this.poolType != PoolType.BASIC) {
+            throw new IllegalStateException("Database doesn't use the built-in pool: " + this.protocol);
+        }
+
+        BasicPool pool = this.pool;
+        if (pool == null) {
+            synchronized (this) {
+                pool = this.pool;
+                if (pool == null) {
+                    if (this.closed) {
+                        throw new IllegalStateException("Database is closed: " + this.protocol);
+                    }
+                    pool = BasicPool.from(this.dataSource);
+                    this.pool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    /**
+     * Gets the number of connections checked out through {@link #getConnection()}, including failed attempts.
+     *
+     * @return the number of checked out connections
+     */
+    public long getCheckoutCount() {
+        return this.checkouts.sum();
+    }
+
+    /**
+     * Counts a {@link BasicSql} call as using this database, before it checks out a connection.
+     */
+    void enter() {
+        this.inFlight.incrementAndGet();
+    }
+
+    /**
+     * Stops counting a {@link BasicSql} call as using this database, once it has returned its connection.
+     */
+    void exit() {
+        this.inFlight.decrementAndGet();
+    }
+
+    /**
+     * Gets the total time spent waiting in {@link #getConnection()}.
+     *
+     * @return the total time spent waiting, in nanoseconds
+     */
+    public long getCheckoutWaitNanos() {
+        return this.checkoutWait.sum();
+    }
+
+    /**
+     * Registers a statement to be prepared on every {@link Connection} during {@link #warmUp()}.
+     *
+     * @param statement the statement to be prepared ahead of time
+     */
+    public void addHotStatement(@Nonnull final String statement) {
+        this.hotStatements.add(statement);
+    }
+
+    /**
+     * Gets the statements to be prepared on every {@link Connection} during {@link #warmUp()}.
+     *
+     * @return the statements to be prepared ahead of time
+     */
+    @Nonnull
+    public Set<String> getHotStatements() {
+        return Collections.unmodifiableSet(this.hotStatements);
+    }
+
+    /**
+     * Registers a statement to be run on every new {@link Connection}, such as a session setting.
+     *
+     * <p>Statements are run in the order they were registered, on the
+     * connections opened after they were registered, whichever pool is
+     * used.</p>
+     *
+     * @param statement the statement to be run on every new {@link Connection}
+     */
+    @SuppressWarnings("unchecked")
+    public void addInitStatement(@Nonnull final String statement) {
+        this.initStatements.add(statement);
+
+        final Map<Object, Object> extensions = new HashMap<>(this.dataSource.getExtensions());
+        extensions.put(InitStatementCustomizer.INIT_STATEMENTS, new ArrayList<>(this.initStatements));
+        this.dataSource.setExtensions(extensions);
+        this.dataSource.setConnectionCustomizerClassName(InitStatementCustomizer.class.getName());
+
+        final BasicPool pool = this.pool;
+        if (pool != null) {
+            pool.setInitStatements(this.initStatements);
+        }
+    }
+
+    /**
+     * Gets the statements run on every new {@link Connection}.
+     *
+     * @return the statements run on every new {@link Connection}
+     */
+    @Nonnull
+    public List<String> getInitStatements() {
+        return Collections.unmodifiableList(this.initStatements);
+    }
+
+    /**
+     * Opens, validates and prepares the pool of this {@link Database} ahead of its first use.
+     *
+     * <p>As many connections as the pool is configured to keep (the greater of
+     * its minimum and initial size) are checked out at once, so that the pool
+     * is forced to open them. Each is then validated, and every
+     * {@link #getHotStatements() hot statement} is prepared on it.</p>
+     *
+     * <p>Prepared statements are only kept around if the pool caches them, so
+     * statement caching is enabled for as many statements as have been
+     * registered if it hasn't been configured already.</p>
+     *
+     * @return how long the warm-up took
+     */
+    @Nonnull
+    public Duration warmUp() {
+        final long start = System.nanoTime();
+        final int size = Math.max(1, Math.max(this.dataSource.getMinPoolSize(), this.dataSource.getInitialPoolSize()));
+
+        if (this.dataSource.getMaxStatements() == 0
+                && this.dataSource.getMaxStatementsPerConnection() < this.hotStatements.size()) {
+            this.dataSource.setMaxStatementsPerConnection(this.hotStatements.size());
+        }
+
+        final List<Connection> connections = new ArrayList<>(size);
+        int invalid = 0;
+        try {
+            for (int i = 0; i < size; ++i) {
+                final Connection c = this.getConnection();
+                connections.add(c);
+
+                if (!c.isValid(VALIDATION_TIMEOUT)) {
+                    ++invalid;
+                    continue;
+                }
+
+                for (final String statement : this.hotStatements) {
+                    try {
+                        c.prepareStatement(statement).close();
+                    } catch (final SQLException e) {
+                        LOGGER.error("Failed to prepare statement during warm-up: {}", statement, e);
+                    }
+                }
+            }
+        } catch (final SQLException e) {
+            LOGGER.error("Failed to open connection during warm-up of database: {}", this.protocol, e);
+        } finally {
+            for (final Connection c : connections) {
+                try {
+                    c.close();
+                } catch (final SQLException e) {
+                    LOGGER.error("Failed to close Connection after warm-up of database: {}", this.protocol);
+                }
+            }
+        }
+
+        final Duration duration = Duration.ofNanos(System.nanoTime() - start);
+        if (invalid > 0) {
+            LOGGER.error("Found {} invalid connection(s) during warm-up of database: {}", invalid, this.protocol);
+        }
+        LOGGER.info("Warmed up {} connection(s) and {} statement(s) for database {} in {} ms",
+                connections.size(), this.hotStatements.size(), this.protocol, duration.toMillis());
+        return duration;
     }
 
     @Override
     public boolean isDefaultDatabase() {
         return DefaultDatabase.isDefaultDatabase(this);
     }
+
+    @Override
+    public void close() {
+        final BasicPool pool;
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.closed = true;
+            pool = this.pool;
+        }
+
+        LOGGER.debug("Attempting to close database: {}", this.protocol);
+        if (pool != null) {
+            pool.close();
+        }
+        this.dataSource.close();
+
+        final HoldTracker tracker = this.holdTracker;
+        if (tracker != null) {
+            tracker.close();
+        }
+        LOGGER.debug("Finished closing database: {}", this.protocol);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Waits for every {@link BasicSql} call that has started using this
+     * database, counted from before it checks out a connection, and for every
+     * connection checked out by other means.</p>
+     */
+    @Override
+    public boolean drain(final long timeout, @Nonnull final TimeUnit unit) {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int busy;
+
+        LOGGER.debug("Attempting to drain database: {}", this.protocol);
+        try {
+            while ((busy = this.getInFlight()) > 0 && System.nanoTime() < deadline) {
+                Thread.sleep(Math.max(1, Math.min(DRAIN_POLL, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()))));
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            busy = -1;
+        }
+
+        if (busy != 0) {
+            LOGGER.error("Closing database {} with connections still in use after draining", this.protocol);
+        } else {
+            LOGGER.debug("Finished draining database: {}", this.protocol);
+        }
+        this.close();
+        return busy == 0;
+    }
+
+    /**
+     * Gets the number of calls and connections still using this database.
+     *
+     * @return the number of {@link BasicSql} calls in flight, else the number of checked out connections, or -1 if it couldn't be determined
+     */
+    private int getInFlight() {
+        final int calls = this.inFlight.get();
+        return calls > 0 ? calls : this.getBusyConnections();
+    }
+
+    @Override
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Gets the number of connections currently checked out of this database's pool.
+     *
+     * @return the number of checked out connections, or -1 if it couldn't be determined
+     */
+    protected int getBusyConnections() {
+        if (this.poolType == PoolType.BASIC) {
+            final BasicPool pool = this.pool;
+            return pool == null ? 0 : pool.getActiveConnections();
+        }
+
+        if (this.checkouts.sum() == 0) {
+            return 0;
+        }
+        try {
+            return this.dataSource.getNumBusyConnectionsAllUsers();
+        } catch (final SQLException e) {
+            LOGGER.error("Failed to count connections in use of database: {}", this.protocol, e);
+            return -1;
+        }
+    }
 }
@@ -0,0 +1,806 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A lightweight {@link Connection} pool, built for checking out connections quickly from many threads.
+ *
+ * <p>Checking out a {@link Connection} takes no locks. A thread first tries
+ * the connections it returned most recently, then every connection of the
+ * pool, claiming an idle one with a single compare-and-set. If none are idle
+ * and the pool isn't full, a new connection is opened on the calling thread.
+ * Otherwise, the thread waits for one to be handed over as it is returned.</p>
+ *
+ * <p>Connections that have been idle for a while are validated before they
+ * are handed out, and connections are retired once they reach their maximum
+ * lifetime. Connections held for longer than the leak threshold are logged,
+ * along with where they were checked out for one in every
+ * {@link #setLeakSampleEvery(int) 16} checkouts, as capturing the stack of
+ * every checkout would slow it down several times over.</p>
+ *
+ * <p>Statements created from a pooled {@link Connection} are not wrapped, and
+ * should be closed before the {@link Connection} is.</p>
+ */
+public class BasicPool implements DataSource, AutoCloseable {
+
+    /**
+     * The logger for {@link BasicPool}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BasicPool.class);
+
+    /**
+     * The state of a connection that is waiting in the pool.
+     */
+    private static final int IDLE = 0;
+
+    /**
+     * The state of a connection that is checked out.
+     */
+    private static final int IN_USE = 1;
+
+    /**
+     * The state of a connection that has been removed from the pool.
+     */
+    private static final int REMOVED = -1;
+
+    /**
+     * The number of connections each thread remembers having returned.
+     */
+    private static final int LOCAL_SIZE = 16;
+
+    /**
+     * The time, in nanoseconds, a connection may be idle before it is validated on checkout.
+     */
+    private static final long VALIDATION_BYPASS = TimeUnit.MILLISECONDS.toNanos(500);
+
+    /**
+     * The number of seconds to wait for a connection to be validated.
+     */
+    private static final int VALIDATION_TIMEOUT = 5;
+
+    /**
+     * The thread shared by every pool for retiring, topping up and checking connections.
+     */
+    private static final ScheduledExecutorService HOUSEKEEPER =
+            Executors.newSingleThreadScheduledExecutor(Threads.daemon("basicsql-pool"));
+
+    /**
+     * Creates the proxies handed out for pooled connections.
+     */
+    private static final Constructor<?> PROXY;
+
+    static {
+        try {
+            PROXY = Proxy.getProxyClass(BasicPool.class.getClassLoader(), Connection.class)
+                    .getConstructor(InvocationHandler.class);
+        } catch (final NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * The JDBC url connections are opened with.
+     */
+    @Nonnull private final String url;
+
+    /**
+     * The properties, including any user and password, connections are opened with.
+     */
+    @Nonnull private final Properties properties;
+
+    /**
+     * The maximum number of connections, checked out or idle.
+     */
+    private volatile int maxSize;
+
+    /**
+     * The number of connections to keep open, even while idle.
+     */
+    private final int minSize;
+
+    /**
+     * The time, in nanoseconds, to wait for a connection before giving up.
+     */
+    private final long connectionTimeout;
+
+    /**
+     * The time, in nanoseconds, after which a connection is retired, or 0 to never retire connections.
+     */
+    private final long maxLifetime;
+
+    /**
+     * The time, in nanoseconds, after which a checked out connection is reported, or 0 to never report them.
+     */
+    private final long leakThreshold;
+
+    /**
+     * One in how many checkouts records where it was checked out, while leaks are reported.
+     */
+    private volatile int leakSampleEvery = 16;
+
+    /**
+     * The statements run on every new connection.
+     */
+    @Nonnull private volatile List<String> initStatements = Collections.emptyList();
+
+    /**
+     * Every connection of the pool, checked out or idle.
+     *
+     * <p>Added to and removed from while checking out, so it must not lock.</p>
+     */
+    @Nonnull private final Set<Entry> entries = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The connections each thread returned most recently.
+     */
+    @Nonnull private final ThreadLocal<List<Entry>> local = ThreadLocal.withInitial(() -> new ArrayList<>(LOCAL_SIZE));
+
+    /**
+     * Hands returned connections straight to waiting threads.
+     */
+    @Nonnull private final SynchronousQueue<Entry> handoff = new SynchronousQueue<>(true);
+
+    /**
+     * The number of connections, including those being opened.
+     */
+    @Nonnull private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * The number of threads checking out a connection beyond their own recent ones.
+     */
+    @Nonnull private final AtomicInteger waiters = new AtomicInteger();
+
+    /**
+     * The periodic housekeeping of this pool.
+     */
+    @Nonnull private final ScheduledFuture<?> housekeeping;
+
+    /**
+     * The driver connections are opened with, once found.
+     */
+    @Nullable private volatile Driver driver = null;
+
+    /**
+     * Whether or not the pool has been closed.
+     */
+    private volatile boolean closed = false;
+
+    /**
+     * Constructs a new {@link BasicPool}.
+     *
+     * @param url the JDBC url connections are opened with
+     * @param properties the properties, including any user and password, connections are opened with
+     * @param minSize the number of connections to keep open, even while idle
+     * @param maxSize the maximum number of connections, checked out or idle
+     * @param connectionTimeout the time, in milliseconds, to wait for a connection, or 0 to wait forever
+     * @param maxLifetime the time, in milliseconds, after which a connection is retired, or 0 to never retire connections
+     * @param leakThreshold the time, in milliseconds, after which a checked out connection is reported, or 0 to never report them
+     */
+    public BasicPool(@Nonnull final String url,
+                     @Nonnull final Properties properties,
+                     final int minSize,
+                     final int maxSize,
+                     final long connectionTimeout,
+                     final long maxLifetime,
+                     final long leakThreshold) {
+        this.url = url;
+        this.properties = properties;
+        this.maxSize = Math.max(1, maxSize);
+        this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+        this.connectionTimeout = connectionTimeout <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos(connectionTimeout);
+        this.maxLifetime = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxLifetime));
+        this.leakThreshold = TimeUnit.MILLISECONDS.toNanos(Math.max(0, leakThreshold));
+
+        final long period = this.leakThreshold > 0
+                ? Math.max(TimeUnit.MILLISECONDS.toNanos(100), Math.min(TimeUnit.SECONDS.toNanos(30), this.leakThreshold / 2))
+                : TimeUnit.SECONDS.toNanos(30);
+        this.housekeeping = HOUSEKEEPER.scheduleWithFixedDelay(this::housekeep, 0, period, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Creates a {@link BasicPool} from the settings of a {@link ComboPooledDataSource}.
+     *
+     * <p>The JDBC url, user, password and properties are used as-is. So are
+     * the minimum and maximum pool size and the checkout timeout. The maximum
+     * connection age becomes the maximum lifetime, and the unreturned
+     * connection timeout becomes the leak threshold. The statements set up by
+     * {@link InitStatementCustomizer} are run on every new connection.</p>
+     *
+     * @param config the {@link ComboPooledDataSource} holding the settings
+     * @return a new {@link BasicPool}
+     */
+    @Nonnull
+    public static BasicPool from(@Nonnull final ComboPooledDataSource config) {
+        final Properties properties = new Properties();
+        properties.putAll(config.getProperties());
+        if (config.getUser() != null) {
+            properties.setProperty("user", config.getUser());
+        }
+        if (config.getPassword() != null) {
+            properties.setProperty("password", config.getPassword());
+        }
+
+        final BasicPool pool = new BasicPool(config.getJdbcUrl(), properties,
+                config.getMinPoolSize(),
+                config.getMaxPoolSize(),
+                config.getCheckoutTimeout(),
+                TimeUnit.SECONDS.toMillis(config.getMaxConnectionAge()),
+                TimeUnit.SECONDS.toMillis(config.getUnreturnedConnectionTimeout()));
+        pool.setInitStatements(InitStatementCustomizer.getInitStatements(config.getExtensions()));
+        return pool;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        final long deadline = System.nanoTime() + this.connectionTimeout;
+
+        while (true) {
+            final Entry entry = this.borrow(deadline);
+            final long now = System.nanoTime();
+
+            if (this.maxLifetime > 0 && now - entry.created > this.maxLifetime) {
+                this.retire(entry);
+                continue;
+            }
+
+            if (now - entry.lastUsed > VALIDATION_BYPASS) {
+                boolean valid;
+                try {
+                    valid = entry.connection.isValid(VALIDATION_TIMEOUT);
+                } catch (final SQLException e) {
+                    valid = false;
+                }
+
+                if (!valid) {
+                    LOGGER.debug("Retiring invalid connection to: {}", this.url);
+                    this.retire(entry);
+                    continue;
+                }
+            }
+
+            entry.checkedOut = now;
+            entry.leakReported = false;
+            entry.acquired = this.leakThreshold > 0 && ThreadLocalRandom.current().nextInt(this.leakSampleEvery) == 0
+                    ? new Throwable("Connection checked out here")
+                    : null;
+
+            try {
+                return (Connection) PROXY.newInstance(new Handle(entry));
+            } catch (final ReflectiveOperationException e) {
+                this.release(entry);
+                throw new SQLException("Failed to wrap pooled connection", e);
+            }
+        }
+    }
+
+    /**
+     * Claims a connection, opening one or waiting for one if needed.
+     *
+     * @param deadline the {@link System#nanoTime()} after which to give up
+     * @return the claimed connection
+     * @throws SQLException if no connection could be claimed in time, or one couldn't be opened
+     */
+    @Nonnull
+    private Entry borrow(final long deadline) throws SQLException {
+        if (this.closed) {
+            throw new SQLException("Pool has been closed: " + this.url);
+        }
+
+        final List<Entry> local = this.local.get();
+        for (int i = local.size() - 1; i >= 0; --i) {
+            final Entry entry = local.remove(i);
+            if (entry.state.compareAndSet(IDLE, IN_USE)) {
+                return entry;
+            }
+        }
+
+        this.waiters.incrementAndGet();
+        try {
+            while (true) {
+                for (final Entry entry : this.entries) {
+                    if (entry.state.compareAndSet(IDLE, IN_USE)) {
+                        return entry;
+                    }
+                }
+
+                final Entry created = this.create();
+                if (created != null) {
+                    return created;
+                }
+
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SQLTimeoutException("Timed out waiting for a connection to: " + this.url);
+                }
+
+                // Wake up now and then to rescan, in case a connection was retired rather than returned.
+                final Entry handed = this.handoff.poll(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(100)),
+                        TimeUnit.NANOSECONDS);
+                if (handed != null && handed.state.compareAndSet(IDLE, IN_USE)) {
+                    return handed;
+                }
+
+                if (this.closed) {
+                    throw new SQLException("Pool has been closed: " + this.url);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection to: " + this.url, e);
+        } finally {
+            this.waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Opens a new, claimed connection if the pool isn't full.
+     *
+     * @return the new connection, or null if the pool is full
+     * @throws SQLException if the connection couldn't be opened
+     */
+    @Nullable
+    private Entry create() throws SQLException {
+        int current;
+        do {
+            current = this.size.get();
+            if (current >= this.maxSize) {
+                return null;
+            }
+        } while (!this.size.compareAndSet(current, current + 1));
+
+        try {
+            Driver driver = this.driver;
+            if (driver == null) {
+                driver = DriverManager.getDriver(this.url);
+                this.driver = driver;
+            }
+
+            final Connection connection = driver.connect(this.url, this.properties);
+            if (connection == null) {
+                throw new SQLException("Driver doesn't accept url: " + this.url);
+            }
+
+            try {
+                InitStatementCustomizer.run(connection, this.initStatements);
+            } catch (final SQLException e) {
+                connection.close();
+                throw e;
+            }
+
+            final Entry entry = new Entry(connection);
+            this.entries.add(entry);
+            return entry;
+        } catch (final SQLException | RuntimeException e) {
+            this.size.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a checked out connection to the pool, or hands it to a waiting thread.
+     *
+     * @param entry the connection being returned
+     */
+    private void release(@Nonnull final Entry entry) {
+        entry.acquired = null;
+
+        try {
+            if (!entry.connection.getAutoCommit()) {
+                entry.connection.rollback();
+                entry.connection.setAutoCommit(true);
+            }
+        } catch (final SQLException e) {
+            LOGGER.debug("Retiring connection that couldn't be reset: {}", this.url, e);
+            this.retire(entry);
+            return;
+        }
+
+        final long now = System.nanoTime();
+        if (this.closed || this.maxLifetime > 0 && now - entry.created > this.maxLifetime) {
+            this.retire(entry);
+            return;
+        }
+
+        entry.lastUsed = now;
+        entry.state.set(IDLE);
+
+        final List<Entry> local = this.local.get();
+        if (local.size() < LOCAL_SIZE) {
+            local.add(entry);
+        }
+
+        for (int i = 0; this.waiters.get() > 0; ++i) {
+            if (entry.state.get() != IDLE || this.handoff.offer(entry)) {
+                return;
+            }
+            if (i > 100) {
+                return;
+            }
+            Thread.yield();
+        }
+    }
+
+    /**
+     * Removes a claimed connection from the pool and closes it.
+     *
+     * @param entry the connection being retired
+     */
+    private void retire(@Nonnull final Entry entry) {
+        entry.state.set(REMOVED);
+        if (this.entries.remove(entry)) {
+            this.size.decrementAndGet();
+        }
+
+        try {
+            entry.connection.close();
+        } catch (final SQLException e) {
+            LOGGER.debug("Failed to close retired connection to: {}", this.url, e);
+        }
+    }
+
+    /**
+     * Retires expired idle connections, reports leaked ones and opens connections up to the minimum size.
+     */
+    private void housekeep() {
+        try {
+            final long now = System.nanoTime();
+
+            for (final Entry entry : this.entries) {
+                if (this.maxLifetime > 0 && now - entry.created > this.maxLifetime
+                        && entry.state.compareAndSet(IDLE, REMOVED)) {
+                    this.retire(entry);
+                    continue;
+                }
+
+                if (this.leakThreshold > 0 && entry.state.get() == IN_USE
+                        && !entry.leakReported && now - entry.checkedOut > this.leakThreshold) {
+                    entry.leakReported = true;
+                    final Throwable acquired = entry.acquired;
+                    if (acquired != null) {
+                        LOGGER.warn("Connection to {} has been checked out for {} ms, and may have leaked",
+                                this.url, TimeUnit.NANOSECONDS.toMillis(now - entry.checkedOut), acquired);
+                    } else {
+                        LOGGER.warn("Connection to {} has been checked out for {} ms, and may have leaked (checkout not sampled)",
+                                this.url, TimeUnit.NANOSECONDS.toMillis(now - entry.checkedOut));
+                    }
+                }
+            }
+
+            while (!this.closed && this.size.get() < this.minSize) {
+                final Entry entry = this.create();
+                if (entry == null) {
+                    break;
+                }
+                entry.lastUsed = System.nanoTime();
+                entry.state.set(IDLE);
+            }
+        } catch (final SQLException | RuntimeException e) {
+            LOGGER.error("Failed to maintain pool for: {}", this.url, e);
+        }
+    }
+
+    /**
+     * Sets the statements run on every connection opened from now on.
+     *
+     * @param initStatements the statements run on every new connection
+     */
+    public void setInitStatements(@Nonnull final List<String> initStatements) {
+        this.initStatements = Collections.unmodifiableList(new ArrayList<>(initStatements));
+    }
+
+    /**
+     * Sets one in how many checkouts records where it was checked out, while leaks are reported.
+     *
+     * @param leakSampleEvery one in how many checkouts is sampled; 1 to sample every checkout
+     */
+    public void setLeakSampleEvery(final int leakSampleEvery) {
+        if (leakSampleEvery < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1.");
+        }
+        this.leakSampleEvery = leakSampleEvery;
+    }
+
+    /**
+     * Sets the maximum number of connections, checked out or idle.
+     *
+     * <p>Lowering the maximum doesn't close any connections; the pool simply
+     * won't open new ones until it is below the new maximum.</p>
+     *
+     * @param maxSize the maximum number of connections
+     */
+    public void setMaxSize(final int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Gets the maximum number of connections, checked out or idle.
+     *
+     * @return the maximum number of connections
+     */
+    public int getMaxSize() {
+        return this.maxSize;
+    }
+
+    /**
+     * Gets the number of open connections, checked out or idle.
+     *
+     * @return the number of open connections
+     */
+    public int getTotalConnections() {
+        return this.entries.size();
+    }
+
+    /**
+     * Gets the number of checked out connections.
+     *
+     * @return the number of checked out connections
+     */
+    public int getActiveConnections() {
+        int active = 0;
+        for (final Entry entry : this.entries) {
+            if (entry.state.get() == IN_USE) {
+                ++active;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Gets the number of idle connections.
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleConnections() {
+        int idle = 0;
+        for (final Entry entry : this.entries) {
+            if (entry.state.get() == IDLE) {
+                ++idle;
+            }
+        }
+        return idle;
+    }
+
+    /**
+     * Gets the number of threads waiting for a connection.
+     *
+     * @return the number of waiting threads
+     */
+    public int getWaitingThreads() {
+        return this.waiters.get();
+    }
+
+    /**
+     * Closes every idle connection, and every checked out connection as it is returned.
+     */
+    @Override
+    public void close() {
+        this.closed = true;
+        this.housekeeping.cancel(false);
+
+        for (final Entry entry : this.entries) {
+            if (entry.state.compareAndSet(IDLE, REMOVED)) {
+                this.retire(entry);
+            }
+        }
+    }
+
+    /**
+     * Determines whether or not the pool has been closed.
+     *
+     * @return true if the pool has been closed; false otherwise
+     */
+    public boolean isClosed() {
+        return this.closed;
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("BasicPool only opens connections as its configured user.");
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) {}
+
+    @Override
+    public void setLoginTimeout(final int seconds) {}
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException("BasicPool logs through SLF4J.");
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        throw new SQLException("BasicPool doesn't wrap: " + iface.getName());
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * A single pooled connection.
+     */
+    private static final class Entry {
+
+        /**
+         * The underlying connection.
+         */
+        @Nonnull private final Connection connection;
+
+        /**
+         * Whether the connection is idle, checked out or removed.
+         */
+        @Nonnull private final AtomicInteger state = new AtomicInteger(IN_USE);
+
+        /**
+         * The {@link System#nanoTime()} at which the connection was opened.
+         */
+        private final long created = System.nanoTime();
+
+        /**
+         * The {@link System#nanoTime()} at which the connection was last returned.
+         */
+        private volatile long lastUsed = this.created;
+
+        /**
+         * The {@link System#nanoTime()} at which the connection was last checked out.
+         */
+        private volatile long checkedOut = this.created;
+
+        /**
+         * Where the connection was checked out, if leaks are being reported and the checkout was sampled.
+         */
+        @Nullable private volatile Throwable acquired = null;
+
+        /**
+         * Whether or not the current checkout has been reported as a leak.
+         */
+        private volatile boolean leakReported = false;
+
+        /**
+         * Constructs a new, claimed {@link Entry}.
+         *
+         * @param connection the underlying connection
+         */
+        private Entry(@Nonnull final Connection connection) {
+            this.connection = connection;
+        }
+    }
+
+    /**
+     * Passes calls on to a pooled connection, returning it to the pool when closed.
+     */
+    private final class Handle implements InvocationHandler {
+
+        /**
+         * The pooled connection.
+         */
+        @Nonnull private final Entry entry;
+
+        /**
+         * Whether or not this checkout has been closed.
+         */
+        @Nonnull private final AtomicBoolean closed = new AtomicBoolean();
+
+        /**
+         * Constructs a new {@link Handle}.
+         *
+         * @param entry the pooled connection
+         */
+        private Handle(@Nonnull final Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String name = method.getName();
+
+            if (method.getDeclaringClass() == Object.class) {
+                switch (name) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "Pooled" + this.entry.connection;
+                }
+            }
+
+            switch (name) {
+                case "close":
+                    // Only the first close returns the entry, which may be borrowed again right after.
+                    if (this.closed.compareAndSet(false, true)) {
+                        BasicPool.this.release(this.entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return this.closed.get() || this.entry.connection.isClosed();
+                case "isValid":
+                    if (this.closed.get()) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (this.closed.get()) {
+                        throw new SQLException("Connection has been closed.");
+                    }
+            }
+
+            try {
+                return method.invoke(this.entry.connection, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
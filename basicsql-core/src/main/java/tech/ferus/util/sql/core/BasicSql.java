@@ -24,9 +24,12 @@
  */
 package tech.ferus.util.sql.core;
 
+import tech.ferus.util.sql.api.BatchPreparer;
 import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.HandleConnection;
 import tech.ferus.util.sql.api.HandleResults;
 import tech.ferus.util.sql.api.Preparer;
+import tech.ferus.util.sql.api.ReturnConnection;
 import tech.ferus.util.sql.api.ReturnResults;
 
 import org.slf4j.Logger;
@@ -38,13 +41,21 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Optional;
 
 /**
  * A utility class meant to make use of the tools provided in BasicSql.
  *
+ * <p>While a {@link Connection} is checked out by any of these methods, or
+ * by {@link #withConnection(Database, HandleConnection)}, nested calls on
+ * the same thread and {@link Database} reuse it rather than checking out
+ * another one from the pool.</p>
+ *
  * <p>Check out the following classes for more details:</p>
  * <ul>
+ *     <li>{@link BatchPreparer}</li>
  *     <li>{@link Database}</li>
  *     <li>{@link HandleResults}</li>
  *     <li>{@link Preparer}</li>
@@ -105,18 +116,42 @@ public class BasicSql {
                                @Nonnull final Preparer preparer) {
         Connection c = null;
         PreparedStatement s = null;
+        final SqlTrace trace = SqlTrace.begin(SqlOperation.EXECUTE, database, statement);
+        final ExistenceFilter.Capture capture = ExistenceFilter.capture(database, statement, false);
 
         LOGGER.debug("Attempting to execute statement: {}", statement);
         try {
-            c = database.getConnection();
+            c = ConnectionScope.acquire(database);
+            if (trace != null) {
+                trace.checkedOut();
+            }
             s = c.prepareStatement(statement);
-            preparer.prepare(s);
-            s.execute();
+            preparer.prepare(capture == null ? s : capture.wrap(s));
+            if (capture != null) {
+                capture.row();
+            }
+            final boolean results = s.execute();
+            if (trace != null) {
+                trace.executed();
+                if (!results) {
+                    trace.setRows(s.getUpdateCount());
+                }
+                trace.succeed();
+            }
             LOGGER.debug("Finished executing statement: {}", statement);
         } catch (final SQLException e) {
+            if (trace != null) {
+                trace.fail(e);
+            }
             LOGGER.error("Failed to execute statement: {}", statement, e);
         } finally {
-            close(statement, c, s, null);
+            if (capture != null) {
+                capture.finish(null);
+            }
+            close(database, statement, c, s, null);
+            if (trace != null) {
+                trace.end();
+            }
         }
     }
 
@@ -176,19 +211,36 @@ public class BasicSql {
         Connection c = null;
         PreparedStatement s = null;
         ResultSet r = null;
+        final SqlTrace trace = SqlTrace.begin(SqlOperation.QUERY, database, statement);
 
         LOGGER.debug("Attempting to query: {}", statement);
         try {
-            c = database.getConnection();
+            c = ConnectionScope.acquire(database);
+            if (trace != null) {
+                trace.checkedOut();
+            }
             s = c.prepareStatement(statement);
             preparer.prepare(s);
             r = s.executeQuery();
-            handle.execute(r);
+            if (trace != null) {
+                trace.executed();
+                handle.execute(trace.count(r));
+                trace.handled();
+                trace.succeed();
+            } else {
+                handle.execute(r);
+            }
             LOGGER.debug("Finished querying: {}", statement);
         } catch (final SQLException e) {
+            if (trace != null) {
+                trace.fail(e);
+            }
             LOGGER.error("Failed to execute query: {}", statement, e);
         } finally {
-            close(statement, c, s, r);
+            close(database, statement, c, s, r);
+            if (trace != null) {
+                trace.end();
+            }
         }
     }
 
@@ -253,24 +305,439 @@ public class BasicSql {
                                               @Nonnull final String statement,
                                               @Nonnull final Preparer preparer,
                                               @Nonnull final ReturnResults<T> handle) {
+        if (SingleFlight.isEnabled(database)) {
+            return SingleFlight.returnQuery(database, statement, preparer, handle);
+        }
+
+        LOGGER.debug("Attempting to query: {}", statement);
+        try {
+            final Optional<T> results = Optional.ofNullable(runQuery(database, statement, preparer, handle));
+            LOGGER.debug("Finished querying: {}", statement);
+            return results;
+        } catch (final SQLException e) {
+            LOGGER.error("Failed to execute query: {}", statement, e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Returns the data gathered from a query, passing on any failure.
+     *
+     * @param database the database to execute the query on
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param handle determines which data to return from a {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return the data from a {@link ResultSet}
+     * @throws SQLException if the query failed
+     */
+    @Nullable
+    static <T> T runQuery(@Nonnull final Database database,
+                          @Nonnull final String statement,
+                          @Nonnull final Preparer preparer,
+                          @Nonnull final ReturnResults<T> handle) throws SQLException {
         Connection c = null;
         PreparedStatement s = null;
         ResultSet r = null;
+        final SqlTrace trace = SqlTrace.begin(SqlOperation.RETURN_QUERY, database, statement);
 
-        LOGGER.debug("Attempting to query: {}", statement);
         try {
-            c = database.getConnection();
+            c = ConnectionScope.acquire(database);
+            if (trace == null) {
+                s = c.prepareStatement(statement);
+                preparer.prepare(s);
+                r = s.executeQuery();
+                return handle.execute(r);
+            }
+
+            trace.checkedOut();
             s = c.prepareStatement(statement);
             preparer.prepare(s);
             r = s.executeQuery();
-            final Optional<T> results = Optional.ofNullable(handle.execute(r));
-            LOGGER.debug("Finished querying: {}", statement);
+            trace.executed();
+            final T results = handle.execute(trace.count(r));
+            trace.handled();
+            trace.succeed();
             return results;
         } catch (final SQLException e) {
-            LOGGER.error("Failed to execute query: {}", statement, e);
+            if (trace != null) {
+                trace.fail(e);
+            }
+            throw e;
+        } finally {
+            close(database, statement, c, s, r);
+            if (trace != null) {
+                trace.end();
+            }
+        }
+    }
+
+    /**
+     * Executes a statement using named parameters.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param statement the statement to be executed, using named parameters
+     * @param values a {@link java.util.Map}, {@link NamedStatement.Parameters} or bean holding the values of the parameters
+     */
+    public static void executeNamed(@Nonnull final String statement,
+                                    @Nonnull final Object values) {
+        executeNamed(DefaultDatabase.getDatabase(), statement, values);
+    }
+
+    /**
+     * Executes a statement using named parameters.
+     *
+     * @param database the {@link Database} to execute the statement on
+     * @param statement the statement to be executed, using named parameters
+     * @param values a {@link java.util.Map}, {@link NamedStatement.Parameters} or bean holding the values of the parameters
+     * @see NamedStatement
+     */
+    public static void executeNamed(@Nonnull final Database database,
+                                    @Nonnull final String statement,
+                                    @Nonnull final Object values) {
+        final NamedStatement named = NamedStatement.of(statement);
+        execute(database, named.getSql(), named.bind(values));
+    }
+
+    /**
+     * Executes a query using named parameters.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param statement the statement to be queried, using named parameters
+     * @param values a {@link java.util.Map}, {@link NamedStatement.Parameters} or bean holding the values of the parameters
+     * @param handle the {@link HandleResults} to handle the data retrieved
+     */
+    public static void queryNamed(@Nonnull final String statement,
+                                  @Nonnull final Object values,
+                                  @Nonnull final HandleResults handle) {
+        queryNamed(DefaultDatabase.getDatabase(), statement, values, handle);
+    }
+
+    /**
+     * Executes a query using named parameters.
+     *
+     * @param database the {@link Database} to execute the query on
+     * @param statement the statement to be queried, using named parameters
+     * @param values a {@link java.util.Map}, {@link NamedStatement.Parameters} or bean holding the values of the parameters
+     * @param handle the {@link HandleResults} to handle the data retrieved
+     * @see NamedStatement
+     */
+    public static void queryNamed(@Nonnull final Database database,
+                                  @Nonnull final String statement,
+                                  @Nonnull final Object values,
+                                  @Nonnull final HandleResults handle) {
+        final NamedStatement named = NamedStatement.of(statement);
+        query(database, named.getSql(), named.bind(values), handle);
+    }
+
+    /**
+     * Returns the data gathered from a query using named parameters.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param statement the statement to be queried, using named parameters
+     * @param values a {@link java.util.Map}, {@link NamedStatement.Parameters} or bean holding the values of the parameters
+     * @param handle determines which data to return from a {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return the data from a {@link ResultSet} wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static <T> Optional<T> returnQueryNamed(@Nonnull final String statement,
+                                                   @Nonnull final Object values,
+                                                   @Nonnull final ReturnResults<T> handle) {
+        return returnQueryNamed(DefaultDatabase.getDatabase(), statement, values, handle);
+    }
+
+    /**
+     * Returns the data gathered from a query using named parameters.
+     *
+     * @param database the database to execute the query on
+     * @param statement the statement to be queried, using named parameters
+     * @param values a {@link java.util.Map}, {@link NamedStatement.Parameters} or bean holding the values of the parameters
+     * @param handle determines which data to return from a {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return the data from a {@link ResultSet} wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     * @see NamedStatement
+     */
+    public static <T> Optional<T> returnQueryNamed(@Nonnull final Database database,
+                                                   @Nonnull final String statement,
+                                                   @Nonnull final Object values,
+                                                   @Nonnull final ReturnResults<T> handle) {
+        final NamedStatement named = NamedStatement.of(statement);
+        return returnQuery(database, named.getSql(), named.bind(values), handle);
+    }
+
+    /**
+     * Executes an insert, returning the keys it generated.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param statement the insert to be executed
+     * @param preparer the {@link Preparer} to set data in the statement.
+     * @return the generated keys, in the order the rows were inserted, wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static Optional<long[]> insert(@Nonnull final String statement,
+                                          @Nonnull final Preparer preparer) {
+        return insert(DefaultDatabase.getDatabase(), statement, preparer);
+    }
+
+    /**
+     * Executes an insert, returning the keys it generated.
+     *
+     * @param database the {@link Database} to execute the insert on
+     * @param statement the insert to be executed
+     * @param preparer the {@link Preparer} to set data in the statement.
+     * @return the generated keys, in the order the rows were inserted, wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static Optional<long[]> insert(@Nonnull final Database database,
+                                          @Nonnull final String statement,
+                                          @Nonnull final Preparer preparer) {
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        final ExistenceFilter.Capture capture = ExistenceFilter.capture(database, statement, true);
+        long[] inserted = null;
+
+        LOGGER.debug("Attempting to insert: {}", statement);
+        try {
+            c = ConnectionScope.acquire(database);
+            s = c.prepareStatement(statement, Statement.RETURN_GENERATED_KEYS);
+            preparer.prepare(capture == null ? s : capture.wrap(s));
+            if (capture != null) {
+                capture.row();
+            }
+            s.executeUpdate();
+            r = s.getGeneratedKeys();
+
+            long[] keys = new long[1];
+            int count = 0;
+            while (r.next()) {
+                if (count == keys.length) {
+                    keys = Arrays.copyOf(keys, count * 2);
+                }
+                keys[count++] = r.getLong(1);
+            }
+            if (count != keys.length) {
+                keys = Arrays.copyOf(keys, count);
+            }
+            inserted = keys;
+            LOGGER.debug("Finished inserting: {}", statement);
+            return Optional.of(keys);
+        } catch (final SQLException | RuntimeException e) {
+            LOGGER.error("Failed to insert: {}", statement, e);
+            return Optional.empty();
+        } finally {
+            if (capture != null) {
+                capture.finish(inserted);
+            }
+            close(database, statement, c, s, r);
+        }
+    }
+
+    /**
+     * Executes an insert once for every item, returning the keys generated for each.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param statement the insert to be executed, inserting a single row
+     * @param items the items to be inserted
+     * @param preparer the {@link BatchPreparer} to set data in the statement for each item.
+     * @param <T> the Type of item being inserted
+     * @return the generated keys, in the order of the items, wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static <T> Optional<long[]> insertBatch(@Nonnull final String statement,
+                                                   @Nonnull final Collection<? extends T> items,
+                                                   @Nonnull final BatchPreparer<T> preparer) {
+        return insertBatch(DefaultDatabase.getDatabase(), statement, items, preparer);
+    }
+
+    /**
+     * Executes an insert once for every item, returning the keys generated for each.
+     *
+     * <p>Every item is inserted within a single transaction, which is only
+     * committed here if it wasn't already open, e.g. within
+     * {@link #withConnection(Database, HandleConnection)}. MySQL and MariaDB
+     * return the key of every row of a batch, so the items are sent as one
+     * batch. H2 and SQLite only return the last key of a batch, so each item
+     * is inserted in turn on the same {@link Connection} instead. If any item
+     * fails to be prepared or inserted, the transaction is rolled back.</p>
+     *
+     * @param database the {@link Database} to execute the insert on
+     * @param statement the insert to be executed, inserting a single row
+     * @param items the items to be inserted
+     * @param preparer the {@link BatchPreparer} to set data in the statement for each item.
+     * @param <T> the Type of item being inserted
+     * @return the generated keys, in the order of the items, wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static <T> Optional<long[]> insertBatch(@Nonnull final Database database,
+                                                   @Nonnull final String statement,
+                                                   @Nonnull final Collection<? extends T> items,
+                                                   @Nonnull final BatchPreparer<T> preparer) {
+        Connection c = null;
+        PreparedStatement s = null;
+        ResultSet r = null;
+        boolean transaction = false;
+        final ExistenceFilter.Capture capture = ExistenceFilter.capture(database, statement, true);
+        long[] inserted = null;
+
+        LOGGER.debug("Attempting to insert batch of {} into: {}", items.size(), statement);
+        try {
+            c = ConnectionScope.acquire(database);
+            if (c.getAutoCommit()) {
+                c.setAutoCommit(false);
+                transaction = true;
+            }
+            s = c.prepareStatement(statement, Statement.RETURN_GENERATED_KEYS);
+            final PreparedStatement prepared = capture == null ? s : capture.wrap(s);
+
+            final long[] keys = new long[items.size()];
+            int count = 0;
+            if (returnsBatchKeys(database)) {
+                for (final T item : items) {
+                    preparer.prepare(prepared, item);
+                    if (capture != null) {
+                        capture.row();
+                    }
+                    s.addBatch();
+                }
+                s.executeBatch();
+
+                r = s.getGeneratedKeys();
+                while (r.next() && count < keys.length) {
+                    keys[count++] = r.getLong(1);
+                }
+            } else {
+                for (final T item : items) {
+                    preparer.prepare(prepared, item);
+                    if (capture != null) {
+                        capture.row();
+                    }
+                    s.executeUpdate();
+
+                    try (final ResultSet generated = s.getGeneratedKeys()) {
+                        if (generated.next()) {
+                            keys[count++] = generated.getLong(1);
+                        }
+                    }
+                }
+            }
+
+            if (count != keys.length) {
+                throw new SQLException("Expected " + keys.length + " generated keys but found " + count);
+            }
+            if (transaction) {
+                c.commit();
+            }
+            inserted = keys;
+            LOGGER.debug("Finished inserting batch of {} into: {}", items.size(), statement);
+            return Optional.of(keys);
+        } catch (final SQLException | RuntimeException e) {
+            // Restoring auto-commit below would otherwise commit the rows inserted so far.
+            LOGGER.error("Failed to insert batch into: {}", statement, e);
+            if (transaction) try {
+                c.rollback();
+            } catch (final SQLException ex) {
+                LOGGER.error("Failed to roll back batch for statement: {}", statement);
+            }
+            return Optional.empty();
+        } finally {
+            if (transaction) try {
+                c.setAutoCommit(true);
+            } catch (final SQLException e) {
+                LOGGER.error("Failed to restore auto-commit for statement: {}", statement);
+            }
+            if (capture != null) {
+                capture.finish(inserted);
+            }
+            close(database, statement, c, s, r);
+        }
+    }
+
+    /**
+     * Determines whether or not a {@link Database} returns the key of every row of a batch.
+     *
+     * @param database the {@link Database} being inserted into
+     * @return true if every key of a batch is returned; false otherwise
+     */
+    private static boolean returnsBatchKeys(@Nonnull final Database database) {
+        final String protocol = database.getProtocol();
+        return protocol.equals("mysql") || protocol.equals("mariadb");
+    }
+
+    /**
+     * Does work with a single {@link Connection}.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param handle determines what is done with the {@link Connection}
+     */
+    public static void withConnection(@Nonnull final HandleConnection handle) {
+        withConnection(DefaultDatabase.getDatabase(), handle);
+    }
+
+    /**
+     * Does work with a single {@link Connection}.
+     *
+     * <p>Every {@link BasicSql} call made on the same {@link Database} from
+     * within the {@link HandleConnection} uses the same {@link Connection},
+     * which is only closed once the {@link HandleConnection} has finished.</p>
+     *
+     * @param database the {@link Database} to get the {@link Connection} from
+     * @param handle determines what is done with the {@link Connection}
+     */
+    public static void withConnection(@Nonnull final Database database,
+                                      @Nonnull final HandleConnection handle) {
+        returnWithConnection(database, c -> {
+            handle.execute(c);
+            return null;
+        });
+    }
+
+    /**
+     * Returns the data gathered with a single {@link Connection}.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param handle determines which data to return from the {@link Connection}
+     * @param <T> the Type of object being returned
+     * @return the data gathered with the {@link Connection} wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static <T> Optional<T> returnWithConnection(@Nonnull final ReturnConnection<T> handle) {
+        return returnWithConnection(DefaultDatabase.getDatabase(), handle);
+    }
+
+    /**
+     * Returns the data gathered with a single {@link Connection}.
+     *
+     * <p>Every {@link BasicSql} call made on the same {@link Database} from
+     * within the {@link ReturnConnection} uses the same {@link Connection},
+     * which is only closed once the {@link ReturnConnection} has finished.</p>
+     *
+     * @param database the {@link Database} to get the {@link Connection} from
+     * @param handle determines which data to return from the {@link Connection}
+     * @param <T> the Type of object being returned
+     * @return the data gathered with the {@link Connection} wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static <T> Optional<T> returnWithConnection(@Nonnull final Database database,
+                                                       @Nonnull final ReturnConnection<T> handle) {
+        Connection c = null;
+
+        LOGGER.debug("Attempting to use connection of database: {}", database.getProtocol());
+        try {
+            c = ConnectionScope.acquire(database);
+            final Optional<T> results = Optional.ofNullable(handle.execute(c));
+            LOGGER.debug("Finished using connection of database: {}", database.getProtocol());
+            return results;
+        } catch (final SQLException e) {
+            LOGGER.error("Failed to use connection of database: {}", database.getProtocol(), e);
             return Optional.empty();
         } finally {
-            close(statement, c, s, r);
+            if (c != null) try {
+                ConnectionScope.release(database, c);
+            } catch (final SQLException e) {
+                LOGGER.error("Failed to close Connection of database: {}", database.getProtocol());
+            }
         }
     }
 
@@ -285,12 +752,14 @@ public class BasicSql {
      *     <li>{@link ResultSet}</li>
      * </ul>
      *
+     * @param database the {@link Database} the {@link Connection} came from
      * @param statement the statement that was queried or executed
      * @param c the {@link Connection} that was used
      * @param s the {@link Statement} object generated from the statement
      * @param r the {@link ResultSet} that was gathered from a query
      */
-    private static void close(@Nonnull final String statement,
+    private static void close(@Nonnull final Database database,
+                              @Nonnull final String statement,
                               @Nullable final Connection c,
                               @Nullable final Statement s,
                               @Nullable final ResultSet r) {
@@ -307,7 +776,7 @@ public class BasicSql {
         }
 
         if (c != null) try {
-            c.close();
+            ConnectionScope.release(database, c);
         } catch (final SQLException e) {
             LOGGER.error("Failed to close Connection for statement: {}", statement);
         }
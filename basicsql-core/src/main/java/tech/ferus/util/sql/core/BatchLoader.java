@@ -0,0 +1,497 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.RowMapper;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects lookups of single keys and runs them together as one {@code IN} query.
+ *
+ * <p>The statement is written with a {@code {keys}} placeholder where the
+ * list of keys goes, such as {@code SELECT * FROM users WHERE id IN ({keys})}.
+ * Keys asked for within a short window, or until the batch is full, are
+ * looked up at once. The keys of a batch are split into several queries
+ * when there are more than the {@link Database} allows parameters.</p>
+ *
+ * <p>Every row is matched back to the key it was asked for by reading the
+ * key from the row, so the key read must equal the key asked for, e.g.
+ * both must be {@link Long}s.</p>
+ *
+ * <p>Found values may be kept, so that later lookups of the same key don't
+ * query again, by {@link #setCaching(boolean) caching}.</p>
+ *
+ * @param <K> the Type of the keys
+ * @param <V> the Type of the values
+ */
+public class BatchLoader<K, V> implements AutoCloseable {
+
+    /**
+     * The logger for {@link BatchLoader}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchLoader.class);
+
+    /**
+     * The placeholder replaced by the list of keys.
+     */
+    private static final String PLACEHOLDER = "{keys}";
+
+    /**
+     * The {@link Database} keys are looked up in.
+     */
+    @Nonnull private final Database database;
+
+    /**
+     * The statement, with its {@link #PLACEHOLDER}.
+     */
+    @Nonnull private final String template;
+
+    /**
+     * Reads the key of a row.
+     */
+    @Nonnull private final RowMapper<K> keyMapper;
+
+    /**
+     * Shapes a row into a value.
+     */
+    @Nonnull private final RowMapper<V> valueMapper;
+
+    /**
+     * Dispatches batches once their window has passed.
+     */
+    @Nonnull private final ScheduledExecutorService scheduler;
+
+    /**
+     * Runs every batch, on at most as many threads as the {@link Database} has connections.
+     */
+    @Nonnull private final ExecutorService executor;
+
+    /**
+     * The keys waiting for the next batch, and their futures.
+     */
+    @Nonnull private Map<K, CompletableFuture<Optional<V>>> pending = new LinkedHashMap<>();
+
+    /**
+     * Whether or not the next batch has been scheduled.
+     */
+    private boolean scheduled = false;
+
+    /**
+     * The futures of keys already loaded or being loaded, while caching.
+     */
+    @Nonnull private final Map<K, CompletableFuture<Optional<V>>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Whether or not values are cached.
+     */
+    private volatile boolean caching = false;
+
+    /**
+     * The time, in nanoseconds, keys are collected for before being looked up.
+     */
+    private volatile long window = TimeUnit.MILLISECONDS.toNanos(2);
+
+    /**
+     * The most keys looked up by a single batch.
+     */
+    private volatile int maxBatchSize = 256;
+
+    /**
+     * The most parameters a single query may have.
+     */
+    private volatile int parameterLimit;
+
+    /**
+     * The number of batches run.
+     */
+    @Nonnull private final AtomicLong batches = new AtomicLong();
+
+    /**
+     * The number of queries run.
+     */
+    @Nonnull private final AtomicLong queries = new AtomicLong();
+
+    /**
+     * The number of lookups answered from the cache.
+     */
+    @Nonnull private final AtomicLong cacheHits = new AtomicLong();
+
+    /**
+     * Constructs a new {@link BatchLoader}.
+     *
+     * @param database the {@link Database} keys are looked up in
+     * @param template the statement, with a {@code {keys}} placeholder for the list of keys
+     * @param keyMapper reads the key of a row
+     * @param valueMapper shapes a row into a value
+     */
+    public BatchLoader(@Nonnull final Database database,
+                       @Nonnull final String template,
+                       @Nonnull final RowMapper<K> keyMapper,
+                       @Nonnull final RowMapper<V> valueMapper) {
+        final int index = template.indexOf(PLACEHOLDER);
+        if (index < 0 || template.indexOf(PLACEHOLDER, index + 1) >= 0) {
+            throw new IllegalArgumentException("Statement must contain " + PLACEHOLDER + " exactly once: " + template);
+        }
+
+        this.database = database;
+        this.template = template;
+        this.keyMapper = keyMapper;
+        this.valueMapper = valueMapper;
+        this.parameterLimit = getParameterLimit(database.getProtocol());
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Threads.daemon("basicsql-loader-timer"));
+        this.executor = Threads.bounded("basicsql-loader", Threads.poolSize(database));
+    }
+
+    /**
+     * Gets the most parameters a single query of a protocol may have.
+     *
+     * @param protocol the protocol of a {@link Database}
+     * @return the most parameters a single query may have
+     */
+    static int getParameterLimit(@Nonnull final String protocol) {
+        switch (protocol) {
+            case "sqlite":
+                return 999;
+            case "mysql":
+            case "mariadb":
+                return 65535;
+            default:
+                return 1000;
+        }
+    }
+
+    /**
+     * Sets how long keys are collected for before being looked up.
+     *
+     * @param window the time keys are collected for; 0 to look them up as soon as possible
+     * @param unit the unit of the time
+     */
+    public void setWindow(final long window, @Nonnull final TimeUnit unit) {
+        this.window = Math.max(0, unit.toNanos(window));
+    }
+
+    /**
+     * Sets the most keys looked up by a single batch.
+     *
+     * <p>A batch is run as soon as it is full, without waiting for its window.</p>
+     *
+     * @param maxBatchSize the most keys looked up by a single batch
+     */
+    public void setMaxBatchSize(final int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Max batch size must be at least 1.");
+        }
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Sets the most parameters a single query may have, in place of the {@link Database}'s usual limit.
+     *
+     * @param parameterLimit the most parameters a single query may have
+     */
+    public void setParameterLimit(final int parameterLimit) {
+        if (parameterLimit < 1) {
+            throw new IllegalArgumentException("Parameter limit must be at least 1.");
+        }
+        this.parameterLimit = parameterLimit;
+    }
+
+    /**
+     * Sets whether or not values are cached.
+     *
+     * <p>Disabling caching also clears the cache.</p>
+     *
+     * @param caching true to cache values; false otherwise
+     */
+    public void setCaching(final boolean caching) {
+        this.caching = caching;
+        if (!caching) {
+            this.cache.clear();
+        }
+    }
+
+    /**
+     * Looks up the value of a key.
+     *
+     * @param key the key to look up
+     * @return the future value, or {@link Optional#empty()} if no row has the key or the query failed
+     */
+    @Nonnull
+    public CompletableFuture<Optional<V>> load(@Nonnull final K key) {
+        if (this.caching) {
+            final CompletableFuture<Optional<V>> cached = this.cache.get(key);
+            if (cached != null) {
+                this.cacheHits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        Map<K, CompletableFuture<Optional<V>>> full = null;
+        final CompletableFuture<Optional<V>> future;
+        synchronized (this) {
+            final CompletableFuture<Optional<V>> waiting = this.pending.get(key);
+            if (waiting != null) {
+                return waiting;
+            }
+
+            future = new CompletableFuture<>();
+            this.pending.put(key, future);
+            if (this.caching) {
+                this.cache.put(key, future);
+            }
+
+            if (this.pending.size() >= this.maxBatchSize) {
+                full = this.pending;
+                this.pending = new LinkedHashMap<>();
+            } else if (!this.scheduled) {
+                try {
+                    this.scheduler.schedule(this::dispatch, this.window, TimeUnit.NANOSECONDS);
+                    this.scheduled = true;
+                } catch (final RejectedExecutionException e) {
+                    full = this.pending;
+                    this.pending = new LinkedHashMap<>();
+                }
+            }
+        }
+
+        if (full != null) {
+            this.submit(full);
+        }
+        return future;
+    }
+
+    /**
+     * Looks up the values of several keys.
+     *
+     * @param keys the keys to look up
+     * @return the future values of the keys that were found
+     */
+    @Nonnull
+    public CompletableFuture<Map<K, V>> loadAll(@Nonnull final Collection<? extends K> keys) {
+        final Map<K, CompletableFuture<Optional<V>>> futures = new LinkedHashMap<>();
+        for (final K key : keys) {
+            futures.put(key, this.load(key));
+        }
+
+        return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            final Map<K, V> values = new LinkedHashMap<>();
+            futures.forEach((key, future) -> future.join().ifPresent(value -> values.put(key, value)));
+            return values;
+        });
+    }
+
+    /**
+     * Looks up every waiting key now, without waiting for the window to pass.
+     */
+    public void dispatch() {
+        final Map<K, CompletableFuture<Optional<V>>> batch;
+        synchronized (this) {
+            this.scheduled = false;
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            batch = this.pending;
+            this.pending = new LinkedHashMap<>();
+        }
+        this.submit(batch);
+    }
+
+    /**
+     * Hands a batch to the threads batches are run on.
+     *
+     * @param batch the keys to look up, and their futures
+     */
+    private void submit(@Nonnull final Map<K, CompletableFuture<Optional<V>>> batch) {
+        try {
+            this.executor.execute(() -> this.run(batch));
+        } catch (final RejectedExecutionException e) {
+            LOGGER.error("Failed to load keys, as the loader is closed: {}", this.template);
+            for (final Map.Entry<K, CompletableFuture<Optional<V>>> entry : batch.entrySet()) {
+                this.cache.remove(entry.getKey());
+                entry.getValue().complete(Optional.empty());
+            }
+        }
+    }
+
+    /**
+     * Puts a value in the cache, as if it had been looked up.
+     *
+     * @param key the key of the value
+     * @param value the value
+     */
+    public void prime(@Nonnull final K key, @Nonnull final V value) {
+        if (this.caching) {
+            this.cache.put(key, CompletableFuture.completedFuture(Optional.of(value)));
+        }
+    }
+
+    /**
+     * Removes a key from the cache, so that it is looked up again.
+     *
+     * @param key the key to be removed
+     */
+    public void clear(@Nonnull final K key) {
+        this.cache.remove(key);
+    }
+
+    /**
+     * Removes every key from the cache.
+     */
+    public void clearAll() {
+        this.cache.clear();
+    }
+
+    /**
+     * Looks up a batch of keys, in as many queries as the parameter limit needs.
+     *
+     * @param batch the keys to look up, and their futures
+     */
+    private void run(@Nonnull final Map<K, CompletableFuture<Optional<V>>> batch) {
+        this.batches.incrementAndGet();
+        final List<K> keys = new ArrayList<>(batch.keySet());
+        final int limit = this.parameterLimit;
+
+        for (int from = 0; from < keys.size(); from += limit) {
+            final List<K> chunk = keys.subList(from, Math.min(keys.size(), from + limit));
+            final String statement = this.expand(chunk.size());
+            this.queries.incrementAndGet();
+
+            LOGGER.debug("Attempting to load {} keys: {}", chunk.size(), statement);
+            try {
+                final Map<K, V> found = BasicSql.runQuery(this.database, statement, s -> {
+                    for (int i = 0; i < chunk.size(); ++i) {
+                        s.setObject(i + 1, chunk.get(i));
+                    }
+                }, this::read);
+
+                for (final K key : chunk) {
+                    final V value = found == null ? null : found.get(key);
+                    if (value == null) {
+                        this.cache.remove(key);
+                    }
+                    batch.get(key).complete(Optional.ofNullable(value));
+                }
+                LOGGER.debug("Finished loading {} keys: {}", chunk.size(), statement);
+            } catch (final SQLException | RuntimeException e) {
+                LOGGER.error("Failed to load keys: {}", statement, e);
+                for (final K key : chunk) {
+                    this.cache.remove(key);
+                    batch.get(key).complete(Optional.empty());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads every row of a batch into its key and value.
+     *
+     * @param r the {@link ResultSet} of the batch
+     * @return the values, by key
+     * @throws SQLException if a row couldn't be read
+     */
+    @Nonnull
+    private Map<K, V> read(@Nonnull final ResultSet r) throws SQLException {
+        final Map<K, V> found = new HashMap<>();
+        while (r.next()) {
+            found.put(this.keyMapper.map(r), this.valueMapper.map(r));
+        }
+        return found;
+    }
+
+    /**
+     * Replaces the placeholder of the statement with a list of parameters.
+     *
+     * @param count the number of parameters
+     * @return the statement to be queried
+     */
+    @Nonnull
+    private String expand(final int count) {
+        final StringBuilder keys = new StringBuilder(count * 3);
+        for (int i = 0; i < count; ++i) {
+            keys.append(i == 0 ? "?" : ", ?");
+        }
+        return this.template.replace(PLACEHOLDER, keys);
+    }
+
+    /**
+     * Gets the number of batches run.
+     *
+     * @return the number of batches
+     */
+    public long getBatchCount() {
+        return this.batches.get();
+    }
+
+    /**
+     * Gets the number of queries run; more than the batches when batches were split.
+     *
+     * @return the number of queries
+     */
+    public long getQueryCount() {
+        return this.queries.get();
+    }
+
+    /**
+     * Gets the number of lookups answered from the cache.
+     *
+     * @return the number of cache hits
+     */
+    public long getCacheHitCount() {
+        return this.cacheHits.get();
+    }
+
+    /**
+     * Stops the threads batches are run on.
+     *
+     * <p>Keys still waiting are looked up first, and batches already running are finished.</p>
+     */
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+        this.dispatch();
+        this.executor.shutdown();
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Encodes a single column of the current row of a {@link ResultSet} for a {@link ResultExporter}.
+ */
+public interface ColumnEncoder {
+
+    /**
+     * Writes the value of a column, including null values, to the {@link ExportBuffer}.
+     *
+     * <p>Only the value itself should be written. Separators between values
+     * and rows are written by the {@link ResultExporter}.</p>
+     *
+     * @param r the {@link ResultSet}, positioned on the row being exported
+     * @param column the index of the column being exported, starting at 1
+     * @param out the {@link ExportBuffer} to write the value to
+     * @throws SQLException if there is an exception reading from the {@link ResultSet}
+     * @throws IOException if there is an exception writing to the {@link ExportBuffer}
+     */
+    void encode(@Nonnull final ResultSet r, final int column, @Nonnull final ExportBuffer out)
+            throws SQLException, IOException;
+}
@@ -0,0 +1,175 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+
+import javax.annotation.Nonnull;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Tracks the {@link Connection} each thread has checked out of each {@link Database}.
+ *
+ * <p>While a {@link Connection} is checked out through {@link BasicSql}, any
+ * nested {@link BasicSql} call on the same thread and {@link Database} reuses
+ * it, instead of checking out a second one. The {@link Connection} is only
+ * closed once the outermost call has finished with it.</p>
+ */
+final class ConnectionScope {
+
+    /**
+     * The scopes of the current thread, by {@link Database}.
+     */
+    private static final ThreadLocal<Map<Database, Scope>> SCOPES = ThreadLocal.withInitial(IdentityHashMap::new);
+
+    private ConnectionScope() {}
+
+    /**
+     * Gets the {@link Connection} of the current scope, or checks out a new one and opens a scope for it.
+     *
+     * <p>Every call must be matched by a call to {@link #release(Database, Connection)}.</p>
+     *
+     * @param database the {@link Database} to get a {@link Connection} from
+     * @return the {@link Connection} of the current scope
+     * @throws SQLException if a new {@link Connection} couldn't be checked out
+     */
+    @Nonnull
+    static Connection acquire(@Nonnull final Database database) throws SQLException {
+        final Map<Database, Scope> scopes = SCOPES.get();
+        final Scope scope = scopes.get(database);
+
+        if (scope != null) {
+            ++scope.depth;
+            return scope.connection;
+        }
+
+        // Counted before checking out, so that draining waits for calls that got hold of the database just before.
+        if (database instanceof BasicDatabase) {
+            ((BasicDatabase) database).enter();
+        }
+
+        final SqlTrace trace = SqlTrace.begin(SqlOperation.CHECKOUT, database, "");
+        final Connection connection;
+        try {
+            connection = database.getConnection();
+            if (trace != null) {
+                trace.checkedOut();
+                trace.succeed();
+            }
+        } catch (final SQLException | RuntimeException e) {
+            if (trace != null) {
+                trace.fail(e);
+            }
+            if (database instanceof BasicDatabase) {
+                ((BasicDatabase) database).exit();
+            }
+            throw e;
+        } finally {
+            if (trace != null) {
+                trace.end();
+            }
+        }
+        scopes.put(database, new Scope(connection));
+        return connection;
+    }
+
+    /**
+     * Determines whether or not the current thread has a {@link Connection} of a {@link Database} checked out.
+     *
+     * @param database the {@link Database} to check
+     * @return true if the current thread is within a scope of the {@link Database}; false otherwise
+     */
+    static boolean isActive(@Nonnull final Database database) {
+        return SCOPES.get().containsKey(database);
+    }
+
+    /**
+     * Releases a {@link Connection}, closing it if this ends its scope.
+     *
+     * @param database the {@link Database} the {@link Connection} came from
+     * @param connection the {@link Connection} to be released
+     * @throws SQLException if the {@link Connection} couldn't be closed
+     */
+    static void release(@Nonnull final Database database, @Nonnull final Connection connection) throws SQLException {
+        final Map<Database, Scope> scopes = SCOPES.get();
+        final Scope scope = scopes.get(database);
+
+        final boolean scoped = scope != null && scope.connection == connection;
+        if (scoped) {
+            if (--scope.depth > 0) {
+                return;
+            }
+            scopes.remove(database);
+        }
+
+        final SqlTrace trace = SqlTrace.begin(SqlOperation.CLOSE, database, "");
+        try {
+            connection.close();
+            if (trace != null) {
+                trace.succeed();
+            }
+        } catch (final SQLException e) {
+            if (trace != null) {
+                trace.fail(e);
+            }
+            throw e;
+        } finally {
+            if (trace != null) {
+                trace.end();
+            }
+            if (scoped && database instanceof BasicDatabase) {
+                ((BasicDatabase) database).exit();
+            }
+        }
+    }
+
+    /**
+     * A {@link Connection} shared by nested calls.
+     */
+    private static final class Scope {
+
+        /**
+         * The shared {@link Connection}.
+         */
+        @Nonnull private final Connection connection;
+
+        /**
+         * The number of calls currently using the {@link Connection}.
+         */
+        private int depth = 1;
+
+        /**
+         * Constructs a new {@link Scope}.
+         *
+         * @param connection the shared {@link Connection}
+         */
+        private Scope(@Nonnull final Connection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Imports a CSV file into a {@link Database} using several connections at once.
+ *
+ * <p>The file is memory-mapped and split into one chunk per thread at line
+ * boundaries. Every chunk is parsed on its own thread and its rows are bound
+ * straight into batches of the insert statement, on that thread's own
+ * pooled {@link Connection}. Every batch is committed separately.</p>
+ *
+ * <p>The insert statement must have one parameter per column of the file.
+ * Values are bound as strings, leaving conversion to the driver, and empty
+ * unquoted values are bound as null. Quoted values may contain commas and
+ * (doubled) quotes, but not line breaks.</p>
+ *
+ * <p>When a batch fails, its rows are retried one by one so that only the
+ * rows that actually fail are rejected.</p>
+ */
+public class CsvImporter {
+
+    /**
+     * The logger for {@link CsvImporter}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(CsvImporter.class);
+
+    /**
+     * The largest region of a file that can be mapped at once.
+     */
+    private static final long MAX_MAPPED = Integer.MAX_VALUE;
+
+    /**
+     * The largest size a file is split into before moving to the next line, leaving room for that line.
+     */
+    private static final long MAX_CHUNK = MAX_MAPPED - (1 << 20);
+
+    /**
+     * The {@link Database} to import into.
+     */
+    @Nonnull private final Database database;
+
+    /**
+     * The insert statement every row is bound to.
+     */
+    @Nonnull private final String statement;
+
+    /**
+     * The number of rows to execute and commit at once.
+     */
+    private int batchSize = 1000;
+
+    /**
+     * The number of threads (and connections) to import with.
+     */
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether or not the first line of the file holds column labels.
+     */
+    private boolean header = false;
+
+    /**
+     * Handles the rows that couldn't be imported.
+     */
+    @Nonnull private ImportErrorHandler errorHandler = (offset, line, cause) ->
+            LOGGER.error("Failed to import row at offset {}: {}", offset, line, cause);
+
+    /**
+     * Constructs a new {@link CsvImporter}.
+     *
+     * @param database the {@link Database} to import into
+     * @param statement the insert statement, with one parameter per column, every row is bound to
+     */
+    public CsvImporter(@Nonnull final Database database, @Nonnull final String statement) {
+        this.database = database;
+        this.statement = statement;
+    }
+
+    /**
+     * Sets the number of rows to execute and commit at once.
+     *
+     * @param batchSize the number of rows per batch
+     */
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Sets the number of threads, each with its own connection, to import with.
+     *
+     * @param threads the number of threads to import with
+     */
+    public void setThreads(final int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Sets whether or not the first line of the file holds column labels, and should be skipped.
+     *
+     * @param header true if the first line should be skipped; false otherwise
+     */
+    public void setHeader(final boolean header) {
+        this.header = header;
+    }
+
+    /**
+     * Sets the {@link ImportErrorHandler} for rows that couldn't be imported.
+     *
+     * <p>By default, such rows are logged.</p>
+     *
+     * @param errorHandler handles the rows that couldn't be imported
+     */
+    public void setErrorHandler(@Nonnull final ImportErrorHandler errorHandler) {
+        this.errorHandler = errorHandler;
+    }
+
+    /**
+     * Imports a CSV file.
+     *
+     * @param path the file to be imported
+     * @return the number of imported rows wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public Optional<Long> importFile(@Nonnull final Path path) {
+        LOGGER.debug("Attempting to import file: {}", path);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(this.threads, Threads.daemon("basicsql-import"));
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            final long[] bounds = this.split(channel);
+
+            final List<Future<Long>> futures = new ArrayList<>();
+            for (int i = 0; i < bounds.length - 1; ++i) {
+                final long start = bounds[i];
+                final long end = bounds[i + 1];
+                final boolean skip = this.header && i == 0;
+
+                if (end > start) {
+                    futures.add(executor.submit(() -> this.importChunk(channel, start, end, skip)));
+                }
+            }
+
+            long rows = 0;
+            for (final Future<Long> future : futures) {
+                rows += future.get();
+            }
+
+            LOGGER.debug("Finished importing {} rows from file: {}", rows, path);
+            return Optional.of(rows);
+        } catch (final IOException | ExecutionException e) {
+            LOGGER.error("Failed to import file: {}", path, e);
+            return Optional.empty();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while importing file: {}", path, e);
+            return Optional.empty();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Splits a file into chunks that start at the beginning of a line.
+     *
+     * @param channel the file to be split
+     * @return the positions of every chunk, followed by the size of the file
+     * @throws IOException if there is an exception reading the file, or a chunk can't be mapped at once
+     */
+    @Nonnull
+    private long[] split(@Nonnull final FileChannel channel) throws IOException {
+        final long size = channel.size();
+        final int chunks = (int) Math.max(this.threads, (size + MAX_CHUNK - 1) / MAX_CHUNK);
+
+        final long[] bounds = new long[chunks + 1];
+        final ByteBuffer scan = ByteBuffer.allocate(4096);
+
+        bounds[chunks] = size;
+        for (int i = 1; i < chunks; ++i) {
+            long position = Math.max(bounds[i - 1], size / chunks * i);
+
+            // Move forward to just past the next line break.
+            found:
+            while (position < size) {
+                scan.clear();
+                final int read = channel.read(scan, position);
+                if (read <= 0) {
+                    position = size;
+                    break;
+                }
+
+                for (int j = 0; j < read; ++j) {
+                    if (scan.get(j) == '\n') {
+                        position += j + 1;
+                        break found;
+                    }
+                }
+                position += read;
+            }
+
+            bounds[i] = Math.min(position, size);
+        }
+
+        for (int i = 0; i < chunks; ++i) {
+            if (bounds[i + 1] - bounds[i] > MAX_MAPPED) {
+                throw new IOException("Line ending at position " + bounds[i + 1]
+                        + " is too long to split the file at; chunks are limited to " + MAX_MAPPED + " bytes");
+            }
+        }
+
+        return bounds;
+    }
+
+    /**
+     * Imports every line of a single chunk of a file.
+     *
+     * @param channel the file being imported
+     * @param start the position of the chunk's first line
+     * @param end the position just past the chunk's last line
+     * @param skip whether or not to skip the chunk's first line
+     * @return the number of imported rows
+     * @throws IOException if there is an exception mapping the file
+     * @throws SQLException if there is an exception getting a connection or preparing the statement
+     */
+    private long importChunk(@Nonnull final FileChannel channel,
+                             final long start,
+                             final long end,
+                             final boolean skip) throws IOException, SQLException {
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+        final int limit = buffer.limit();
+
+        try (final Connection c = this.database.getConnection();
+             final PreparedStatement s = c.prepareStatement(this.statement)) {
+            final boolean autoCommit = c.getAutoCommit();
+            c.setAutoCommit(false);
+
+            final int columns = s.getParameterMetaData().getParameterCount();
+            final List<Row> batch = new ArrayList<>(this.batchSize);
+            byte[] scratch = new byte[256];
+            long rows = 0;
+
+            int position = 0;
+            if (skip) {
+                while (position < limit && buffer.get(position++) != '\n') {
+                    // Skip the header.
+                }
+            }
+
+            try {
+                while (position < limit) {
+                    final int lineStart = position;
+                    final String[] fields = new String[columns];
+                    int count = 0;
+                    boolean endOfLine = false;
+
+                    if (buffer.get(position) == '\n' || buffer.get(position) == '\r'
+                            && (position + 1 == limit || buffer.get(position + 1) == '\n')) {
+                        position += buffer.get(position) == '\r' ? 2 : 1;
+                        continue;
+                    }
+
+                    while (!endOfLine) {
+                        int length = 0;
+                        boolean quoted = false;
+
+                        if (position < limit && buffer.get(position) == '"') {
+                            quoted = true;
+                            ++position;
+
+                            while (position < limit) {
+                                final byte b = buffer.get(position++);
+                                if (b == '"') {
+                                    if (position < limit && buffer.get(position) == '"') {
+                                        ++position;
+                                    } else {
+                                        break;
+                                    }
+                                }
+
+                                if (length == scratch.length) {
+                                    scratch = Arrays.copyOf(scratch, length * 2);
+                                }
+                                scratch[length++] = b;
+                            }
+                        }
+
+                        endOfLine = true;
+                        while (position < limit) {
+                            final byte b = buffer.get(position++);
+                            if (b == ',') {
+                                endOfLine = false;
+                                break;
+                            } else if (b == '\n') {
+                                break;
+                            } else if (!quoted) {
+                                if (length == scratch.length) {
+                                    scratch = Arrays.copyOf(scratch, length * 2);
+                                }
+                                scratch[length++] = b;
+                            }
+                        }
+
+                        if (endOfLine && !quoted && length > 0 && scratch[length - 1] == '\r') {
+                            --length;
+                        }
+
+                        if (count < columns) {
+                            fields[count] = length == 0 && !quoted
+                                    ? null
+                                    : new String(scratch, 0, length, StandardCharsets.UTF_8);
+                        }
+                        ++count;
+                    }
+
+                    if (count != columns) {
+                        this.reject(buffer, start, lineStart, position, new SQLException(
+                                "Expected " + columns + " values but found " + count));
+                        continue;
+                    }
+
+                    bind(s, fields);
+                    s.addBatch();
+                    batch.add(new Row(lineStart, position, fields));
+
+                    if (batch.size() >= this.batchSize) {
+                        rows += this.flush(c, s, batch, buffer, start);
+                    }
+                }
+
+                rows += this.flush(c, s, batch, buffer, start);
+            } finally {
+                c.setAutoCommit(autoCommit);
+            }
+
+            return rows;
+        }
+    }
+
+    /**
+     * Executes and commits a batch, retrying its rows one by one if it fails.
+     *
+     * @param c the {@link Connection} the batch is executed on
+     * @param s the statement holding the batch
+     * @param batch the rows in the batch
+     * @param buffer the chunk the rows were read from
+     * @param start the position of the chunk within the file
+     * @return the number of imported rows
+     * @throws SQLException if the batch couldn't be rolled back
+     */
+    private long flush(@Nonnull final Connection c,
+                       @Nonnull final PreparedStatement s,
+                       @Nonnull final List<Row> batch,
+                       @Nonnull final ByteBuffer buffer,
+                       final long start) throws SQLException {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        long rows = batch.size();
+        try {
+            s.executeBatch();
+            c.commit();
+        } catch (final SQLException e) {
+            c.rollback();
+            s.clearBatch();
+
+            rows = 0;
+            for (final Row row : batch) {
+                try {
+                    bind(s, row.fields);
+                    s.executeUpdate();
+                    c.commit();
+                    ++rows;
+                } catch (final SQLException rowException) {
+                    c.rollback();
+                    this.reject(buffer, start, row.start, row.end, rowException);
+                }
+            }
+        }
+
+        batch.clear();
+        return rows;
+    }
+
+    /**
+     * Hands a row that couldn't be imported to the {@link ImportErrorHandler}.
+     *
+     * @param buffer the chunk the row was read from
+     * @param chunk the position of the chunk within the file
+     * @param start the position of the row within the chunk
+     * @param end the position just past the row within the chunk
+     * @param cause the reason the row couldn't be imported
+     */
+    private void reject(@Nonnull final ByteBuffer buffer,
+                        final long chunk,
+                        final int start,
+                        final int end,
+                        @Nonnull final Exception cause) {
+        final byte[] line = new byte[end - start];
+        for (int i = 0; i < line.length; ++i) {
+            line[i] = buffer.get(start + i);
+        }
+
+        this.errorHandler.reject(chunk + start, new String(line, StandardCharsets.UTF_8).trim(), cause);
+    }
+
+    /**
+     * Binds the values of a row to the insert statement.
+     *
+     * @param s the insert statement
+     * @param fields the values of the row
+     * @throws SQLException if a value couldn't be bound
+     */
+    private static void bind(@Nonnull final PreparedStatement s, @Nonnull final String[] fields) throws SQLException {
+        for (int i = 0; i < fields.length; ++i) {
+            if (fields[i] == null) {
+                s.setNull(i + 1, Types.VARCHAR);
+            } else {
+                s.setString(i + 1, fields[i]);
+            }
+        }
+    }
+
+    /**
+     * A row waiting in a batch, kept so it can be retried or rejected on its own.
+     */
+    private static final class Row {
+
+        /**
+         * The position of the row within its chunk.
+         */
+        private final int start;
+
+        /**
+         * The position just past the row within its chunk.
+         */
+        private final int end;
+
+        /**
+         * The values of the row.
+         */
+        @Nonnull private final String[] fields;
+
+        /**
+         * Constructs a new {@link Row}.
+         *
+         * @param start the position of the row within its chunk
+         * @param end the position just past the row within its chunk
+         * @param fields the values of the row
+         */
+        private Row(final int start, final int end, @Nonnull final String[] fields) {
+            this.start = start;
+            this.end = end;
+            this.fields = fields;
+        }
+    }
+}
@@ -0,0 +1,430 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A registry of named {@link Database}s, such as one per tenant.
+ *
+ * <p>The {@link Database}s handed out by this registry are lightweight
+ * handles. The underlying {@link BasicDatabase}, and with it its pool, is
+ * only created once a handle is first used, and is closed again once it has
+ * been idle for longer than the configured timeout. Using the handle after
+ * that simply creates a new pool.</p>
+ *
+ * <p>All {@link Database}s in a registry share a single cap on the number of
+ * connections they may have checked out at once, as well as a single thread
+ * for closing idle pools. Pools are created with a single helper thread and
+ * no minimum size, so that every open pool costs as little as possible.</p>
+ */
+public class DatabaseRegistry implements AutoCloseable {
+
+    /**
+     * The logger for {@link DatabaseRegistry}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseRegistry.class);
+
+    /**
+     * The type of every {@link Database} in this registry.
+     */
+    @Nonnull private final String protocol;
+
+    /**
+     * Creates the {@link BasicDatabase} for a given name.
+     */
+    @Nonnull private final Function<String, ? extends BasicDatabase> factory;
+
+    /**
+     * The handles for every name that has been requested.
+     */
+    @Nonnull private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    /**
+     * The connections that may still be checked out across every {@link Database}.
+     */
+    @Nonnull private final Semaphore connections;
+
+    /**
+     * The maximum number of connections that may be checked out across every {@link Database}.
+     */
+    private final int maxConnections;
+
+    /**
+     * The time, in nanoseconds, after which an unused pool is closed.
+     */
+    private final long idleTimeout;
+
+    /**
+     * The time, in milliseconds, to wait for a connection once the cap has been reached.
+     */
+    private final long acquireTimeout;
+
+    /**
+     * The thread shared by every {@link Database} for closing idle pools.
+     */
+    @Nonnull private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructs a new {@link DatabaseRegistry}.
+     *
+     * <p>The protocol is reported by every {@link Database} of this registry
+     * without creating its pool, so the factory must only create
+     * {@link BasicDatabase}s of that protocol.</p>
+     *
+     * @param protocol the type of every {@link Database} in this registry
+     * @param factory creates the {@link BasicDatabase} for a given name
+     * @param maxConnections the maximum number of connections checked out across every {@link Database}
+     * @param acquireTimeout the time, in milliseconds, to wait for a connection once the cap has been reached
+     * @param idleTimeout the time after which an unused pool is closed
+     * @param unit the unit of the idle timeout
+     */
+    public DatabaseRegistry(@Nonnull final String protocol,
+                            @Nonnull final Function<String, ? extends BasicDatabase> factory,
+                            final int maxConnections,
+                            final long acquireTimeout,
+                            final long idleTimeout,
+                            @Nonnull final TimeUnit unit) {
+        this.protocol = protocol;
+        this.factory = factory;
+        this.maxConnections = maxConnections;
+        this.connections = new Semaphore(maxConnections, true);
+        this.acquireTimeout = acquireTimeout;
+        this.idleTimeout = unit.toNanos(idleTimeout);
+
+        final long period = Math.max(1, unit.toMillis(idleTimeout) / 2);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Threads.daemon("basicsql-registry"));
+        this.scheduler.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the {@link Database} registered under a name.
+     *
+     * <p>No pool is created until the returned {@link Database} is used.</p>
+     *
+     * @param name the name of the {@link Database}
+     * @return the {@link Database} registered under the name
+     */
+    @Nonnull
+    public Database get(@Nonnull final String name) {
+        return this.tenants.computeIfAbsent(name, Tenant::new);
+    }
+
+    /**
+     * Gets the names of every {@link Database} that has been requested.
+     *
+     * @return the names of every requested {@link Database}
+     */
+    @Nonnull
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(this.tenants.keySet());
+    }
+
+    /**
+     * Gets the number of {@link Database}s that currently have an open pool.
+     *
+     * @return the number of open pools
+     */
+    public int getOpenPools() {
+        return (int) this.tenants.values().stream().filter(t -> t.database != null).count();
+    }
+
+    /**
+     * Gets the number of connections currently checked out across every {@link Database}.
+     *
+     * @return the number of checked out connections
+     */
+    public int getConnectionsInUse() {
+        return this.maxConnections - this.connections.availablePermits();
+    }
+
+    /**
+     * Gets the maximum number of connections that may be checked out across every {@link Database}.
+     *
+     * @return the maximum number of checked out connections
+     */
+    public int getMaxConnections() {
+        return this.maxConnections;
+    }
+
+    /**
+     * Closes the pool of every {@link Database} that has been idle for longer than the timeout.
+     */
+    public void closeIdle() {
+        final long now = System.nanoTime();
+
+        for (final Tenant tenant : this.tenants.values()) {
+            synchronized (tenant) {
+                if (tenant.database != null && tenant.inUse.get() == 0 && now - tenant.lastUsed > this.idleTimeout) {
+                    LOGGER.debug("Closing idle pool of database: {}", tenant.name);
+                    tenant.evict();
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the pool of every {@link Database}, and stops closing idle pools.
+     *
+     * <p>The {@link Database}s of this registry may still be used afterwards,
+     * but their pools will no longer be closed when idle.</p>
+     */
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+
+        for (final Tenant tenant : this.tenants.values()) {
+            synchronized (tenant) {
+                tenant.evict();
+            }
+        }
+    }
+
+    /**
+     * A handle to the lazily created {@link BasicDatabase} of a single name.
+     */
+    private final class Tenant implements Database {
+
+        /**
+         * The name of this {@link Database}.
+         */
+        @Nonnull private final String name;
+
+        /**
+         * The number of connections currently checked out of this {@link Database}.
+         */
+        @Nonnull private final AtomicInteger inUse = new AtomicInteger();
+
+        /**
+         * The underlying {@link BasicDatabase}, or null if its pool isn't open.
+         */
+        @Nullable private volatile BasicDatabase database = null;
+
+        /**
+         * Whether or not this {@link Database} has been closed for good.
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * The {@link System#nanoTime()} at which a connection was last checked out or returned.
+         */
+        private volatile long lastUsed = System.nanoTime();
+
+        /**
+         * Constructs a new {@link Tenant}.
+         *
+         * @param name the name of this {@link Database}
+         */
+        private Tenant(@Nonnull final String name) {
+            this.name = name;
+        }
+
+        /**
+         * Gets the underlying {@link BasicDatabase}, creating it if needed.
+         *
+         * <p>Must be called while synchronized on this {@link Tenant}.</p>
+         *
+         * @return the underlying {@link BasicDatabase}
+         * @throws IllegalStateException if this {@link Database} has been closed
+         */
+        @Nonnull
+        private BasicDatabase open() {
+            if (this.closed) {
+                throw new IllegalStateException("Database is closed: " + this.name);
+            }
+
+            BasicDatabase database = this.database;
+            if (database == null) {
+                LOGGER.debug("Opening pool of database: {}", this.name);
+                database = DatabaseRegistry.this.factory.apply(this.name);
+                database.getDataSource().setNumHelperThreads(1);
+                database.getDataSource().setMinPoolSize(0);
+                database.getDataSource().setInitialPoolSize(0);
+                this.database = database;
+            }
+            return database;
+        }
+
+        /**
+         * Closes the pool of the underlying {@link BasicDatabase}, if open.
+         *
+         * <p>Unlike idle pools, the pool is never opened again: connections
+         * can no longer be checked out of this {@link Database}.</p>
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                this.closed = true;
+                this.evict();
+            }
+        }
+
+        /**
+         * Closes the pool of the underlying {@link BasicDatabase}, if open, to be opened again once used.
+         *
+         * <p>Must be called while synchronized on this {@link Tenant}.</p>
+         */
+        private void evict() {
+            final BasicDatabase database = this.database;
+            if (database != null) {
+                this.database = null;
+                database.close();
+            }
+        }
+
+        @Override
+        public boolean drain(final long timeout, @Nonnull final TimeUnit unit) {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+            try {
+                while (this.inUse.get() > 0 && System.nanoTime() < deadline) {
+                    Thread.sleep(10);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            final boolean drained = this.inUse.get() == 0;
+            if (!drained) {
+                LOGGER.error("Closing pool of database {} with connections still in use after draining", this.name);
+            }
+            this.close();
+            return drained;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return this.closed;
+        }
+
+        @Nonnull
+        @Override
+        public String getProtocol() {
+            return DatabaseRegistry.this.protocol;
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>Opens the pool of this {@link Database} if it isn't open.</p>
+         *
+         * @throws IllegalStateException if this {@link Database} has been closed
+         */
+        @Nonnull
+        @Override
+        public DataSource getDataSource() {
+            synchronized (this) {
+                return this.open().getDataSource();
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         *
+         * <p>Does nothing unless the pool of this {@link Database} is open,
+         * as a newly opened pool is configured by the factory.</p>
+         */
+        @Override
+        public void configure() {
+            synchronized (this) {
+                final BasicDatabase database = this.database;
+                if (database != null) {
+                    database.configure();
+                }
+            }
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            final DatabaseRegistry registry = DatabaseRegistry.this;
+            if (this.closed) {
+                throw new SQLException("Database is closed: " + this.name);
+            }
+
+            try {
+                if (!registry.connections.tryAcquire(registry.acquireTimeout, TimeUnit.MILLISECONDS)) {
+                    throw new SQLException("Timed out waiting for one of " + registry.maxConnections
+                            + " connections shared by database: " + this.name);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while waiting for a connection to database: " + this.name, e);
+            }
+
+            final BasicDatabase database;
+            synchronized (this) {
+                if (this.closed) {
+                    registry.connections.release();
+                    throw new SQLException("Database is closed: " + this.name);
+                }
+                database = this.open();
+                this.inUse.incrementAndGet();
+            }
+
+            final Connection connection;
+            try {
+                connection = database.getConnection();
+            } catch (final SQLException | RuntimeException e) {
+                this.release();
+                throw e;
+            }
+
+            this.lastUsed = System.nanoTime();
+            return Connections.onClose(connection, this::release);
+        }
+
+        /**
+         * Returns a checked out connection to the count of this {@link Database} and its registry.
+         */
+        private void release() {
+            this.lastUsed = System.nanoTime();
+            this.inUse.decrementAndGet();
+            DatabaseRegistry.this.connections.release();
+        }
+
+        @Override
+        public boolean isDefaultDatabase() {
+            return DefaultDatabase.isDefaultDatabase(this);
+        }
+    }
+}
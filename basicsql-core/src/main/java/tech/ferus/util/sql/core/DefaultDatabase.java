@@ -26,19 +26,28 @@ package tech.ferus.util.sql.core;
 
 import tech.ferus.util.sql.api.Database;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Contains and manages the configured default {@link Database}.
  */
 public final class DefaultDatabase {
 
+    /**
+     * The logger for {@link DefaultDatabase}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultDatabase.class);
+
     /**
      * The default database, to be set by utilizing developers.
      */
-    private static Database defaultDatabase = null;
+    @Nonnull private static final AtomicReference<Database> defaultDatabase = new AtomicReference<>();
 
     /**
      * Gets the connection that has been configured by the default {@link Database}.
@@ -47,11 +56,12 @@ public final class DefaultDatabase {
      * @throws SQLException if there is an exception during the connection or in syntax
      */
     public static Connection getConnection() throws SQLException {
-        if (DefaultDatabase.isDefaultDatabaseSet()) {
+        final Database database = DefaultDatabase.defaultDatabase.get();
+        if (database == null) {
             throw new IllegalStateException("Default database hasn't been set.");
         }
 
-        return DefaultDatabase.defaultDatabase.getConnection();
+        return database.getConnection();
     }
 
     /**
@@ -60,7 +70,7 @@ public final class DefaultDatabase {
      * @return the configured default {@link Database}
      */
     public static Database getDatabase() {
-        return DefaultDatabase.defaultDatabase;
+        return DefaultDatabase.defaultDatabase.get();
     }
 
     /**
@@ -69,7 +79,7 @@ public final class DefaultDatabase {
      * @return true if a {@link Database} has been set as default
      */
     public static boolean isDefaultDatabaseSet() {
-        return DefaultDatabase.defaultDatabase != null;
+        return DefaultDatabase.defaultDatabase.get() != null;
     }
 
     /**
@@ -78,7 +88,33 @@ public final class DefaultDatabase {
      * @param defaultDatabase the {@link Database} to be set as default
      */
     public static void setDefaultDatabase(@Nonnull final Database defaultDatabase) {
-        DefaultDatabase.defaultDatabase = defaultDatabase;
+        DefaultDatabase.defaultDatabase.set(defaultDatabase);
+    }
+
+    /**
+     * Replaces the default {@link Database}, then drains and closes the one it replaced.
+     *
+     * <p>Calls made after the swap use the replacement right away, while
+     * calls already using the replaced {@link Database} are given until the
+     * timeout to finish before it is closed. Blocks until it is closed.</p>
+     *
+     * @param replacement the {@link Database} to be set as default
+     * @param timeout the longest time to wait for calls using the replaced {@link Database}
+     * @param unit the unit of the timeout
+     * @return true if every call using the replaced {@link Database} finished in time, or there was none; false otherwise
+     */
+    public static boolean swapDefaultDatabase(@Nonnull final Database replacement,
+                                              final long timeout,
+                                              @Nonnull final TimeUnit unit) {
+        final Database replaced = DefaultDatabase.defaultDatabase.getAndSet(replacement);
+        if (replaced == null || replaced == replacement) {
+            return true;
+        }
+
+        LOGGER.debug("Attempting to drain replaced default database: {}", replaced.getProtocol());
+        final boolean drained = replaced.drain(timeout, unit);
+        LOGGER.debug("Finished draining replaced default database: {}", replaced.getProtocol());
+        return drained;
     }
 
     /**
@@ -89,7 +125,6 @@ public final class DefaultDatabase {
      * @return true if the provided {@link Database} is set as default; false otherwise
      */
     public static boolean isDefaultDatabase(@Nonnull final Database database) {
-        return DefaultDatabase.isDefaultDatabaseSet()
-                && DefaultDatabase.defaultDatabase == database;
+        return DefaultDatabase.defaultDatabase.get() == database;
     }
 }
@@ -0,0 +1,241 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * A cursor over the rows of a {@link DetachedResult}.
+ *
+ * <p>Like a {@link java.sql.ResultSet}, a cursor starts before the first
+ * row, and can be moved freely afterwards. Columns can be accessed by index,
+ * starting at 1, or by label. Every cursor has its own position, so any
+ * number of them can be used over the same {@link DetachedResult}.</p>
+ */
+public final class DetachedCursor {
+
+    /**
+     * The results this cursor moves over.
+     */
+    @Nonnull private final DetachedResult result;
+
+    /**
+     * The index of the current row, starting at 0.
+     */
+    private int row = -1;
+
+    /**
+     * Constructs a new {@link DetachedCursor}.
+     *
+     * @param result the results to move over
+     */
+    DetachedCursor(@Nonnull final DetachedResult result) {
+        this.result = result;
+    }
+
+    /**
+     * Moves to the next row.
+     *
+     * @return true if the new row exists; false if the cursor has moved past the last row
+     */
+    public boolean next() {
+        if (this.row < this.result.getRowCount()) {
+            ++this.row;
+        }
+        return this.row < this.result.getRowCount();
+    }
+
+    /**
+     * Moves to a row.
+     *
+     * @param row the index of the row, starting at 0
+     * @return true if the row exists; false otherwise
+     */
+    public boolean absolute(final int row) {
+        this.row = Math.max(-1, Math.min(row, this.result.getRowCount()));
+        return this.row >= 0 && this.row < this.result.getRowCount();
+    }
+
+    /**
+     * Moves to before the first row, so that the rows can be iterated again.
+     */
+    public void beforeFirst() {
+        this.row = -1;
+    }
+
+    /**
+     * Gets the index of the current row.
+     *
+     * @return the index of the current row, starting at 0
+     */
+    public int getRow() {
+        return this.row;
+    }
+
+    /**
+     * Determines whether or not a value of the current row is null.
+     *
+     * @param column the index of the column, starting at 1
+     * @return true if the value is null; false otherwise
+     */
+    public boolean isNull(final int column) {
+        return this.result.isNull(this.row, column);
+    }
+
+    /**
+     * Determines whether or not a value of the current row is null.
+     *
+     * @param label the label of the column
+     * @return true if the value is null; false otherwise
+     */
+    public boolean isNull(@Nonnull final String label) {
+        return this.isNull(this.result.findColumn(label));
+    }
+
+    /**
+     * Gets a value of the current row as a long.
+     *
+     * @param column the index of the column, starting at 1
+     * @return the value as a long, or 0 if it is null
+     */
+    public long getLong(final int column) {
+        return this.result.getLong(this.row, column);
+    }
+
+    /**
+     * Gets a value of the current row as a long.
+     *
+     * @param label the label of the column
+     * @return the value as a long, or 0 if it is null
+     */
+    public long getLong(@Nonnull final String label) {
+        return this.getLong(this.result.findColumn(label));
+    }
+
+    /**
+     * Gets a value of the current row as an int.
+     *
+     * @param column the index of the column, starting at 1
+     * @return the value as an int, or 0 if it is null
+     */
+    public int getInt(final int column) {
+        return this.result.getInt(this.row, column);
+    }
+
+    /**
+     * Gets a value of the current row as an int.
+     *
+     * @param label the label of the column
+     * @return the value as an int, or 0 if it is null
+     */
+    public int getInt(@Nonnull final String label) {
+        return this.getInt(this.result.findColumn(label));
+    }
+
+    /**
+     * Gets a value of the current row as a boolean.
+     *
+     * @param column the index of the column, starting at 1
+     * @return the value as a boolean, or false if it is null
+     */
+    public boolean getBoolean(final int column) {
+        return this.result.getBoolean(this.row, column);
+    }
+
+    /**
+     * Gets a value of the current row as a boolean.
+     *
+     * @param label the label of the column
+     * @return the value as a boolean, or false if it is null
+     */
+    public boolean getBoolean(@Nonnull final String label) {
+        return this.getBoolean(this.result.findColumn(label));
+    }
+
+    /**
+     * Gets a value of the current row as a double.
+     *
+     * @param column the index of the column, starting at 1
+     * @return the value as a double, or 0 if it is null
+     */
+    public double getDouble(final int column) {
+        return this.result.getDouble(this.row, column);
+    }
+
+    /**
+     * Gets a value of the current row as a double.
+     *
+     * @param label the label of the column
+     * @return the value as a double, or 0 if it is null
+     */
+    public double getDouble(@Nonnull final String label) {
+        return this.getDouble(this.result.findColumn(label));
+    }
+
+    /**
+     * Gets a value of the current row as a string.
+     *
+     * @param column the index of the column, starting at 1
+     * @return the value as a string, or null if it is null
+     */
+    @Nullable
+    public String getString(final int column) {
+        return this.result.getString(this.row, column);
+    }
+
+    /**
+     * Gets a value of the current row as a string.
+     *
+     * @param label the label of the column
+     * @return the value as a string, or null if it is null
+     */
+    @Nullable
+    public String getString(@Nonnull final String label) {
+        return this.getString(this.result.findColumn(label));
+    }
+
+    /**
+     * Gets a value of the current row as bytes.
+     *
+     * @param column the index of the column, starting at 1
+     * @return the value as bytes, or null if it is null
+     */
+    @Nullable
+    public byte[] getBytes(final int column) {
+        return this.result.getBytes(this.row, column);
+    }
+
+    /**
+     * Gets a value of the current row as bytes.
+     *
+     * @param label the label of the column
+     * @return the value as bytes, or null if it is null
+     */
+    @Nullable
+    public byte[] getBytes(@Nonnull final String label) {
+        return this.getBytes(this.result.findColumn(label));
+    }
+}
@@ -0,0 +1,841 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.Preparer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Optional;
+
+/**
+ * The results of a query, copied out of their {@link ResultSet} into a compact, columnar layout.
+ *
+ * <p>Fetching a {@link DetachedResult} drains the {@link ResultSet} as fast as
+ * possible, so the {@link java.sql.Connection} it came from is returned to its
+ * pool as soon as the rows have been read, rather than once they have been
+ * processed.</p>
+ *
+ * <p>Integer and boolean columns are kept in {@code long} arrays, and
+ * floating point columns in {@code double} arrays. All other columns are
+ * kept as bytes (UTF-8 for text), which are moved from the heap to a
+ * memory-mapped temporary file once they exceed the spill threshold.</p>
+ *
+ * <p>Rows are indexed from 0, while columns are indexed from 1, like a
+ * {@link ResultSet}. A {@link DetachedResult} may be read from several
+ * threads at once, and should be closed once it is no longer needed so that
+ * any temporary file is deleted.</p>
+ */
+public final class DetachedResult implements Closeable {
+
+    /**
+     * The logger for {@link DetachedResult}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(DetachedResult.class);
+
+    /**
+     * The default number of bytes kept on the heap before spilling to a temporary file.
+     */
+    public static final long DEFAULT_SPILL_THRESHOLD = 64L * 1024 * 1024;
+
+    /**
+     * The labels of every column.
+     */
+    @Nonnull private final String[] labels;
+
+    /**
+     * The data of every column.
+     */
+    @Nonnull private final Column[] columns;
+
+    /**
+     * The bytes of every non-numeric column.
+     */
+    @Nonnull private final ByteStore store;
+
+    /**
+     * The number of rows.
+     */
+    private final int rows;
+
+    /**
+     * Constructs a new {@link DetachedResult}.
+     *
+     * @param labels the labels of every column
+     * @param columns the data of every column
+     * @param store the bytes of every non-numeric column
+     * @param rows the number of rows
+     */
+    private DetachedResult(@Nonnull final String[] labels,
+                           @Nonnull final Column[] columns,
+                           @Nonnull final ByteStore store,
+                           final int rows) {
+        this.labels = labels;
+        this.columns = columns;
+        this.store = store;
+        this.rows = rows;
+    }
+
+    /**
+     * Fetches the results of a query into a {@link DetachedResult}.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @return the detached results wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static Optional<DetachedResult> fetch(@Nonnull final String statement,
+                                                 @Nonnull final Preparer preparer) {
+        return fetch(DefaultDatabase.getDatabase(), statement, preparer);
+    }
+
+    /**
+     * Fetches the results of a query into a {@link DetachedResult}.
+     *
+     * @param database the {@link Database} to execute the query on
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @return the detached results wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static Optional<DetachedResult> fetch(@Nonnull final Database database,
+                                                 @Nonnull final String statement,
+                                                 @Nonnull final Preparer preparer) {
+        return fetch(database, statement, preparer, DEFAULT_SPILL_THRESHOLD);
+    }
+
+    /**
+     * Fetches the results of a query into a {@link DetachedResult}.
+     *
+     * @param database the {@link Database} to execute the query on
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param spillThreshold the number of bytes to keep on the heap before spilling to a temporary file
+     * @return the detached results wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public static Optional<DetachedResult> fetch(@Nonnull final Database database,
+                                                 @Nonnull final String statement,
+                                                 @Nonnull final Preparer preparer,
+                                                 final long spillThreshold) {
+        return BasicSql.returnQuery(database, statement, preparer, r -> detach(r, spillThreshold));
+    }
+
+    /**
+     * Drains every remaining row of a {@link ResultSet} into a {@link DetachedResult}.
+     *
+     * @param r the {@link ResultSet} to be drained
+     * @param spillThreshold the number of bytes to keep on the heap before spilling to a temporary file
+     * @return the detached results
+     * @throws SQLException if there is an exception reading from the {@link ResultSet} or spilling its data
+     */
+    @Nonnull
+    public static DetachedResult detach(@Nonnull final ResultSet r, final long spillThreshold) throws SQLException {
+        final ResultSetMetaData meta = r.getMetaData();
+        final int count = meta.getColumnCount();
+
+        final String[] labels = new String[count];
+        final Column[] columns = new Column[count];
+        for (int i = 0; i < count; ++i) {
+            labels[i] = meta.getColumnLabel(i + 1);
+            columns[i] = Column.of(meta.getColumnType(i + 1));
+        }
+
+        final ByteStore store = new ByteStore(spillThreshold);
+        try {
+            int rows = 0;
+            while (r.next()) {
+                for (int i = 0; i < count; ++i) {
+                    columns[i].read(r, i + 1, rows, store);
+                }
+                ++rows;
+            }
+
+            store.finish();
+            return new DetachedResult(labels, columns, store, rows);
+        } catch (final IOException e) {
+            store.close();
+            throw new SQLException("Failed to spill detached results to disk", e);
+        } catch (final SQLException | RuntimeException e) {
+            store.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a new cursor over every row, positioned before the first row.
+     *
+     * @return a new cursor over every row
+     */
+    @Nonnull
+    public DetachedCursor cursor() {
+        return new DetachedCursor(this);
+    }
+
+    /**
+     * Gets the number of rows.
+     *
+     * @return the number of rows
+     */
+    public int getRowCount() {
+        return this.rows;
+    }
+
+    /**
+     * Gets the number of columns.
+     *
+     * @return the number of columns
+     */
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    /**
+     * Gets the label of a column.
+     *
+     * @param column the index of the column, starting at 1
+     * @return the label of the column
+     */
+    @Nonnull
+    public String getColumnLabel(final int column) {
+        return this.labels[column - 1];
+    }
+
+    /**
+     * Finds the index of a column by its label, ignoring case.
+     *
+     * @param label the label of the column
+     * @return the index of the column, starting at 1
+     * @throws IllegalArgumentException if there is no column with the label
+     */
+    public int findColumn(@Nonnull final String label) {
+        for (int i = 0; i < this.labels.length; ++i) {
+            if (this.labels[i].equalsIgnoreCase(label)) {
+                return i + 1;
+            }
+        }
+        throw new IllegalArgumentException("No column with label: " + label);
+    }
+
+    /**
+     * Determines whether or not a value is null.
+     *
+     * @param row the index of the row, starting at 0
+     * @param column the index of the column, starting at 1
+     * @return true if the value is null; false otherwise
+     */
+    public boolean isNull(final int row, final int column) {
+        return this.column(row, column).isNull(row);
+    }
+
+    /**
+     * Gets a value as a long.
+     *
+     * @param row the index of the row, starting at 0
+     * @param column the index of the column, starting at 1
+     * @return the value as a long, or 0 if it is null
+     */
+    public long getLong(final int row, final int column) {
+        return this.column(row, column).getLong(row, this.store);
+    }
+
+    /**
+     * Gets a value as an int.
+     *
+     * @param row the index of the row, starting at 0
+     * @param column the index of the column, starting at 1
+     * @return the value as an int, or 0 if it is null
+     */
+    public int getInt(final int row, final int column) {
+        return (int) this.getLong(row, column);
+    }
+
+    /**
+     * Gets a value as a boolean.
+     *
+     * @param row the index of the row, starting at 0
+     * @param column the index of the column, starting at 1
+     * @return the value as a boolean, or false if it is null
+     */
+    public boolean getBoolean(final int row, final int column) {
+        return this.getLong(row, column) != 0;
+    }
+
+    /**
+     * Gets a value as a double.
+     *
+     * @param row the index of the row, starting at 0
+     * @param column the index of the column, starting at 1
+     * @return the value as a double, or 0 if it is null
+     */
+    public double getDouble(final int row, final int column) {
+        return this.column(row, column).getDouble(row, this.store);
+    }
+
+    /**
+     * Gets a value as a string.
+     *
+     * @param row the index of the row, starting at 0
+     * @param column the index of the column, starting at 1
+     * @return the value as a string, or null if it is null
+     */
+    @Nullable
+    public String getString(final int row, final int column) {
+        return this.column(row, column).getString(row, this.store);
+    }
+
+    /**
+     * Gets a value as bytes.
+     *
+     * @param row the index of the row, starting at 0
+     * @param column the index of the column, starting at 1
+     * @return the value as bytes, or null if it is null
+     */
+    @Nullable
+    public byte[] getBytes(final int row, final int column) {
+        return this.column(row, column).getBytes(row, this.store);
+    }
+
+    /**
+     * Deletes the temporary file holding spilled data, if any.
+     *
+     * <p>Strings and bytes can no longer be read afterwards; doing so throws
+     * an {@link IllegalStateException}.</p>
+     */
+    @Override
+    public void close() {
+        this.store.close();
+    }
+
+    /**
+     * Gets a column, checking that the row exists.
+     *
+     * @param row the index of the row, starting at 0
+     * @param column the index of the column, starting at 1
+     * @return the column
+     */
+    @Nonnull
+    private Column column(final int row, final int column) {
+        if (row < 0 || row >= this.rows) {
+            throw new IndexOutOfBoundsException("Row " + row + " out of " + this.rows);
+        }
+        return this.columns[column - 1];
+    }
+
+    /**
+     * The data of a single column.
+     */
+    private abstract static class Column {
+
+        /**
+         * The rows for which the value is null.
+         */
+        @Nonnull final BitSet nulls = new BitSet();
+
+        /**
+         * Creates an empty column for a column type.
+         *
+         * @param type the {@link Types type} of the column
+         * @return an empty column
+         */
+        @Nonnull
+        static Column of(final int type) {
+            switch (type) {
+                case Types.BIT:
+                case Types.BOOLEAN:
+                case Types.TINYINT:
+                case Types.SMALLINT:
+                case Types.INTEGER:
+                case Types.BIGINT:
+                    return new LongColumn();
+                case Types.REAL:
+                case Types.FLOAT:
+                case Types.DOUBLE:
+                    return new DoubleColumn();
+                case Types.BINARY:
+                case Types.VARBINARY:
+                case Types.LONGVARBINARY:
+                case Types.BLOB:
+                    return new BytesColumn(false);
+                default:
+                    return new BytesColumn(true);
+            }
+        }
+
+        /**
+         * Reads the value of this column from the current row of a {@link ResultSet}.
+         *
+         * @param r the {@link ResultSet} to read from
+         * @param column the index of this column in the {@link ResultSet}
+         * @param row the index of the row being read
+         * @param store the store for non-numeric data
+         * @throws SQLException if there is an exception reading from the {@link ResultSet}
+         * @throws IOException if there is an exception spilling data
+         */
+        abstract void read(@Nonnull ResultSet r, int column, int row, @Nonnull ByteStore store)
+                throws SQLException, IOException;
+
+        /**
+         * Determines whether or not the value of a row is null.
+         *
+         * @param row the index of the row
+         * @return true if the value is null; false otherwise
+         */
+        boolean isNull(final int row) {
+            return this.nulls.get(row);
+        }
+
+        /**
+         * Gets the value of a row as a long.
+         *
+         * @param row the index of the row
+         * @param store the store for non-numeric data
+         * @return the value as a long, or 0 if it is null
+         */
+        abstract long getLong(int row, @Nonnull ByteStore store);
+
+        /**
+         * Gets the value of a row as a double.
+         *
+         * @param row the index of the row
+         * @param store the store for non-numeric data
+         * @return the value as a double, or 0 if it is null
+         */
+        abstract double getDouble(int row, @Nonnull ByteStore store);
+
+        /**
+         * Gets the value of a row as a string.
+         *
+         * @param row the index of the row
+         * @param store the store for non-numeric data
+         * @return the value as a string, or null if it is null
+         */
+        @Nullable
+        abstract String getString(int row, @Nonnull ByteStore store);
+
+        /**
+         * Gets the value of a row as bytes.
+         *
+         * @param row the index of the row
+         * @param store the store for non-numeric data
+         * @return the value as bytes, or null if it is null
+         */
+        @Nullable
+        abstract byte[] getBytes(int row, @Nonnull ByteStore store);
+    }
+
+    /**
+     * A column of integers or booleans.
+     */
+    private static final class LongColumn extends Column {
+
+        /**
+         * The value of every row.
+         */
+        private long[] values = new long[64];
+
+        @Override
+        void read(@Nonnull final ResultSet r, final int column, final int row, @Nonnull final ByteStore store)
+                throws SQLException {
+            if (row == this.values.length) {
+                this.values = Arrays.copyOf(this.values, row * 2);
+            }
+
+            this.values[row] = r.getLong(column);
+            if (r.wasNull()) {
+                this.nulls.set(row);
+            }
+        }
+
+        @Override
+        long getLong(final int row, @Nonnull final ByteStore store) {
+            return this.values[row];
+        }
+
+        @Override
+        double getDouble(final int row, @Nonnull final ByteStore store) {
+            return this.values[row];
+        }
+
+        @Nullable
+        @Override
+        String getString(final int row, @Nonnull final ByteStore store) {
+            return this.isNull(row) ? null : Long.toString(this.values[row]);
+        }
+
+        @Nullable
+        @Override
+        byte[] getBytes(final int row, @Nonnull final ByteStore store) {
+            final String value = this.getString(row, store);
+            return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A column of floating point numbers.
+     */
+    private static final class DoubleColumn extends Column {
+
+        /**
+         * The value of every row.
+         */
+        private double[] values = new double[64];
+
+        @Override
+        void read(@Nonnull final ResultSet r, final int column, final int row, @Nonnull final ByteStore store)
+                throws SQLException {
+            if (row == this.values.length) {
+                this.values = Arrays.copyOf(this.values, row * 2);
+            }
+
+            this.values[row] = r.getDouble(column);
+            if (r.wasNull()) {
+                this.nulls.set(row);
+            }
+        }
+
+        @Override
+        long getLong(final int row, @Nonnull final ByteStore store) {
+            return (long) this.values[row];
+        }
+
+        @Override
+        double getDouble(final int row, @Nonnull final ByteStore store) {
+            return this.values[row];
+        }
+
+        @Nullable
+        @Override
+        String getString(final int row, @Nonnull final ByteStore store) {
+            return this.isNull(row) ? null : Double.toString(this.values[row]);
+        }
+
+        @Nullable
+        @Override
+        byte[] getBytes(final int row, @Nonnull final ByteStore store) {
+            final String value = this.getString(row, store);
+            return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * A column of text (as UTF-8) or raw bytes, kept in the {@link ByteStore}.
+     */
+    private static final class BytesColumn extends Column {
+
+        /**
+         * Whether the values are text, stored as UTF-8, or raw bytes.
+         */
+        private final boolean text;
+
+        /**
+         * The offset of every row's value within the {@link ByteStore}.
+         */
+        private long[] offsets = new long[64];
+
+        /**
+         * The length of every row's value within the {@link ByteStore}.
+         */
+        private int[] lengths = new int[64];
+
+        /**
+         * Constructs a new {@link BytesColumn}.
+         *
+         * @param text whether the values are text or raw bytes
+         */
+        BytesColumn(final boolean text) {
+            this.text = text;
+        }
+
+        @Override
+        void read(@Nonnull final ResultSet r, final int column, final int row, @Nonnull final ByteStore store)
+                throws SQLException, IOException {
+            if (row == this.offsets.length) {
+                this.offsets = Arrays.copyOf(this.offsets, row * 2);
+                this.lengths = Arrays.copyOf(this.lengths, row * 2);
+            }
+
+            final byte[] value;
+            if (this.text) {
+                final String s = r.getString(column);
+                value = s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+            } else {
+                value = r.getBytes(column);
+            }
+
+            if (value == null) {
+                this.nulls.set(row);
+                return;
+            }
+
+            this.offsets[row] = store.append(value);
+            this.lengths[row] = value.length;
+        }
+
+        @Override
+        long getLong(final int row, @Nonnull final ByteStore store) {
+            final String value = this.getString(row, store);
+            // NUMERIC and DECIMAL columns are kept as text, and are truncated like ResultSet#getLong does.
+            return value == null ? 0 : new BigDecimal(value.trim()).longValue();
+        }
+
+        @Override
+        double getDouble(final int row, @Nonnull final ByteStore store) {
+            final String value = this.getString(row, store);
+            return value == null ? 0 : Double.parseDouble(value.trim());
+        }
+
+        @Nullable
+        @Override
+        String getString(final int row, @Nonnull final ByteStore store) {
+            final byte[] value = this.getBytes(row, store);
+            return value == null ? null : new String(value, StandardCharsets.UTF_8);
+        }
+
+        @Nullable
+        @Override
+        byte[] getBytes(final int row, @Nonnull final ByteStore store) {
+            return this.isNull(row) ? null : store.read(this.offsets[row], this.lengths[row]);
+        }
+    }
+
+    /**
+     * Append-only storage for bytes, kept on the heap up to a threshold and in a temporary file after.
+     */
+    private static final class ByteStore implements Closeable {
+
+        /**
+         * The largest region of the temporary file that is mapped at once.
+         */
+        private static final int REGION = 1 << 30;
+
+        /**
+         * The number of bytes kept on the heap before spilling to a temporary file.
+         */
+        private final long threshold;
+
+        /**
+         * The bytes kept on the heap, until spilled.
+         */
+        private byte[] heap = new byte[1024];
+
+        /**
+         * The number of bytes in the store.
+         */
+        private long size = 0;
+
+        /**
+         * The temporary file, once spilled.
+         */
+        @Nullable private Path file = null;
+
+        /**
+         * The channel to the temporary file, once spilled.
+         */
+        @Nullable private FileChannel channel = null;
+
+        /**
+         * The bytes waiting to be written to the temporary file.
+         */
+        @Nullable private ByteBuffer pending = null;
+
+        /**
+         * The mapped regions of the temporary file, once finished.
+         */
+        @Nullable private MappedByteBuffer[] regions = null;
+
+        /**
+         * Whether or not the store has been closed.
+         */
+        private volatile boolean closed = false;
+
+        /**
+         * Constructs a new {@link ByteStore}.
+         *
+         * @param threshold the number of bytes kept on the heap before spilling to a temporary file
+         */
+        ByteStore(final long threshold) {
+            this.threshold = threshold;
+        }
+
+        /**
+         * Appends bytes to the store.
+         *
+         * @param bytes the bytes to be appended
+         * @return the offset of the bytes within the store
+         * @throws IOException if there is an exception spilling to the temporary file
+         */
+        long append(@Nonnull final byte[] bytes) throws IOException {
+            final long offset = this.size;
+
+            if (this.channel == null && offset + bytes.length > this.threshold) {
+                this.spill();
+            }
+
+            if (this.channel == null) {
+                if (offset + bytes.length > this.heap.length) {
+                    this.heap = Arrays.copyOf(this.heap, (int) Math.min(Integer.MAX_VALUE - 8,
+                            Math.max(this.heap.length * 2L, offset + bytes.length)));
+                }
+                System.arraycopy(bytes, 0, this.heap, (int) offset, bytes.length);
+            } else {
+                final ByteBuffer pending = this.pending;
+                if (pending.remaining() < bytes.length) {
+                    this.drain();
+                }
+
+                if (pending.remaining() < bytes.length) {
+                    final ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+                    while (wrapped.hasRemaining()) {
+                        this.channel.write(wrapped);
+                    }
+                } else {
+                    pending.put(bytes);
+                }
+            }
+
+            this.size += bytes.length;
+            return offset;
+        }
+
+        /**
+         * Moves everything kept on the heap to a new temporary file.
+         *
+         * @throws IOException if there is an exception creating or writing to the temporary file
+         */
+        private void spill() throws IOException {
+            this.file = Files.createTempFile("basicsql-", ".detached");
+            this.channel = FileChannel.open(this.file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+            this.pending = ByteBuffer.allocateDirect(64 * 1024);
+
+            final ByteBuffer heap = ByteBuffer.wrap(this.heap, 0, (int) this.size);
+            while (heap.hasRemaining()) {
+                this.channel.write(heap);
+            }
+            this.heap = new byte[0];
+
+            LOGGER.debug("Spilled detached results to temporary file: {}", this.file);
+        }
+
+        /**
+         * Writes every pending byte to the temporary file.
+         *
+         * @throws IOException if there is an exception writing to the temporary file
+         */
+        private void drain() throws IOException {
+            this.pending.flip();
+            while (this.pending.hasRemaining()) {
+                this.channel.write(this.pending);
+            }
+            this.pending.clear();
+        }
+
+        /**
+         * Finishes appending, mapping the temporary file (if any) for reading.
+         *
+         * @throws IOException if there is an exception writing to or mapping the temporary file
+         */
+        void finish() throws IOException {
+            if (this.channel == null) {
+                return;
+            }
+
+            this.drain();
+            this.pending = null;
+
+            final int count = (int) ((this.size + REGION - 1) / REGION);
+            this.regions = new MappedByteBuffer[count];
+            for (int i = 0; i < count; ++i) {
+                final long position = (long) i * REGION;
+                this.regions[i] = this.channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(REGION, this.size - position));
+            }
+        }
+
+        /**
+         * Reads bytes from the store.
+         *
+         * @param offset the offset of the bytes within the store
+         * @param length the number of bytes
+         * @return the bytes
+         * @throws IllegalStateException if the store has been closed
+         */
+        @Nonnull
+        byte[] read(final long offset, final int length) {
+            if (this.closed) {
+                throw new IllegalStateException("Detached result has been closed");
+            }
+
+            if (this.regions == null) {
+                return Arrays.copyOfRange(this.heap, (int) offset, (int) offset + length);
+            }
+
+            final byte[] bytes = new byte[length];
+            int copied = 0;
+            while (copied < length) {
+                final long position = offset + copied;
+                final ByteBuffer region = this.regions[(int) (position / REGION)].duplicate();
+                region.position((int) (position % REGION));
+
+                final int chunk = Math.min(length - copied, region.remaining());
+                region.get(bytes, copied, chunk);
+                copied += chunk;
+            }
+            return bytes;
+        }
+
+        @Override
+        public void close() {
+            this.closed = true;
+            this.regions = null;
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (final IOException e) {
+                    LOGGER.error("Failed to delete temporary file: {}", this.file, e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,1051 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Answers whether or not a key exists in a column of a table, without a query when it certainly doesn't.
+ *
+ * <p>The keys of the column are scanned into a Bloom filter. A key the
+ * filter doesn't contain certainly doesn't exist, and is answered without
+ * checking out a connection; any other key is looked up to be sure.</p>
+ *
+ * <p>Keys inserted through {@link BasicSql#execute(Database, String, tech.ferus.util.sql.api.Preparer) execute},
+ * {@link BasicSql#insert(Database, String, tech.ferus.util.sql.api.Preparer) insert} or
+ * {@link BasicSql#insertBatch(Database, String, java.util.Collection, tech.ferus.util.sql.api.BatchPreparer) insertBatch}
+ * by an {@code INSERT} (or {@code REPLACE}/{@code MERGE}) that names the
+ * column and binds it as a parameter are added to the filter before the
+ * insert is executed, so a failed insert only costs a false positive. When
+ * such an insert leaves the column out, the keys generated by {@code insert}
+ * and {@code insertBatch} are added instead, and the filter looks up every
+ * key until they are. Any other insert into the table through
+ * {@link BasicSql}, or update of the column, makes the filter look up every
+ * key until the next {@link #build() build} started after it has executed.
+ * Keys changed any other way, such as through a {@link java.sql.Connection}
+ * of {@link BasicSql#withConnection(Database, tech.ferus.util.sql.api.HandleConnection)},
+ * must be {@link #add(Object) added} by hand, or the filter reports them as
+ * missing until the next build. Rebuilding also drops deleted keys.</p>
+ *
+ * <p>Keys are compared by their text, so integers of any type match each
+ * other, but the keys looked up must otherwise be of the column's type.
+ * Only strings, numbers, booleans, {@link UUID}s and {@code byte[]}s are
+ * filtered; other keys are always looked up, and a column holding them
+ * can't be built into a filter. Text is compared ignoring case and
+ * trailing spaces, so {@code CHAR} columns and case-insensitive collations
+ * work, but text columns must otherwise use a binary collation: a key equal
+ * to an existing one under any other collation rule, such as one ignoring
+ * accents, is reported as missing.</p>
+ */
+public class ExistenceFilter implements AutoCloseable {
+
+    /**
+     * The logger for {@link ExistenceFilter}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExistenceFilter.class);
+
+    /**
+     * The filters of every {@link Database}, updated by the inserts of {@link BasicSql}.
+     */
+    private static final Map<Database, List<ExistenceFilter>> FILTERS = new ConcurrentHashMap<>();
+
+    /**
+     * Matches the start of an insert, up to its table.
+     */
+    private static final Pattern INSERT_INTO = Pattern.compile(
+            "^\\s*(?:INSERT|REPLACE|MERGE)(?:\\s+OR\\s+\\w+)?(?:\\s+IGNORE)?\\s+INTO\\s+([^\\s(]+)",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Matches an insert with a column list and values.
+     */
+    private static final Pattern INSERT = Pattern.compile(
+            "^\\s*(?:INSERT|REPLACE|MERGE)(?:\\s+OR\\s+\\w+)?(?:\\s+IGNORE)?\\s+INTO\\s+([^\\s(]+)\\s*"
+                    + "\\(([^)]*)\\)\\s*(?:KEY\\s*\\([^)]*\\)\\s*)?VALUES\\s*\\((.*)\\)\\s*;?\\s*$",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+    /**
+     * Matches the start of an update, up to its assignments.
+     */
+    private static final Pattern UPDATE = Pattern.compile("^\\s*UPDATE\\s+(\\S+)\\s+SET\\s", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Matches the end of the assignments of an update.
+     */
+    private static final Pattern WHERE = Pattern.compile("\\bWHERE\\b", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * The key parameter of an insert that leaves the column out, whose keys are generated.
+     */
+    static final int GENERATED = -1;
+
+    /**
+     * The key parameter of an insert or update whose keys can't be told.
+     */
+    static final int UNKNOWN = -2;
+
+    /**
+     * The most statements whose key parameter is kept.
+     */
+    private static final int MAX_CACHED = 1024;
+
+    /**
+     * The {@link Database} the table is in.
+     */
+    @Nonnull private final Database database;
+
+    /**
+     * The table whose keys are filtered.
+     */
+    @Nonnull private final String table;
+
+    /**
+     * The column holding the keys.
+     */
+    @Nonnull private final String column;
+
+    /**
+     * The chance of a key that doesn't exist being looked up anyway.
+     */
+    private final double targetRate;
+
+    /**
+     * The least number of keys the filter is sized for.
+     */
+    private final long expectedKeys;
+
+    /**
+     * The current filter, or null until first built.
+     */
+    @Nullable private volatile Bloom bloom = null;
+
+    /**
+     * The keys added since the last rebuild started, to be added again to the next filter.
+     *
+     * <p>Only kept while rebuilds are scheduled or one is running.</p>
+     */
+    @Nonnull private final AtomicReference<Queue<String>> recent = new AtomicReference<>(new ConcurrentLinkedQueue<>());
+
+    /**
+     * Whether or not the filter is rebuilt in the background.
+     */
+    private volatile boolean scheduled = false;
+
+    /**
+     * Whether or not the filter is being built.
+     */
+    private volatile boolean building = false;
+
+    /**
+     * The number of inserts whose keys couldn't be told.
+     */
+    @Nonnull private final AtomicLong uncaptured = new AtomicLong();
+
+    /**
+     * The number of inserts whose keys couldn't be told when the current filter started building.
+     */
+    private volatile long uncapturedAtBuild = 0;
+
+    /**
+     * The number of inserts still executing whose generated keys are yet to be added.
+     */
+    @Nonnull private final AtomicInteger generating = new AtomicInteger();
+
+    /**
+     * The parameter index of the key in statements seen so far, or one of 0, {@link #GENERATED} and {@link #UNKNOWN}.
+     */
+    @Nonnull private final Map<String, Integer> parameters = new ConcurrentHashMap<>();
+
+    /**
+     * Rebuilds the filter, once {@link #start(long, TimeUnit) started}.
+     */
+    @Nonnull private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Threads.daemon("basicsql-existence"));
+
+    /**
+     * The number of lookups answered without a query.
+     */
+    @Nonnull private final LongAdder negatives = new LongAdder();
+
+    /**
+     * The number of lookups that queried and found the key.
+     */
+    @Nonnull private final LongAdder truePositives = new LongAdder();
+
+    /**
+     * The number of lookups that queried and didn't find the key.
+     */
+    @Nonnull private final LongAdder falsePositives = new LongAdder();
+
+    /**
+     * Constructs a new {@link ExistenceFilter}, which is empty until {@link #build() built}.
+     *
+     * @param database the {@link Database} the table is in
+     * @param table the table whose keys are filtered
+     * @param column the column holding the keys
+     * @param expectedKeys the least number of keys the filter is sized for
+     * @param targetRate the chance of a key that doesn't exist being looked up anyway, e.g. 0.01
+     */
+    public ExistenceFilter(@Nonnull final Database database,
+                           @Nonnull final String table,
+                           @Nonnull final String column,
+                           final long expectedKeys,
+                           final double targetRate) {
+        if (targetRate <= 0 || targetRate >= 1) {
+            throw new IllegalArgumentException("Target false positive rate must be between 0 and 1.");
+        }
+
+        this.database = database;
+        this.table = table;
+        this.column = column;
+        this.expectedKeys = Math.max(1, expectedKeys);
+        this.targetRate = targetRate;
+
+        FILTERS.compute(database, (d, filters) -> {
+            final List<ExistenceFilter> list = filters == null ? new CopyOnWriteArrayList<>() : filters;
+            list.add(this);
+            return list;
+        });
+    }
+
+    /**
+     * Builds the filter from every key of the column, replacing the current one.
+     *
+     * <p>The filter is sized for half again as many keys as the table has,
+     * or the expected number of keys if greater, so that it stays accurate as
+     * keys are added until the next rebuild.</p>
+     *
+     * <p>Keys inserted but not yet committed when the column is scanned are
+     * only kept if they were inserted while rebuilds are scheduled or this
+     * build is running.</p>
+     *
+     * @return true if the filter was built; false otherwise
+     */
+    public synchronized boolean build() {
+        this.building = true;
+        try {
+            final long uncaptured = this.uncaptured.get();
+            final Queue<String> carried = this.recent.getAndSet(new ConcurrentLinkedQueue<>());
+            final long count = BasicSql.returnQuery(this.database, "SELECT COUNT(*) FROM " + this.table,
+                    r -> r.next() ? r.getLong(1) : 0L).orElse(-1L);
+            if (count < 0) {
+                this.restore(carried);
+                return false;
+            }
+
+            final Bloom bloom = new Bloom(Math.max(this.expectedKeys, count + count / 2), this.targetRate);
+            final String statement = "SELECT " + this.column + " FROM " + this.table;
+
+            LOGGER.debug("Attempting to build existence filter of: {}", statement);
+            final Optional<Long> scanned = BasicSql.returnQuery(this.database, statement, s -> s.setFetchSize(1000), r -> {
+                long keys = 0;
+                while (r.next()) {
+                    final Object key = r.getObject(1);
+                    if (key != null) {
+                        final String normalized = normalize(key);
+                        if (normalized == null) {
+                            throw new SQLException("Can't filter keys of type " + key.getClass().getName()
+                                    + " of column: " + this.column);
+                        }
+                        bloom.add(normalized);
+                        ++keys;
+                    }
+                }
+                return keys;
+            });
+            if (!scanned.isPresent()) {
+                this.restore(carried);
+                return false;
+            }
+
+            // Keys inserted since the last build started may not have been committed in time to be scanned.
+            carried.forEach(bloom::add);
+            this.bloom = bloom;
+            this.uncapturedAtBuild = uncaptured;
+            this.recent.get().forEach(bloom::add);
+
+            LOGGER.debug("Finished building existence filter of {} keys ({} bytes): {}",
+                    scanned.get(), bloom.getMemoryBytes(), statement);
+            return true;
+        } finally {
+            this.building = false;
+        }
+    }
+
+    /**
+     * Puts keys carried over from a previous build back, after a failed build.
+     *
+     * @param carried the keys carried over
+     */
+    private void restore(@Nonnull final Queue<String> carried) {
+        this.recent.get().addAll(carried);
+    }
+
+    /**
+     * Starts rebuilding the filter on a background thread.
+     *
+     * @param interval the time between the end of a rebuild and the start of the next
+     * @param unit the unit of the time
+     */
+    public void start(final long interval, @Nonnull final TimeUnit unit) {
+        this.scheduled = true;
+        this.scheduler.scheduleWithFixedDelay(this::build, interval, interval, unit);
+    }
+
+    /**
+     * Adds a key inserted into the table.
+     *
+     * @param key the inserted key
+     * @throws IllegalArgumentException if keys of its type can't be filtered
+     */
+    public void add(@Nonnull final Object key) {
+        final String normalized = normalize(key);
+        if (normalized == null) {
+            throw new IllegalArgumentException("Can't filter keys of type: " + key.getClass().getName());
+        }
+        this.add(normalized);
+    }
+
+    /**
+     * Adds the text of a key inserted into the table.
+     *
+     * @param normalized the text of the inserted key
+     */
+    private void add(@Nonnull final String normalized) {
+        if (this.scheduled || this.building) {
+            this.recent.get().add(normalized);
+        }
+
+        final Bloom bloom = this.bloom;
+        if (bloom != null) {
+            bloom.add(normalized);
+        }
+    }
+
+    /**
+     * Adds a key inserted through {@link BasicSql}, or gives up on filtering until the next build if it can't be.
+     *
+     * @param key the inserted key
+     * @param statement the insert
+     * @return true if the key was added; false otherwise
+     */
+    private boolean captured(@Nonnull final Object key, @Nonnull final String statement) {
+        final String normalized = normalize(key);
+        if (normalized == null) {
+            this.uncaptured(statement);
+            return false;
+        }
+
+        this.add(normalized);
+        return true;
+    }
+
+    /**
+     * Gives up on filtering until the next build, as a statement inserted keys that can't be told.
+     *
+     * @param statement the statement
+     */
+    private void uncaptured(@Nonnull final String statement) {
+        this.uncaptured.incrementAndGet();
+        LOGGER.debug("Looking up every key of {} until the next build, after statement: {}", this.table, statement);
+    }
+
+    /**
+     * Determines whether or not a key may exist, without a query.
+     *
+     * @param key the key to check
+     * @return false if the key certainly doesn't exist; true if it may, or can't be filtered
+     */
+    public boolean mightContain(@Nonnull final Object key) {
+        final Bloom bloom = this.bloom;
+        if (bloom == null || this.generating.get() > 0 || this.uncaptured.get() != this.uncapturedAtBuild) {
+            return true;
+        }
+
+        final String normalized = normalize(key);
+        return normalized == null || bloom.mightContain(normalized);
+    }
+
+    /**
+     * Determines whether or not a key exists, querying only if the filter can't rule it out.
+     *
+     * @param key the key to check
+     * @return whether or not the key exists wrapped in an {@link Optional}. {@link Optional#empty()} if the query failed.
+     */
+    public Optional<Boolean> exists(@Nonnull final Object key) {
+        if (!this.mightContain(key)) {
+            this.negatives.increment();
+            return Optional.of(false);
+        }
+
+        final Optional<Boolean> exists = BasicSql.returnQuery(this.database,
+                "SELECT 1 FROM " + this.table + " WHERE " + this.column + " = ?", s -> s.setObject(1, key), r -> r.next());
+        exists.ifPresent(found -> (found ? this.truePositives : this.falsePositives).increment());
+        return exists;
+    }
+
+    /**
+     * Gets the chance of a key that doesn't exist being looked up anyway, given the keys in the filter.
+     *
+     * @return the expected false positive rate, or 1 if the filter hasn't been built
+     */
+    public double getFalsePositiveRate() {
+        final Bloom bloom = this.bloom;
+        return bloom == null ? 1 : bloom.getFalsePositiveRate();
+    }
+
+    /**
+     * Gets the memory used by the bits of the filter.
+     *
+     * @return the size of the filter, in bytes, or 0 if it hasn't been built
+     */
+    public long getMemoryBytes() {
+        final Bloom bloom = this.bloom;
+        return bloom == null ? 0 : bloom.getMemoryBytes();
+    }
+
+    /**
+     * Gets the number of lookups answered without a query.
+     *
+     * @return the number of lookups answered without a query
+     */
+    public long getNegativeCount() {
+        return this.negatives.sum();
+    }
+
+    /**
+     * Gets the number of lookups that queried and found the key.
+     *
+     * @return the number of true positives
+     */
+    public long getTruePositiveCount() {
+        return this.truePositives.sum();
+    }
+
+    /**
+     * Gets the number of lookups that queried and didn't find the key.
+     *
+     * @return the number of false positives
+     */
+    public long getFalsePositiveCount() {
+        return this.falsePositives.sum();
+    }
+
+    /**
+     * Stops rebuilding the filter, and stops adding keys inserted through {@link BasicSql}.
+     */
+    @Override
+    public void close() {
+        this.scheduled = false;
+        this.scheduler.shutdownNow();
+        FILTERS.computeIfPresent(this.database, (d, filters) -> {
+            filters.remove(this);
+            return filters.isEmpty() ? null : filters;
+        });
+    }
+
+    /**
+     * Prepares to add the keys inserted by a statement to the filters of a {@link Database}.
+     *
+     * <p>Filters whose keys the statement changes in a way that can't be
+     * told give up on filtering until their next build, and filters of keys
+     * the statement generates until they are added. The {@link Capture}
+     * must be {@link Capture#finish(long[]) finished} once the statement has
+     * been executed, successfully or not.</p>
+     *
+     * @param database the {@link Database} the statement is executed on
+     * @param statement the statement to be executed
+     * @param generatedKeys whether or not the keys generated by the statement are handed to the {@link Capture}
+     * @return the {@link Capture} of the inserted keys, or null if the statement inserts no key to capture
+     */
+    @Nullable
+    static Capture capture(@Nonnull final Database database, @Nonnull final String statement, final boolean generatedKeys) {
+        if (FILTERS.isEmpty()) {
+            return null;
+        }
+
+        final List<ExistenceFilter> filters = FILTERS.get(database);
+        if (filters == null) {
+            return null;
+        }
+
+        Capture capture = null;
+        for (final ExistenceFilter filter : filters) {
+            final int index = filter.getKeyParameter(statement);
+            if (index == 0) {
+                continue;
+            }
+
+            if (capture == null) {
+                capture = new Capture(statement);
+            }
+            if (index == UNKNOWN || (index == GENERATED && !generatedKeys)) {
+                filter.uncaptured(statement);
+                capture.uncaptured.add(filter);
+            } else {
+                if (index == GENERATED) {
+                    filter.generating.incrementAndGet();
+                }
+                capture.filters.add(filter);
+                capture.indexes.add(index);
+            }
+        }
+        return capture;
+    }
+
+    /**
+     * Gets the parameter a statement binds the key to, if it inserts a key into the table.
+     *
+     * @param statement the statement
+     * @return the index of the parameter, or one of 0, {@link #GENERATED} and {@link #UNKNOWN} as {@link #keyParameter(String, String, String)}
+     */
+    private int getKeyParameter(@Nonnull final String statement) {
+        final Integer cached = this.parameters.get(statement);
+        if (cached != null) {
+            return cached;
+        }
+
+        final int index = keyParameter(statement, this.table, this.column);
+        if (this.parameters.size() >= MAX_CACHED) {
+            this.parameters.clear();
+        }
+        this.parameters.put(statement, index);
+        return index;
+    }
+
+    /**
+     * Finds the parameter a single-row insert binds a column of a table to.
+     *
+     * @param statement the statement
+     * @param table the table
+     * @param column the column
+     * @return the index of the parameter; {@link #GENERATED} if the statement inserts into the table but leaves the column out;
+     *         {@link #UNKNOWN} if it inserts into the table, or updates the column, any other way; 0 otherwise
+     */
+    static int keyParameter(@Nonnull final String statement, @Nonnull final String table, @Nonnull final String column) {
+        final Matcher into = INSERT_INTO.matcher(statement);
+        if (!into.lookingAt()) {
+            final Matcher update = UPDATE.matcher(statement);
+            return update.lookingAt() && sameName(update.group(1), table)
+                    && assigns(statement.substring(update.end()), column) ? UNKNOWN : 0;
+        }
+        if (!sameName(into.group(1), table)) {
+            return 0;
+        }
+
+        final Matcher matcher = INSERT.matcher(statement);
+        if (!matcher.matches()) {
+            return UNKNOWN;
+        }
+
+        final String[] columns = matcher.group(2).split(",");
+        int position = -1;
+        for (int i = 0; i < columns.length; ++i) {
+            if (sameName(columns[i].trim(), column)) {
+                position = i;
+                break;
+            }
+        }
+        if (position < 0) {
+            return GENERATED;
+        }
+
+        final List<String> values = splitValues(matcher.group(3));
+        if (values == null || values.size() != columns.length || !values.get(position).trim().equals("?")) {
+            return UNKNOWN;
+        }
+
+        int index = 1;
+        for (int i = 0; i < position; ++i) {
+            index += countParameters(values.get(i));
+        }
+        return index;
+    }
+
+    /**
+     * Determines whether or not the assignments of an update may set a column.
+     *
+     * @param assignments the statement after {@code SET}
+     * @param column the column
+     * @return true if the column may be set; false otherwise
+     */
+    private static boolean assigns(@Nonnull final String assignments, @Nonnull final String column) {
+        final Matcher where = WHERE.matcher(assignments);
+        final String set = where.find() ? assignments.substring(0, where.start()) : assignments;
+        return Pattern.compile("(?:^|[\\s,.(])[\"`\\[]?" + Pattern.quote(unquote(lastPart(column))) + "[\"`\\]]?\\s*=",
+                Pattern.CASE_INSENSITIVE).matcher(set).find();
+    }
+
+    /**
+     * Splits the values of a single row at the commas outside parentheses and quotes.
+     *
+     * @param values the values, without the surrounding parentheses
+     * @return the values, or null if they belong to more than one row
+     */
+    @Nullable
+    private static List<String> splitValues(@Nonnull final String values) {
+        final List<String> split = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        char quote = 0;
+
+        for (int i = 0; i < values.length(); ++i) {
+            final char c = values.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '(') {
+                ++depth;
+            } else if (c == ')') {
+                if (--depth < 0) {
+                    return null;
+                }
+            } else if (c == ',' && depth == 0) {
+                split.add(values.substring(start, i));
+                start = i + 1;
+            }
+        }
+        split.add(values.substring(start));
+        return split;
+    }
+
+    /**
+     * Counts the parameters of a value, outside quotes.
+     *
+     * @param value the value
+     * @return the number of parameters
+     */
+    private static int countParameters(@Nonnull final String value) {
+        int count = 0;
+        char quote = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            final char c = value.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"' || c == '`') {
+                quote = c;
+            } else if (c == '?') {
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Determines whether or not two possibly qualified or quoted names name the same table or column.
+     *
+     * @param name the name found in a statement
+     * @param other the name given to this filter
+     * @return true if the last parts of the names are equal, ignoring quotes and case; false otherwise
+     */
+    private static boolean sameName(@Nonnull final String name, @Nonnull final String other) {
+        return unquote(lastPart(name)).equalsIgnoreCase(unquote(lastPart(other)));
+    }
+
+    /**
+     * Gets the last part of a qualified name, such as the table of {@code schema.table}.
+     *
+     * @param name the name
+     * @return the last part of the name
+     */
+    @Nonnull
+    private static String lastPart(@Nonnull final String name) {
+        return name.substring(name.lastIndexOf('.') + 1);
+    }
+
+    /**
+     * Removes the quotes around an identifier.
+     *
+     * @param name the identifier
+     * @return the identifier without quotes
+     */
+    @Nonnull
+    private static String unquote(@Nonnull final String name) {
+        if (name.length() >= 2) {
+            final char first = name.charAt(0);
+            final char last = name.charAt(name.length() - 1);
+            if ((first == '"' && last == '"') || (first == '`' && last == '`') || (first == '[' && last == ']')) {
+                return name.substring(1, name.length() - 1);
+            }
+        }
+        return name;
+    }
+
+    /**
+     * Turns a key into the text it is filtered by.
+     *
+     * <p>Equal keys must always turn into equal text. Different keys may
+     * turn into equal text, which only makes them look up one another.</p>
+     *
+     * @param key the key
+     * @return the text of the key, or null if keys of its type can't be filtered
+     */
+    @Nullable
+    static String normalize(@Nonnull final Object key) {
+        if (key instanceof CharSequence || key instanceof Character) {
+            return fold(key.toString());
+        }
+        if (key instanceof Long || key instanceof Integer || key instanceof Short || key instanceof Byte
+                || key instanceof BigInteger || key instanceof Boolean || key instanceof UUID) {
+            return key.toString();
+        }
+        if (key instanceof BigDecimal) {
+            return plain((BigDecimal) key);
+        }
+        if (key instanceof Double || key instanceof Float) {
+            return Double.isFinite(((Number) key).doubleValue()) ? plain(new BigDecimal(key.toString())) : key.toString();
+        }
+        if (key instanceof byte[]) {
+            final byte[] bytes = (byte[]) key;
+            final char[] hex = new char[2 + bytes.length * 2];
+            hex[0] = '0';
+            hex[1] = 'x';
+            for (int i = 0; i < bytes.length; ++i) {
+                hex[2 + i * 2] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+                hex[3 + i * 2] = Character.forDigit(bytes[i] & 0xF, 16);
+            }
+            return new String(hex);
+        }
+        return null;
+    }
+
+    /**
+     * Turns text into the form it is filtered by, without case or trailing spaces.
+     *
+     * @param text the text
+     * @return the folded text
+     */
+    @Nonnull
+    private static String fold(@Nonnull final String text) {
+        int end = text.length();
+        while (end > 0 && text.charAt(end - 1) == ' ') {
+            --end;
+        }
+        return text.substring(0, end).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Turns a number into its text without an exponent or trailing zeroes, so that {@code 1}, {@code 1.0} and {@code 1E0} match.
+     *
+     * @param decimal the number
+     * @return the text of the number
+     */
+    @Nonnull
+    private static String plain(@Nonnull final BigDecimal decimal) {
+        final BigDecimal stripped = decimal.stripTrailingZeros();
+        return stripped.scale() <= 0 ? stripped.toBigInteger().toString() : stripped.toPlainString();
+    }
+
+    /**
+     * The keys inserted by a single statement, added to filters as it is executed.
+     */
+    static final class Capture {
+
+        /**
+         * The statement inserting the keys.
+         */
+        @Nonnull private final String statement;
+
+        /**
+         * The filters the keys are added to.
+         */
+        @Nonnull private final List<ExistenceFilter> filters = new ArrayList<>(1);
+
+        /**
+         * The parameter index of the key of each filter, or {@link #GENERATED}.
+         */
+        @Nonnull private final List<Integer> indexes = new ArrayList<>(1);
+
+        /**
+         * The filters whose keys the statement inserts in a way that can't be told.
+         */
+        @Nonnull private final List<ExistenceFilter> uncaptured = new ArrayList<>(1);
+
+        /**
+         * The key of each filter bound to the statement so far, or null until {@link #wrap(PreparedStatement) wrapped}.
+         */
+        @Nullable private Object[] bound = null;
+
+        /**
+         * Constructs a new {@link Capture}.
+         *
+         * @param statement the statement inserting the keys
+         */
+        private Capture(@Nonnull final String statement) {
+            this.statement = statement;
+        }
+
+        /**
+         * Wraps a statement so that the keys bound to it are captured.
+         *
+         * @param s the statement to be wrapped
+         * @return the wrapped statement
+         */
+        @Nonnull
+        PreparedStatement wrap(@Nonnull final PreparedStatement s) {
+            final Object[] bound = new Object[this.filters.size()];
+            this.bound = bound;
+
+            return (PreparedStatement) Proxy.newProxyInstance(ExistenceFilter.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        if (args != null && args.length >= 2 && args[0] instanceof Integer
+                                && method.getName().startsWith("set")) {
+                            for (int i = 0; i < bound.length; ++i) {
+                                if (this.indexes.get(i).equals(args[0])) {
+                                    bound[i] = method.getName().equals("setNull") ? null : args[1];
+                                }
+                            }
+                        }
+
+                        try {
+                            return method.invoke(s, args);
+                        } catch (final InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        /**
+         * Adds the keys currently bound to the statement to their filters, once a row has been prepared and before it is executed.
+         *
+         * <p>Adding keys before they are inserted means that a key is never
+         * missing from its filter once it can be read.</p>
+         */
+        void row() {
+            final Object[] bound = this.bound;
+            if (bound == null) {
+                return;
+            }
+
+            for (int i = 0; i < bound.length; ++i) {
+                final ExistenceFilter filter = this.filters.get(i);
+                if (bound[i] != null && this.indexes.get(i) != GENERATED
+                        && !filter.captured(bound[i], this.statement) && !this.uncaptured.contains(filter)) {
+                    this.uncaptured.add(filter);
+                }
+            }
+        }
+
+        /**
+         * Adds the generated keys to their filters, once the statement has been executed, successfully or not.
+         *
+         * <p>Filters whose keys couldn't be told give up on filtering again,
+         * in case a build scanned the table after they first gave up but
+         * before the statement was executed.</p>
+         *
+         * @param generated the keys generated by the statement, or null if there are none
+         */
+        void finish(@Nullable final long[] generated) {
+            for (int i = 0; i < this.filters.size(); ++i) {
+                final ExistenceFilter filter = this.filters.get(i);
+                if (this.indexes.get(i) != GENERATED) {
+                    continue;
+                }
+
+                if (generated != null) {
+                    for (final long key : generated) {
+                        filter.add(Long.toString(key));
+                    }
+                }
+                filter.generating.decrementAndGet();
+            }
+
+            for (final ExistenceFilter filter : this.uncaptured) {
+                filter.uncaptured(this.statement);
+            }
+        }
+    }
+
+    /**
+     * A Bloom filter of the text of keys.
+     */
+    private static final class Bloom {
+
+        /**
+         * The bits of the filter.
+         */
+        @Nonnull private final AtomicLongArray bits;
+
+        /**
+         * The number of bits of the filter.
+         */
+        private final long size;
+
+        /**
+         * The number of bits set per key.
+         */
+        private final int hashes;
+
+        /**
+         * The number of keys added.
+         */
+        @Nonnull private final LongAdder keys = new LongAdder();
+
+        /**
+         * Constructs a new {@link Bloom}, sized for a number of keys and false positive rate.
+         *
+         * @param expectedKeys the number of keys to be added
+         * @param rate the chance of a key that wasn't added being contained anyway
+         */
+        private Bloom(final long expectedKeys, final double rate) {
+            final long bits = (long) Math.ceil(-expectedKeys * Math.log(rate) / (Math.log(2) * Math.log(2)));
+            final long words = Math.max(1, (bits + 63) / 64);
+            if (words > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Existence filter would be too large for " + expectedKeys + " keys.");
+            }
+
+            this.bits = new AtomicLongArray((int) words);
+            this.size = words * 64;
+            this.hashes = Math.max(1, (int) Math.round((double) this.size / expectedKeys * Math.log(2)));
+        }
+
+        /**
+         * Adds a key.
+         *
+         * @param key the text of the key
+         */
+        private void add(@Nonnull final String key) {
+            final long hash = hash(key);
+            final long h1 = hash;
+            final long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+
+            for (int i = 0; i < this.hashes; ++i) {
+                final long bit = Math.floorMod(h1 + i * h2, this.size);
+                final int word = (int) (bit >>> 6);
+                final long mask = 1L << bit;
+                long current;
+                while (((current = this.bits.get(word)) & mask) == 0
+                        && !this.bits.compareAndSet(word, current, current | mask)) {
+                    // Another key set a bit of the same word; try again.
+                }
+            }
+            this.keys.increment();
+        }
+
+        /**
+         * Determines whether or not a key may have been added.
+         *
+         * @param key the text of the key
+         * @return false if the key certainly wasn't added; true otherwise
+         */
+        private boolean mightContain(@Nonnull final String key) {
+            final long hash = hash(key);
+            final long h1 = hash;
+            final long h2 = mix(hash ^ 0x9E3779B97F4A7C15L) | 1;
+
+            for (int i = 0; i < this.hashes; ++i) {
+                final long bit = Math.floorMod(h1 + i * h2, this.size);
+                if ((this.bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Gets the chance of a key that wasn't added being contained anyway, given the keys added.
+         *
+         * @return the expected false positive rate
+         */
+        private double getFalsePositiveRate() {
+            return Math.pow(1 - Math.exp(-this.hashes * (double) this.keys.sum() / this.size), this.hashes);
+        }
+
+        /**
+         * Gets the memory used by the bits of the filter.
+         *
+         * @return the size of the filter, in bytes
+         */
+        private long getMemoryBytes() {
+            return this.size / 8;
+        }
+
+        /**
+         * Hashes the text of a key into 64 bits.
+         *
+         * @param key the text of the key
+         * @return the hash
+         */
+        private static long hash(@Nonnull final String key) {
+            long hash = 0xCBF29CE484222325L;
+            for (final byte b : key.getBytes(StandardCharsets.UTF_8)) {
+                hash ^= b;
+                hash *= 0x100000001B3L;
+            }
+            return mix(hash);
+        }
+
+        /**
+         * Spreads the bits of a hash, as the finalizer of MurmurHash3 does.
+         *
+         * @param hash the hash
+         * @return the mixed hash
+         */
+        private static long mix(long hash) {
+            hash ^= hash >>> 33;
+            hash *= 0xFF51AFD7ED558CCDL;
+            hash ^= hash >>> 33;
+            hash *= 0xC4CEB9FE1A85EC53L;
+            hash ^= hash >>> 33;
+            return hash;
+        }
+    }
+}
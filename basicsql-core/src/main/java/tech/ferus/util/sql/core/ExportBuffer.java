@@ -0,0 +1,283 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A fixed-size buffer in front of a {@link WritableByteChannel}.
+ *
+ * <p>Values are encoded straight into the buffer, which is written to the
+ * channel whenever it fills up, so that no intermediate arrays or strings
+ * are created for them.</p>
+ */
+public final class ExportBuffer {
+
+    /**
+     * The digits of a number, which are written back to front.
+     */
+    private final byte[] digits = new byte[20];
+
+    /**
+     * The buffer values are encoded into.
+     */
+    @Nonnull private final ByteBuffer buffer;
+
+    /**
+     * The channel the buffer is written to.
+     */
+    @Nonnull private final WritableByteChannel channel;
+
+    /**
+     * Constructs a new {@link ExportBuffer}.
+     *
+     * @param buffer the buffer values are encoded into, which is cleared first
+     * @param channel the channel the buffer is written to
+     */
+    ExportBuffer(@Nonnull final ByteBuffer buffer, @Nonnull final WritableByteChannel channel) {
+        this.buffer = buffer;
+        this.channel = channel;
+
+        this.buffer.clear();
+    }
+
+    /**
+     * Writes a single byte.
+     *
+     * @param b the byte to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putByte(final int b) throws IOException {
+        this.ensure(1);
+        this.buffer.put((byte) b);
+    }
+
+    /**
+     * Writes a 4-byte integer.
+     *
+     * @param i the integer to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putInt(final int i) throws IOException {
+        this.ensure(4);
+        this.buffer.putInt(i);
+    }
+
+    /**
+     * Writes an 8-byte long.
+     *
+     * @param l the long to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putLong(final long l) throws IOException {
+        this.ensure(8);
+        this.buffer.putLong(l);
+    }
+
+    /**
+     * Writes an 8-byte double.
+     *
+     * @param d the double to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putDouble(final double d) throws IOException {
+        this.ensure(8);
+        this.buffer.putDouble(d);
+    }
+
+    /**
+     * Writes an array of bytes.
+     *
+     * @param bytes the bytes to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putBytes(@Nonnull final byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            this.ensure(1);
+
+            final int length = Math.min(this.buffer.remaining(), bytes.length - offset);
+            this.buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * Writes a number as ASCII decimal digits.
+     *
+     * @param l the number to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putDecimal(final long l) throws IOException {
+        this.ensure(this.digits.length);
+
+        if (l == Long.MIN_VALUE) {
+            for (final char c : Long.toString(l).toCharArray()) {
+                this.buffer.put((byte) c);
+            }
+            return;
+        }
+
+        long remaining = Math.abs(l);
+        int i = this.digits.length;
+        do {
+            this.digits[--i] = (byte) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+
+        if (l < 0) {
+            this.buffer.put((byte) '-');
+        }
+        this.buffer.put(this.digits, i, this.digits.length - i);
+    }
+
+    /**
+     * Writes text as UTF-8.
+     *
+     * @param s the text to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putUtf8(@Nonnull final CharSequence s) throws IOException {
+        final int length = s.length();
+        for (int i = 0; i < length; ++i) {
+            final char c = s.charAt(i);
+            this.ensure(4);
+
+            if (c < 0x80) {
+                this.buffer.put((byte) c);
+            } else if (c < 0x800) {
+                this.buffer.put((byte) (0xC0 | c >> 6));
+                this.buffer.put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                final int cp = Character.toCodePoint(c, s.charAt(++i));
+                this.buffer.put((byte) (0xF0 | cp >> 18));
+                this.buffer.put((byte) (0x80 | cp >> 12 & 0x3F));
+                this.buffer.put((byte) (0x80 | cp >> 6 & 0x3F));
+                this.buffer.put((byte) (0x80 | cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                this.buffer.put((byte) '?');
+            } else {
+                this.buffer.put((byte) (0xE0 | c >> 12));
+                this.buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                this.buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Writes text as UTF-8, prefixed by its length in bytes as a 4-byte integer.
+     *
+     * @param s the text to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putPrefixedUtf8(@Nonnull final CharSequence s) throws IOException {
+        this.putInt(utf8Length(s));
+        this.putUtf8(s);
+    }
+
+    /**
+     * Writes text as a single CSV value, quoting it if needed.
+     *
+     * @param s the text to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void putCsv(@Nonnull final CharSequence s) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < s.length() && !quote; ++i) {
+            final char c = s.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+
+        if (!quote) {
+            this.putUtf8(s);
+            return;
+        }
+
+        this.putByte('"');
+        int start = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            if (s.charAt(i) == '"') {
+                this.putUtf8(s.subSequence(start, i + 1));
+                start = i;
+            }
+        }
+        this.putUtf8(s.subSequence(start, s.length()));
+        this.putByte('"');
+    }
+
+    /**
+     * Writes everything that has been buffered to the channel.
+     *
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public void flush() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Makes sure the buffer has room for a number of bytes, flushing it if it doesn't.
+     *
+     * @param bytes the number of bytes that are about to be written
+     * @throws IOException if there is an exception writing to the channel
+     */
+    private void ensure(final int bytes) throws IOException {
+        if (this.buffer.remaining() < bytes) {
+            this.flush();
+        }
+    }
+
+    /**
+     * Determines the length of text once encoded as UTF-8.
+     *
+     * @param s the text to be measured
+     * @return the number of bytes the text takes up as UTF-8
+     */
+    static int utf8Length(@Nonnull final CharSequence s) {
+        int bytes = 0;
+        for (int i = 0; i < s.length(); ++i) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                bytes += 4;
+                ++i;
+            } else if (Character.isSurrogate(c)) {
+                bytes += 1;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
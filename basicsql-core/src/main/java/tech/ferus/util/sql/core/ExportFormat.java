@@ -0,0 +1,54 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+/**
+ * The formats a {@link ResultExporter} can write.
+ */
+public enum ExportFormat {
+
+    /**
+     * Comma separated values, one row per line, preceded by a line of column labels.
+     *
+     * <p>Values containing a comma, quote or line break are quoted, and
+     * null values are left empty.</p>
+     */
+    CSV,
+
+    /**
+     * A compact, length-prefixed binary format.
+     *
+     * <p>The export starts with the column count as a 4-byte integer, and
+     * for every column its {@link java.sql.Types type} as a 4-byte integer
+     * followed by its label as a length-prefixed UTF-8 string.</p>
+     *
+     * <p>Every value of every row is then written as a 4-byte length followed
+     * by that many bytes, or as a length of -1 if it is null. Integers are
+     * written as 8-byte longs, floating point numbers as 8-byte doubles,
+     * booleans as a single byte and all other values as UTF-8 text or raw
+     * bytes. All numbers are big-endian.</p>
+     */
+    BINARY
+}
@@ -0,0 +1,578 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.Preparer;
+import tech.ferus.util.sql.api.ReturnResults;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs read-only queries against one of several equivalent {@link Database}s, hedging slow ones with a second.
+ *
+ * <p>Each query is sent to the next {@link Database} in turn. If it hasn't
+ * answered within that {@link Database}'s recent 95th percentile latency,
+ * the same query is sent to the following {@link Database} as well. The
+ * first answer is returned, and the other query's statement is cancelled.</p>
+ *
+ * <p>Hedges are paid for from a budget: every query adds a fraction of a
+ * hedge to it, and every hedge spends a whole one, so hedges never add
+ * more than that fraction of extra load. Once the budget is spent,
+ * queries simply wait for their first {@link Database}.</p>
+ */
+public class HedgedQuery implements AutoCloseable {
+
+    /**
+     * The logger for {@link HedgedQuery}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HedgedQuery.class);
+
+    /**
+     * The number of recent latencies kept for every {@link Database}.
+     */
+    private static final int SAMPLES = 128;
+
+    /**
+     * The number of new latencies after which a {@link Database}'s delay is recomputed.
+     */
+    private static final int RECOMPUTE_EVERY = 16;
+
+    /**
+     * The budget, in thousandths of a hedge, a single hedge spends.
+     */
+    private static final long HEDGE_COST = 1000;
+
+    /**
+     * The {@link Database}s queries are sent to, and their latencies.
+     */
+    @Nonnull private final List<Target> targets;
+
+    /**
+     * Runs every query, on at most as many threads as the {@link Database}s have connections.
+     */
+    @Nonnull private final ExecutorService executor;
+
+    /**
+     * The index of the {@link Database} the next query is sent to first.
+     */
+    @Nonnull private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * The remaining budget, in thousandths of a hedge.
+     */
+    @Nonnull private final AtomicLong budget = new AtomicLong();
+
+    /**
+     * The budget, in thousandths of a hedge, every query adds.
+     */
+    private volatile long budgetPerQuery = 50;
+
+    /**
+     * The most budget, in thousandths of a hedge, that may be saved up.
+     */
+    private volatile long maxBudget = 10 * HEDGE_COST;
+
+    /**
+     * The delay, in nanoseconds, used until a {@link Database} has enough latencies.
+     */
+    private volatile long initialDelay = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * The shortest delay, in nanoseconds, before hedging.
+     */
+    private volatile long minDelay = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * The number of hedges sent.
+     */
+    @Nonnull private final AtomicLong hedges = new AtomicLong();
+
+    /**
+     * The number of hedges that answered first.
+     */
+    @Nonnull private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * The number of hedges skipped for lack of budget.
+     */
+    @Nonnull private final AtomicLong skipped = new AtomicLong();
+
+    /**
+     * Constructs a new {@link HedgedQuery}.
+     *
+     * @param databases the equivalent {@link Database}s queries are sent to; at least two for hedging to happen
+     */
+    public HedgedQuery(@Nonnull final Database... databases) {
+        this(Arrays.asList(databases));
+    }
+
+    /**
+     * Constructs a new {@link HedgedQuery}.
+     *
+     * @param databases the equivalent {@link Database}s queries are sent to; at least two for hedging to happen
+     */
+    public HedgedQuery(@Nonnull final List<? extends Database> databases) {
+        if (databases.isEmpty()) {
+            throw new IllegalArgumentException("At least one database is needed.");
+        }
+
+        this.targets = new ArrayList<>(databases.size());
+        int threads = 0;
+        for (final Database database : databases) {
+            this.targets.add(new Target(database));
+            threads += Threads.poolSize(database);
+        }
+        this.executor = Threads.bounded("basicsql-hedge", threads);
+    }
+
+    /**
+     * Sets the share of extra load hedges may add.
+     *
+     * @param ratio the number of hedges allowed per query, e.g. 0.05 for 5% extra load
+     * @param burst the most hedges that may be saved up and sent in a row
+     */
+    public void setBudget(final double ratio, final int burst) {
+        this.budgetPerQuery = Math.max(0, Math.round(ratio * HEDGE_COST));
+        this.maxBudget = Math.max(0, burst) * HEDGE_COST;
+    }
+
+    /**
+     * Sets the delays before hedging.
+     *
+     * @param initialDelay the delay used until a {@link Database} has enough latencies
+     * @param minDelay the shortest delay, however fast a {@link Database} has been
+     * @param unit the unit of both delays
+     */
+    public void setDelays(final long initialDelay, final long minDelay, @Nonnull final TimeUnit unit) {
+        this.initialDelay = unit.toNanos(initialDelay);
+        this.minDelay = unit.toNanos(minDelay);
+    }
+
+    /**
+     * Returns the data gathered from a read-only query.
+     *
+     * @param statement the statement to be queried
+     * @param handle determines which data to return from a {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return the data from a {@link ResultSet} wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public <T> Optional<T> returnQuery(@Nonnull final String statement,
+                                       @Nonnull final ReturnResults<T> handle) {
+        return this.returnQuery(statement, s -> {}, handle);
+    }
+
+    /**
+     * Returns the data gathered from a read-only query, hedging it if the first {@link Database} is slow.
+     *
+     * <p>The {@link Preparer} and {@link ReturnResults} may be called on two
+     * threads at once, one for each {@link Database}.</p>
+     *
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param handle determines which data to return from a {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return the data from a {@link ResultSet} wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public <T> Optional<T> returnQuery(@Nonnull final String statement,
+                                       @Nonnull final Preparer preparer,
+                                       @Nonnull final ReturnResults<T> handle) {
+        final int first = Math.floorMod(this.next.getAndIncrement(), this.targets.size());
+        final Target primary = this.targets.get(first);
+        this.budget.getAndUpdate(b -> Math.min(this.maxBudget, b + this.budgetPerQuery));
+
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final AtomicInteger launched = new AtomicInteger(1);
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Attempt<T> primaryAttempt = new Attempt<>(primary, statement, preparer, handle, result, launched, failures, failure);
+        Attempt<T> hedgeAttempt = null;
+
+        LOGGER.debug("Attempting to query: {}", statement);
+        try {
+            this.executor.execute(primaryAttempt);
+
+            try {
+                return Optional.ofNullable(result.get(primary.delay(this), TimeUnit.NANOSECONDS));
+            } catch (final TimeoutException e) {
+                // Count the hedge before deciding on it, so that a primary failing meanwhile leaves the result to it.
+                launched.incrementAndGet();
+                if (this.targets.size() > 1 && !result.isDone() && this.spend()) {
+                    final Target secondary = this.targets.get((first + 1) % this.targets.size());
+                    hedgeAttempt = new Attempt<>(secondary, statement, preparer, handle, result, launched, failures, failure);
+                    hedgeAttempt.hedge = true;
+                    this.hedges.incrementAndGet();
+                    LOGGER.debug("Hedging query to another database: {}", statement);
+                    this.executor.execute(hedgeAttempt);
+                } else if (launched.decrementAndGet() <= failures.get()) {
+                    // The primary failed while the hedge was being decided on, and left the result to it.
+                    result.completeExceptionally(failure.get());
+                }
+            } catch (final ExecutionException e) {
+                // Fall through; the primary failed before the delay.
+            }
+
+            final T value = result.get();
+            LOGGER.debug("Finished querying: {}", statement);
+            return Optional.ofNullable(value);
+        } catch (final ExecutionException e) {
+            LOGGER.error("Failed to execute query: {}", statement, e.getCause());
+            return Optional.empty();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while querying: {}", statement);
+            return Optional.empty();
+        } finally {
+            primaryAttempt.cancel();
+            if (hedgeAttempt != null) {
+                hedgeAttempt.cancel();
+            }
+        }
+    }
+
+    /**
+     * Spends the budget of a single hedge, if there is enough.
+     *
+     * @return true if the budget was spent; false otherwise
+     */
+    private boolean spend() {
+        while (true) {
+            final long current = this.budget.get();
+            if (current < HEDGE_COST) {
+                this.skipped.incrementAndGet();
+                return false;
+            }
+            if (this.budget.compareAndSet(current, current - HEDGE_COST)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Gets the delay before a query sent to a {@link Database} is hedged.
+     *
+     * @param database the {@link Database}
+     * @return the delay, in nanoseconds, or -1 if the {@link Database} isn't one of this {@link HedgedQuery}'s
+     */
+    public long getDelayNanos(@Nonnull final Database database) {
+        for (final Target target : this.targets) {
+            if (target.database == database) {
+                return target.delay(this);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the number of hedges sent.
+     *
+     * @return the number of hedges sent
+     */
+    public long getHedgeCount() {
+        return this.hedges.get();
+    }
+
+    /**
+     * Gets the number of hedges that answered before the query they hedged.
+     *
+     * @return the number of hedges that answered first
+     */
+    public long getHedgeWinCount() {
+        return this.hedgeWins.get();
+    }
+
+    /**
+     * Gets the number of hedges skipped because the budget was spent.
+     *
+     * @return the number of skipped hedges
+     */
+    public long getSkippedCount() {
+        return this.skipped.get();
+    }
+
+    /**
+     * Stops the threads queries are run on.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    /**
+     * A {@link Database} queries are sent to, and its recent latencies.
+     */
+    private static final class Target {
+
+        /**
+         * The {@link Database} queries are sent to.
+         */
+        @Nonnull private final Database database;
+
+        /**
+         * The most recent latencies, in nanoseconds.
+         */
+        @Nonnull private final long[] samples = new long[SAMPLES];
+
+        /**
+         * The number of latencies recorded.
+         */
+        private long recorded = 0;
+
+        /**
+         * The 95th percentile of the recent latencies, in nanoseconds, or -1 until there are enough.
+         */
+        private volatile long p95 = -1;
+
+        /**
+         * Constructs a new {@link Target}.
+         *
+         * @param database the {@link Database} queries are sent to
+         */
+        private Target(@Nonnull final Database database) {
+            this.database = database;
+        }
+
+        /**
+         * Records the latency of a query.
+         *
+         * @param nanos the latency, in nanoseconds
+         */
+        private synchronized void record(final long nanos) {
+            this.samples[(int) (this.recorded++ % SAMPLES)] = nanos;
+
+            if (this.recorded >= RECOMPUTE_EVERY && this.recorded % RECOMPUTE_EVERY == 0) {
+                final int count = (int) Math.min(this.recorded, SAMPLES);
+                final long[] sorted = Arrays.copyOf(this.samples, count);
+                Arrays.sort(sorted);
+                this.p95 = sorted[Math.min(count - 1, (int) Math.ceil(count * 0.95) - 1)];
+            }
+        }
+
+        /**
+         * Gets the delay before a query sent here is hedged.
+         *
+         * @param owner the {@link HedgedQuery} holding the delay settings
+         * @return the delay, in nanoseconds
+         */
+        private long delay(@Nonnull final HedgedQuery owner) {
+            final long p95 = this.p95;
+            return Math.max(owner.minDelay, p95 < 0 ? owner.initialDelay : p95);
+        }
+    }
+
+    /**
+     * A single query sent to a single {@link Database}.
+     *
+     * @param <T> the Type of object being returned
+     */
+    private final class Attempt<T> implements Runnable {
+
+        /**
+         * The {@link Database} the query is sent to.
+         */
+        @Nonnull private final Target target;
+
+        /**
+         * The statement to be queried.
+         */
+        @Nonnull private final String statement;
+
+        /**
+         * The {@link Preparer} to set the data in the statement.
+         */
+        @Nonnull private final Preparer preparer;
+
+        /**
+         * Determines which data to return from a {@link ResultSet}.
+         */
+        @Nonnull private final ReturnResults<T> handle;
+
+        /**
+         * Completed by whichever attempt answers first.
+         */
+        @Nonnull private final CompletableFuture<T> result;
+
+        /**
+         * The number of attempts that have been sent.
+         */
+        @Nonnull private final AtomicInteger launched;
+
+        /**
+         * The number of attempts that have failed.
+         */
+        @Nonnull private final AtomicInteger failures;
+
+        /**
+         * The latest failure of any attempt.
+         */
+        @Nonnull private final AtomicReference<Throwable> failure;
+
+        /**
+         * The statement, while it is running.
+         */
+        @Nullable private PreparedStatement running = null;
+
+        /**
+         * Whether or not the attempt is no longer wanted.
+         */
+        private boolean cancelled = false;
+
+        /**
+         * Whether or not this attempt answered first.
+         */
+        private volatile boolean won = false;
+
+        /**
+         * Whether or not this attempt hedges another.
+         */
+        private boolean hedge = false;
+
+        /**
+         * Constructs a new {@link Attempt}.
+         *
+         * @param target the {@link Database} the query is sent to
+         * @param statement the statement to be queried
+         * @param preparer the {@link Preparer} to set the data in the statement
+         * @param handle determines which data to return from a {@link ResultSet}
+         * @param result completed by whichever attempt answers first
+         * @param launched the number of attempts that have been sent
+         * @param failures the number of attempts that have failed
+         * @param failure the latest failure of any attempt
+         */
+        private Attempt(@Nonnull final Target target,
+                        @Nonnull final String statement,
+                        @Nonnull final Preparer preparer,
+                        @Nonnull final ReturnResults<T> handle,
+                        @Nonnull final CompletableFuture<T> result,
+                        @Nonnull final AtomicInteger launched,
+                        @Nonnull final AtomicInteger failures,
+                        @Nonnull final AtomicReference<Throwable> failure) {
+            this.target = target;
+            this.statement = statement;
+            this.preparer = preparer;
+            this.handle = handle;
+            this.result = result;
+            this.launched = launched;
+            this.failures = failures;
+            this.failure = failure;
+        }
+
+        @Override
+        public void run() {
+            final long start = System.nanoTime();
+
+            try (final Connection c = this.target.database.getConnection();
+                 final PreparedStatement s = c.prepareStatement(this.statement)) {
+                synchronized (this) {
+                    if (this.cancelled) {
+                        return;
+                    }
+                    this.running = s;
+                }
+
+                this.preparer.prepare(s);
+                final T value;
+                try (final ResultSet r = s.executeQuery()) {
+                    value = this.handle.execute(r);
+                }
+
+                this.target.record(System.nanoTime() - start);
+                if (this.result.complete(value)) {
+                    this.won = true;
+                    if (this.hedge) {
+                        HedgedQuery.this.hedgeWins.incrementAndGet();
+                    }
+                }
+            } catch (final SQLException | RuntimeException e) {
+                // A cancelled query took at least this long; leaving it out would make slow databases look fast.
+                // Failures count towards the latency too, so that failing databases are hedged sooner.
+                this.target.record(System.nanoTime() - start);
+                if (this.isCancelled()) {
+                    LOGGER.debug("Cancelled hedged query: {}", this.statement);
+                    return;
+                }
+
+                this.failure.set(e);
+                if (this.failures.incrementAndGet() >= this.launched.get()) {
+                    this.result.completeExceptionally(e);
+                } else {
+                    LOGGER.debug("Hedged query failed on one database: {}", this.statement, e);
+                }
+            } finally {
+                synchronized (this) {
+                    this.running = null;
+                }
+            }
+        }
+
+        /**
+         * Determines whether or not the attempt is no longer wanted.
+         *
+         * @return true if the attempt has been cancelled; false otherwise
+         */
+        private synchronized boolean isCancelled() {
+            return this.cancelled;
+        }
+
+        /**
+         * Cancels the attempt, and its statement if it is running, unless it already answered.
+         */
+        private void cancel() {
+            final PreparedStatement running;
+            synchronized (this) {
+                if (this.won) {
+                    return;
+                }
+                this.cancelled = true;
+                running = this.running;
+            }
+
+            if (running != null) try {
+                running.cancel();
+            } catch (final SQLException e) {
+                LOGGER.debug("Failed to cancel hedged query: {}", this.statement, e);
+            }
+        }
+    }
+}
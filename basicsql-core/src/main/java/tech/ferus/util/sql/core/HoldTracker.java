@@ -0,0 +1,499 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Measures how long the connections of a {@link BasicDatabase} are held, and by whom.
+ *
+ * <p>Every checkout, whether made through {@link BasicSql} or directly
+ * through {@link BasicDatabase#getConnection()}, adds its hold time to an
+ * overall {@link Histogram}. One in every {@link #setSampleEvery(int) few}
+ * checkouts also records where it was made, which costs a stack trace, and
+ * adds its hold time to the {@link Histogram} of that call site.</p>
+ *
+ * <p>Connections held for longer than the {@link #setLeakThreshold(long, TimeUnit) leak threshold}
+ * are logged once, with where they were checked out if it was recorded.</p>
+ *
+ * @see BasicDatabase#enableHoldTracking()
+ */
+public class HoldTracker implements AutoCloseable {
+
+    /**
+     * The logger for {@link HoldTracker}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(HoldTracker.class);
+
+    /**
+     * The prefixes of the classes skipped when looking for where a connection was checked out.
+     */
+    private static final String[] SKIPPED = {
+            "tech.ferus.util.sql.core.", "tech.ferus.util.sql.api.",
+            "java.", "javax.", "sun.", "jdk.", "com.sun.", "com.mchange."
+    };
+
+    /**
+     * The name of the {@link tech.ferus.util.sql.api.Database} being tracked.
+     */
+    @Nonnull private final String name;
+
+    /**
+     * The hold times of every checkout.
+     */
+    @Nonnull private final Histogram overall = new Histogram("(all)");
+
+    /**
+     * The hold times of sampled checkouts, by call site.
+     */
+    @Nonnull private final Map<String, Histogram> sites = new ConcurrentHashMap<>();
+
+    /**
+     * The connections currently checked out.
+     */
+    @Nonnull private final Set<Hold> holds = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Looks for leaked connections.
+     */
+    @Nonnull private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(Threads.daemon("basicsql-hold-tracker"));
+
+    /**
+     * The scheduled search for leaked connections, if any.
+     */
+    @Nullable private ScheduledFuture<?> sweep = null;
+
+    /**
+     * One in how many checkouts records its call site.
+     */
+    private volatile int sampleEvery = 16;
+
+    /**
+     * The time, in nanoseconds, after which a held connection is reported, or 0 to never report them.
+     */
+    private volatile long leakThreshold = 0;
+
+    /**
+     * The number of connections reported as leaked.
+     */
+    @Nonnull private final LongAdder leaks = new LongAdder();
+
+    /**
+     * Constructs a new {@link HoldTracker}.
+     *
+     * @param name the name of the {@link tech.ferus.util.sql.api.Database} being tracked, used in logs
+     */
+    public HoldTracker(@Nonnull final String name) {
+        this.name = name;
+    }
+
+    /**
+     * Sets one in how many checkouts records its call site.
+     *
+     * @param sampleEvery one in how many checkouts is sampled; 1 to sample every checkout
+     */
+    public void setSampleEvery(final int sampleEvery) {
+        if (sampleEvery < 1) {
+            throw new IllegalArgumentException("Sample rate must be at least 1.");
+        }
+        this.sampleEvery = sampleEvery;
+    }
+
+    /**
+     * Sets the time after which a held connection is reported as leaked.
+     *
+     * @param threshold the time after which a connection is reported, or 0 to never report them
+     * @param unit the unit of the time
+     */
+    public synchronized void setLeakThreshold(final long threshold, @Nonnull final TimeUnit unit) {
+        this.leakThreshold = unit.toNanos(Math.max(0, threshold));
+
+        if (this.sweep != null) {
+            this.sweep.cancel(false);
+            this.sweep = null;
+        }
+        if (this.leakThreshold > 0) {
+            final long period = Math.max(TimeUnit.MILLISECONDS.toNanos(100),
+                    Math.min(TimeUnit.SECONDS.toNanos(30), this.leakThreshold / 2));
+            this.sweep = this.scheduler.scheduleWithFixedDelay(this::reportLeaks, period, period, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Starts tracking a checked out {@link Connection}.
+     *
+     * @param connection the checked out {@link Connection}
+     * @return the {@link Connection} to hand out, which stops tracking once closed
+     */
+    @Nonnull
+    Connection track(@Nonnull final Connection connection) {
+        final Throwable site = ThreadLocalRandom.current().nextInt(this.sampleEvery) == 0
+                ? new Throwable("Connection checked out here")
+                : null;
+        final Hold hold = new Hold(site);
+        this.holds.add(hold);
+
+        return Connections.onClose(connection, () -> this.release(hold));
+    }
+
+    /**
+     * Stops tracking a returned {@link Connection}.
+     *
+     * @param hold the checkout of the {@link Connection}
+     */
+    private void release(@Nonnull final Hold hold) {
+        final long held = System.nanoTime() - hold.start;
+        this.holds.remove(hold);
+        this.overall.record(held);
+
+        if (hold.site != null) {
+            final String site = callSite(hold.site);
+            this.sites.computeIfAbsent(site, Histogram::new).record(held);
+        }
+        if (hold.reported) {
+            LOGGER.warn("Connection to {} reported as leaked was returned after {} ms", this.name,
+                    TimeUnit.NANOSECONDS.toMillis(held));
+        }
+    }
+
+    /**
+     * Logs every connection held for longer than the leak threshold that hasn't been logged yet.
+     */
+    private void reportLeaks() {
+        final long threshold = this.leakThreshold;
+        final long now = System.nanoTime();
+        if (threshold <= 0) {
+            return;
+        }
+
+        for (final Hold hold : this.holds) {
+            if (!hold.reported && now - hold.start > threshold) {
+                hold.reported = true;
+                this.leaks.increment();
+                if (hold.site != null) {
+                    LOGGER.warn("Connection to {} has been held by {} for {} ms, and may have leaked",
+                            this.name, hold.thread, TimeUnit.NANOSECONDS.toMillis(now - hold.start), hold.site);
+                } else {
+                    LOGGER.warn("Connection to {} has been held by {} for {} ms, and may have leaked (call site not sampled)",
+                            this.name, hold.thread, TimeUnit.NANOSECONDS.toMillis(now - hold.start));
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds where a connection was checked out, skipping the frames of BasicSql itself.
+     *
+     * @param site the {@link Throwable} created at checkout
+     * @return the class, method and line the connection was checked out from
+     */
+    @Nonnull
+    static String callSite(@Nonnull final Throwable site) {
+        final StackTraceElement[] frames = site.getStackTrace();
+        for (final StackTraceElement frame : frames) {
+            if (!isSkipped(frame)) {
+                return frame.toString();
+            }
+        }
+        return frames.length == 0 ? "(unknown)" : frames[frames.length - 1].toString();
+    }
+
+    /**
+     * Determines whether or not a frame belongs to BasicSql itself, the JDK or a pool.
+     *
+     * @param frame the frame to check
+     * @return true if the frame should be skipped; false otherwise
+     */
+    private static boolean isSkipped(@Nonnull final StackTraceElement frame) {
+        if (frame.getMethodName().equals("getConnection")) {
+            return true;
+        }
+        for (final String prefix : SKIPPED) {
+            if (frame.getClassName().startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the hold times of every checkout.
+     *
+     * @return the hold times of every checkout
+     */
+    @Nonnull
+    public Histogram getOverall() {
+        return this.overall;
+    }
+
+    /**
+     * Gets the call sites that have held connections for the longest in total, among sampled checkouts.
+     *
+     * @param limit the most call sites to return
+     * @return the hold times of the call sites, longest in total first
+     */
+    @Nonnull
+    public List<Histogram> getTopHolders(final int limit) {
+        final List<Histogram> top = new ArrayList<>(this.sites.values());
+        top.sort(Comparator.comparingLong(Histogram::getTotalNanos).reversed());
+        return top.size() > limit ? new ArrayList<>(top.subList(0, limit)) : top;
+    }
+
+    /**
+     * Gets the number of connections currently checked out.
+     *
+     * @return the number of checked out connections
+     */
+    public int getHeldCount() {
+        return this.holds.size();
+    }
+
+    /**
+     * Gets the number of connections reported as leaked.
+     *
+     * @return the number of reported leaks
+     */
+    public long getLeakCount() {
+        return this.leaks.sum();
+    }
+
+    /**
+     * Describes the hold times of every checkout and of the call sites that have held connections for the longest.
+     *
+     * @param limit the most call sites to describe
+     * @return the report, one line per call site
+     */
+    @Nonnull
+    public String report(final int limit) {
+        final StringBuilder report = new StringBuilder();
+        report.append("Connection hold times for ").append(this.name)
+                .append(" (call sites sampled 1 in ").append(this.sampleEvery).append(")")
+                .append(System.lineSeparator())
+                .append(String.format("%10s %12s %10s %10s %10s %10s  %s", "count", "total ms", "mean ms", "p50 ms", "p99 ms", "max ms", "call site"))
+                .append(System.lineSeparator());
+
+        this.describe(report, this.overall);
+        for (final Histogram site : this.getTopHolders(limit)) {
+            this.describe(report, site);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Describes the hold times of a single {@link Histogram}.
+     *
+     * @param report the report to describe it in
+     * @param histogram the {@link Histogram} to describe
+     */
+    private void describe(@Nonnull final StringBuilder report, @Nonnull final Histogram histogram) {
+        final long count = histogram.getCount();
+        report.append(String.format("%10d %12.1f %10.3f %10.3f %10.3f %10.3f  %s",
+                count,
+                histogram.getTotalNanos() / 1e6,
+                count == 0 ? 0 : histogram.getTotalNanos() / 1e6 / count,
+                histogram.getPercentileNanos(0.5) / 1e6,
+                histogram.getPercentileNanos(0.99) / 1e6,
+                histogram.getMaxNanos() / 1e6,
+                histogram.getCallSite()))
+                .append(System.lineSeparator());
+    }
+
+    /**
+     * Stops looking for leaked connections.
+     */
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * A single checkout of a {@link Connection}.
+     */
+    private static final class Hold {
+
+        /**
+         * The {@link System#nanoTime()} at which the connection was checked out.
+         */
+        private final long start = System.nanoTime();
+
+        /**
+         * The name of the thread the connection was checked out by.
+         */
+        @Nonnull private final String thread = Thread.currentThread().getName();
+
+        /**
+         * Where the connection was checked out, if sampled.
+         */
+        @Nullable private final Throwable site;
+
+        /**
+         * Whether or not the checkout has been reported as a leak.
+         */
+        private volatile boolean reported = false;
+
+        /**
+         * Constructs a new {@link Hold}.
+         *
+         * @param site where the connection was checked out, if sampled
+         */
+        private Hold(@Nullable final Throwable site) {
+            this.site = site;
+        }
+    }
+
+    /**
+     * The distribution of hold times of a call site, in power-of-two buckets of microseconds.
+     */
+    public static final class Histogram {
+
+        /**
+         * The number of buckets; the last holds every time of about 2^38 microseconds or more.
+         */
+        private static final int BUCKETS = 40;
+
+        /**
+         * The call site whose hold times are counted.
+         */
+        @Nonnull private final String callSite;
+
+        /**
+         * The number of hold times in each bucket.
+         */
+        @Nonnull private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+        /**
+         * The sum of every hold time, in nanoseconds.
+         */
+        @Nonnull private final LongAdder total = new LongAdder();
+
+        /**
+         * The longest hold time, in nanoseconds.
+         */
+        @Nonnull private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        /**
+         * Constructs a new {@link Histogram}.
+         *
+         * @param callSite the call site whose hold times are counted
+         */
+        private Histogram(@Nonnull final String callSite) {
+            this.callSite = callSite;
+        }
+
+        /**
+         * Adds a hold time.
+         *
+         * @param nanos the hold time, in nanoseconds
+         */
+        private void record(final long nanos) {
+            final long micros = Math.max(1, nanos / 1000);
+            this.buckets.incrementAndGet(Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros)));
+            this.total.add(nanos);
+            this.max.accumulate(nanos);
+        }
+
+        /**
+         * Gets the call site whose hold times are counted.
+         *
+         * @return the call site
+         */
+        @Nonnull
+        public String getCallSite() {
+            return this.callSite;
+        }
+
+        /**
+         * Gets the number of hold times counted.
+         *
+         * @return the number of hold times
+         */
+        public long getCount() {
+            long count = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                count += this.buckets.get(i);
+            }
+            return count;
+        }
+
+        /**
+         * Gets the sum of every hold time.
+         *
+         * @return the sum, in nanoseconds
+         */
+        public long getTotalNanos() {
+            return this.total.sum();
+        }
+
+        /**
+         * Gets the longest hold time.
+         *
+         * @return the longest hold time, in nanoseconds
+         */
+        public long getMaxNanos() {
+            return this.max.get();
+        }
+
+        /**
+         * Estimates a percentile of the hold times, as the upper bound of the bucket it falls in.
+         *
+         * @param percentile the percentile, between 0 and 1
+         * @return the estimated hold time, in nanoseconds, or 0 if none were counted
+         */
+        public long getPercentileNanos(final double percentile) {
+            final long count = this.getCount();
+            if (count == 0) {
+                return 0;
+            }
+
+            final long rank = Math.max(1, (long) Math.ceil(percentile * count));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; ++i) {
+                seen += this.buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(this.getMaxNanos(), (2L << i) * 1000);
+                }
+            }
+            return this.getMaxNanos();
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import com.mchange.v2.c3p0.AbstractConnectionCustomizer;
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import javax.annotation.Nonnull;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the {@link BasicDatabase#addInitStatement(String) init statements} of a {@link BasicDatabase} on every new {@link Connection}.
+ *
+ * <p>c3p0 creates this by name, and hands it the statements through the
+ * extensions of its {@link ComboPooledDataSource}. {@link BasicPool} reads
+ * the same extension.</p>
+ */
+public class InitStatementCustomizer extends AbstractConnectionCustomizer {
+
+    /**
+     * The key of the extension holding the statements, as a {@link List} of {@link String}.
+     */
+    public static final String INIT_STATEMENTS = "basicsql.initStatements";
+
+    @Override
+    public void onAcquire(final Connection c, final String parentDataSourceIdentityToken) throws SQLException {
+        run(c, getInitStatements(this.extensionsForToken(parentDataSourceIdentityToken)));
+    }
+
+    /**
+     * Gets the statements held by the extensions of a {@link ComboPooledDataSource}.
+     *
+     * @param extensions the extensions of a {@link ComboPooledDataSource}
+     * @return the statements to run on every new {@link Connection}
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    static List<String> getInitStatements(final Map<?, ?> extensions) {
+        final Object statements = extensions == null ? null : extensions.get(INIT_STATEMENTS);
+        return statements instanceof List ? (List<String>) statements : Collections.emptyList();
+    }
+
+    /**
+     * Runs statements on a new {@link Connection}.
+     *
+     * @param c the new {@link Connection}
+     * @param statements the statements to run
+     * @throws SQLException if a statement failed
+     */
+    static void run(@Nonnull final Connection c, @Nonnull final List<String> statements) throws SQLException {
+        if (statements.isEmpty()) {
+            return;
+        }
+
+        try (final Statement s = c.createStatement()) {
+            for (final String statement : statements) {
+                s.execute(statement);
+            }
+        }
+    }
+}
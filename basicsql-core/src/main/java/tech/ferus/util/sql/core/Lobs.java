@@ -0,0 +1,448 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.Preparer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+
+/**
+ * Streams large objects into and out of a {@link Database} without copying them into arrays.
+ *
+ * <p>Values are bound from streams, channels or files, and read into them
+ * through a buffer of fixed size reused on every thread, so the memory used
+ * by a transfer doesn't grow with the size of the value. Whether the
+ * driver itself streams the value depends on the driver: H2 does, while
+ * SQLite always holds the whole value, and MySQL and MariaDB hold whole
+ * rows unless results are streamed or cursors are used.</p>
+ *
+ * <p>The read methods are meant to be called from {@link tech.ferus.util.sql.api.ReturnResults},
+ * with the {@link ResultSet} on the row to be read.</p>
+ */
+public final class Lobs {
+
+    /**
+     * The logger for {@link Lobs}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(Lobs.class);
+
+    /**
+     * The size of the buffer used by every transfer.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The byte buffer reused by every transfer on the same thread.
+     */
+    private static final ThreadLocal<byte[]> BYTES = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+
+    /**
+     * The character buffer reused by every transfer on the same thread.
+     */
+    private static final ThreadLocal<char[]> CHARS = ThreadLocal.withInitial(() -> new char[BUFFER_SIZE / 2]);
+
+    private Lobs() {}
+
+    /**
+     * Binds a stream of bytes to a parameter.
+     *
+     * <p>The stream must stay open until the statement has been executed.</p>
+     *
+     * @param s the statement to bind the stream to
+     * @param index the index of the parameter
+     * @param in the stream to be read
+     * @param length the number of bytes to be read, or -1 if unknown
+     * @throws SQLException if the stream couldn't be bound
+     */
+    public static void bindBlob(@Nonnull final PreparedStatement s,
+                                final int index,
+                                @Nonnull final InputStream in,
+                                final long length) throws SQLException {
+        try {
+            if (length < 0) {
+                s.setBinaryStream(index, in);
+            } else {
+                s.setBinaryStream(index, in, length);
+            }
+        } catch (final SQLFeatureNotSupportedException e) {
+            // Older drivers, such as SQLite's, only take streams of a known int length.
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                s.setBytes(index, readAll(in));
+            } else {
+                s.setBinaryStream(index, in, (int) length);
+            }
+        }
+    }
+
+    /**
+     * Binds a channel of bytes to a parameter.
+     *
+     * <p>The channel must stay open until the statement has been executed.</p>
+     *
+     * @param s the statement to bind the channel to
+     * @param index the index of the parameter
+     * @param channel the channel to be read
+     * @param length the number of bytes to be read, or -1 if unknown
+     * @throws SQLException if the channel couldn't be bound
+     */
+    public static void bindBlob(@Nonnull final PreparedStatement s,
+                                final int index,
+                                @Nonnull final ReadableByteChannel channel,
+                                final long length) throws SQLException {
+        bindBlob(s, index, Channels.newInputStream(channel), length);
+    }
+
+    /**
+     * Binds a stream of characters to a parameter.
+     *
+     * <p>The stream must stay open until the statement has been executed.</p>
+     *
+     * @param s the statement to bind the stream to
+     * @param index the index of the parameter
+     * @param reader the stream to be read
+     * @param length the number of characters to be read, or -1 if unknown
+     * @throws SQLException if the stream couldn't be bound
+     */
+    public static void bindClob(@Nonnull final PreparedStatement s,
+                                final int index,
+                                @Nonnull final Reader reader,
+                                final long length) throws SQLException {
+        try {
+            if (length < 0) {
+                s.setCharacterStream(index, reader);
+            } else {
+                s.setCharacterStream(index, reader, length);
+            }
+        } catch (final SQLFeatureNotSupportedException e) {
+            // Older drivers, such as SQLite's, only take streams of a known int length.
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                s.setString(index, readAll(reader));
+            } else {
+                s.setCharacterStream(index, reader, (int) length);
+            }
+        }
+    }
+
+    /**
+     * Reads a whole stream of bytes, for drivers that would have done so themselves.
+     *
+     * @param in the stream to be read
+     * @return the bytes of the stream
+     * @throws SQLException if the stream couldn't be read
+     */
+    @Nonnull
+    private static byte[] readAll(@Nonnull final InputStream in) throws SQLException {
+        try {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] buffer = BYTES.get();
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (final IOException e) {
+            throw new SQLException("Failed to read stream", e);
+        }
+    }
+
+    /**
+     * Reads a whole stream of characters, for drivers that would have done so themselves.
+     *
+     * @param reader the stream to be read
+     * @return the characters of the stream
+     * @throws SQLException if the stream couldn't be read
+     */
+    @Nonnull
+    private static String readAll(@Nonnull final Reader reader) throws SQLException {
+        try {
+            final StringBuilder out = new StringBuilder();
+            final char[] buffer = CHARS.get();
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                out.append(buffer, 0, read);
+            }
+            return out.toString();
+        } catch (final IOException e) {
+            throw new SQLException("Failed to read stream", e);
+        }
+    }
+
+    /**
+     * Executes a statement with the contents of a file bound to a parameter.
+     *
+     * @param database the {@link Database} to execute the statement on
+     * @param statement the statement to be executed
+     * @param preparer the {@link Preparer} to set the other data in the statement
+     * @param index the index of the parameter the file is bound to
+     * @param path the file to be bound
+     */
+    public static void writeBlob(@Nonnull final Database database,
+                                 @Nonnull final String statement,
+                                 @Nonnull final Preparer preparer,
+                                 final int index,
+                                 @Nonnull final Path path) {
+        try (final InputStream in = Files.newInputStream(path)) {
+            final long length = Files.size(path);
+            BasicSql.execute(database, statement, s -> {
+                preparer.prepare(s);
+                bindBlob(s, index, in, length);
+            });
+        } catch (final IOException e) {
+            LOGGER.error("Failed to read file for statement: {}", statement, e);
+        }
+    }
+
+    /**
+     * Executes a statement with the text of a file bound to a parameter.
+     *
+     * @param database the {@link Database} to execute the statement on
+     * @param statement the statement to be executed
+     * @param preparer the {@link Preparer} to set the other data in the statement
+     * @param index the index of the parameter the file is bound to
+     * @param path the file to be bound
+     * @param charset the encoding of the file
+     */
+    public static void writeClob(@Nonnull final Database database,
+                                 @Nonnull final String statement,
+                                 @Nonnull final Preparer preparer,
+                                 final int index,
+                                 @Nonnull final Path path,
+                                 @Nonnull final Charset charset) {
+        try (final Reader reader = Files.newBufferedReader(path, charset)) {
+            BasicSql.execute(database, statement, s -> {
+                preparer.prepare(s);
+                bindClob(s, index, reader, -1);
+            });
+        } catch (final IOException e) {
+            LOGGER.error("Failed to read file for statement: {}", statement, e);
+        }
+    }
+
+    /**
+     * Reads a column of the current row into a stream.
+     *
+     * <p>The stream is not closed afterwards.</p>
+     *
+     * @param r the {@link ResultSet}, positioned on the row to be read
+     * @param column the index of the column
+     * @param out the stream to write to
+     * @return the number of bytes read, or -1 if the column is null
+     * @throws SQLException if the column couldn't be read or the stream written
+     */
+    public static long readBlob(@Nonnull final ResultSet r,
+                                final int column,
+                                @Nonnull final OutputStream out) throws SQLException {
+        try (final InputStream in = r.getBinaryStream(column)) {
+            if (in == null) {
+                return -1;
+            }
+
+            final byte[] buffer = BYTES.get();
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            return total;
+        } catch (final IOException e) {
+            throw new SQLException("Failed to read column " + column + " into stream", e);
+        }
+    }
+
+    /**
+     * Reads a column of the current row into a channel.
+     *
+     * <p>The channel is not closed afterwards. If it is a {@link FileChannel},
+     * the column is transferred into it from its current position.</p>
+     *
+     * @param r the {@link ResultSet}, positioned on the row to be read
+     * @param column the index of the column
+     * @param channel the channel to write to
+     * @return the number of bytes read, or -1 if the column is null
+     * @throws SQLException if the column couldn't be read or the channel written
+     */
+    public static long readBlob(@Nonnull final ResultSet r,
+                                final int column,
+                                @Nonnull final WritableByteChannel channel) throws SQLException {
+        try (final InputStream in = r.getBinaryStream(column)) {
+            if (in == null) {
+                return -1;
+            }
+
+            if (channel instanceof FileChannel) {
+                return transfer(in, (FileChannel) channel);
+            }
+
+            final byte[] buffer = BYTES.get();
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                final ByteBuffer bytes = ByteBuffer.wrap(buffer, 0, read);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                total += read;
+            }
+            return total;
+        } catch (final IOException e) {
+            throw new SQLException("Failed to read column " + column + " into channel", e);
+        }
+    }
+
+    /**
+     * Reads a column of the current row into a file, replacing it if it exists.
+     *
+     * @param r the {@link ResultSet}, positioned on the row to be read
+     * @param column the index of the column
+     * @param path the file to write to
+     * @return the number of bytes read, or -1 if the column is null, in which case the file isn't touched
+     * @throws SQLException if the column couldn't be read or the file written
+     */
+    public static long readBlob(@Nonnull final ResultSet r,
+                                final int column,
+                                @Nonnull final Path path) throws SQLException {
+        try (final InputStream in = r.getBinaryStream(column)) {
+            if (in == null) {
+                return -1;
+            }
+
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                return transfer(in, channel);
+            }
+        } catch (final IOException e) {
+            throw new SQLException("Failed to read column " + column + " into file: " + path, e);
+        }
+    }
+
+    /**
+     * Reads a column of the current row into a stream of characters.
+     *
+     * <p>The stream is not closed afterwards.</p>
+     *
+     * @param r the {@link ResultSet}, positioned on the row to be read
+     * @param column the index of the column
+     * @param out the stream to write to
+     * @return the number of characters read, or -1 if the column is null
+     * @throws SQLException if the column couldn't be read or the stream written
+     */
+    public static long readClob(@Nonnull final ResultSet r,
+                                final int column,
+                                @Nonnull final Writer out) throws SQLException {
+        try (final Reader in = r.getCharacterStream(column)) {
+            if (in == null) {
+                return -1;
+            }
+
+            final char[] buffer = CHARS.get();
+            long total = 0;
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                total += read;
+            }
+            return total;
+        } catch (final IOException e) {
+            throw new SQLException("Failed to read column " + column + " into stream", e);
+        }
+    }
+
+    /**
+     * Reads a column of the current row into a text file, replacing it if it exists.
+     *
+     * @param r the {@link ResultSet}, positioned on the row to be read
+     * @param column the index of the column
+     * @param path the file to write to
+     * @param charset the encoding of the file
+     * @return the number of characters read, or -1 if the column is null, in which case the file isn't touched
+     * @throws SQLException if the column couldn't be read or the file written
+     */
+    public static long readClob(@Nonnull final ResultSet r,
+                                final int column,
+                                @Nonnull final Path path,
+                                @Nonnull final Charset charset) throws SQLException {
+        try (final Reader in = r.getCharacterStream(column)) {
+            if (in == null) {
+                return -1;
+            }
+
+            try (final Writer out = Files.newBufferedWriter(path, charset)) {
+                final char[] buffer = CHARS.get();
+                long total = 0;
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                    total += read;
+                }
+                return total;
+            }
+        } catch (final IOException e) {
+            throw new SQLException("Failed to read column " + column + " into file: " + path, e);
+        }
+    }
+
+    /**
+     * Transfers a stream into a {@link FileChannel}, from its current position onwards.
+     *
+     * @param in the stream to be read
+     * @param channel the {@link FileChannel} to write to
+     * @return the number of bytes transferred
+     * @throws IOException if the stream couldn't be read or the channel written
+     */
+    private static long transfer(@Nonnull final InputStream in, @Nonnull final FileChannel channel) throws IOException {
+        final ReadableByteChannel source = Channels.newChannel(in);
+        final long start = channel.position();
+        long position = start;
+        long transferred;
+        while ((transferred = channel.transferFrom(source, position, BUFFER_SIZE)) > 0) {
+            position += transferred;
+        }
+        channel.position(position);
+        return position - start;
+    }
+}
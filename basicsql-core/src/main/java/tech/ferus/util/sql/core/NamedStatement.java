@@ -0,0 +1,426 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Preparer;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A statement using named parameters, such as <code>:id</code>, rewritten to use positional parameters.
+ *
+ * <p>Statements are parsed once and cached, so that binding values to a
+ * statement doesn't scan it again. Named parameters are not recognised
+ * within quotes or comments, and <code>::</code> (as in PostgreSQL casts) is
+ * left as-is. A name may appear any number of times.</p>
+ *
+ * <p>Values may be bound from a {@link Map}, from the getters of a bean, or
+ * from {@link Parameters}, which can be filled in and reused for many
+ * executions of the same statement.</p>
+ */
+public class NamedStatement {
+
+    /**
+     * The number of parsed statements to keep cached.
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    /**
+     * The parsed statements, keyed by their original text.
+     */
+    private static final Map<String, NamedStatement> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * The readable properties of every bean class values have been bound from.
+     */
+    private static final ClassValue<Map<String, Method>> GETTERS = new ClassValue<Map<String, Method>>() {
+        @Override
+        protected Map<String, Method> computeValue(final Class<?> type) {
+            final Map<String, Method> getters = new HashMap<>();
+            try {
+                for (final PropertyDescriptor property : Introspector.getBeanInfo(type).getPropertyDescriptors()) {
+                    final Method getter = property.getReadMethod();
+                    if (getter != null) {
+                        getter.setAccessible(true);
+                        getters.put(property.getName(), getter);
+                    }
+                }
+            } catch (final IntrospectionException e) {
+                throw new IllegalArgumentException("Failed to inspect bean: " + type.getName(), e);
+            }
+            return getters;
+        }
+    };
+
+    /**
+     * Marks a value of {@link Parameters} that hasn't been set.
+     */
+    private static final Object UNSET = new Object();
+
+    /**
+     * The statement, as written with named parameters.
+     */
+    @Nonnull private final String original;
+
+    /**
+     * The statement, rewritten with positional parameters.
+     */
+    @Nonnull private final String sql;
+
+    /**
+     * The name of every positional parameter, in order.
+     */
+    @Nonnull private final String[] names;
+
+    /**
+     * The slot of every positional parameter among the distinct names, in order.
+     */
+    @Nonnull private final int[] slots;
+
+    /**
+     * The slot of every distinct name.
+     */
+    @Nonnull private final Map<String, Integer> slotsByName;
+
+    /**
+     * Constructs a new {@link NamedStatement}.
+     *
+     * @param original the statement, as written with named parameters
+     * @param sql the statement, rewritten with positional parameters
+     * @param names the name of every positional parameter, in order
+     */
+    private NamedStatement(@Nonnull final String original, @Nonnull final String sql, @Nonnull final List<String> names) {
+        this.original = original;
+        this.sql = sql;
+        this.names = names.toArray(new String[0]);
+        this.slots = new int[this.names.length];
+
+        final Map<String, Integer> slotsByName = new LinkedHashMap<>();
+        for (int i = 0; i < this.names.length; ++i) {
+            final Integer slot = slotsByName.get(this.names[i]);
+            if (slot == null) {
+                this.slots[i] = slotsByName.size();
+                slotsByName.put(this.names[i], this.slots[i]);
+            } else {
+                this.slots[i] = slot;
+            }
+        }
+        this.slotsByName = Collections.unmodifiableMap(slotsByName);
+    }
+
+    /**
+     * Gets the parsed form of a statement, parsing it if it isn't cached.
+     *
+     * @param statement the statement, written with named parameters
+     * @return the parsed statement
+     * @throws IllegalArgumentException if the statement mixes named and positional parameters
+     */
+    @Nonnull
+    public static NamedStatement of(@Nonnull final String statement) {
+        final NamedStatement cached = CACHE.get(statement);
+        if (cached != null) {
+            return cached;
+        }
+
+        final NamedStatement parsed = parse(statement);
+        if (CACHE.size() >= CACHE_SIZE) {
+            // Evict an arbitrary statement; hot ones are simply parsed again on their next use.
+            final Iterator<String> keys = CACHE.keySet().iterator();
+            if (keys.hasNext()) {
+                keys.next();
+                keys.remove();
+            }
+        }
+        final NamedStatement previous = CACHE.putIfAbsent(statement, parsed);
+        return previous == null ? parsed : previous;
+    }
+
+    /**
+     * Parses a statement, rewriting its named parameters as positional parameters.
+     *
+     * @param statement the statement, written with named parameters
+     * @return the parsed statement
+     * @throws IllegalArgumentException if the statement mixes named and positional parameters
+     */
+    @Nonnull
+    private static NamedStatement parse(@Nonnull final String statement) {
+        final StringBuilder sql = new StringBuilder(statement.length());
+        final List<String> names = new ArrayList<>();
+        boolean positional = false;
+
+        final int length = statement.length();
+        int i = 0;
+        while (i < length) {
+            final char ch = statement.charAt(i);
+
+            if (ch == '\'' || ch == '"' || ch == '`') {
+                final int end = statement.indexOf(ch, i + 1);
+                final int next = end < 0 ? length : end + 1;
+                sql.append(statement, i, next);
+                i = next;
+            } else if (ch == '-' && i + 1 < length && statement.charAt(i + 1) == '-') {
+                final int end = statement.indexOf('\n', i);
+                final int next = end < 0 ? length : end + 1;
+                sql.append(statement, i, next);
+                i = next;
+            } else if (ch == '/' && i + 1 < length && statement.charAt(i + 1) == '*') {
+                final int end = statement.indexOf("*/", i + 2);
+                final int next = end < 0 ? length : end + 2;
+                sql.append(statement, i, next);
+                i = next;
+            } else if (ch == ':' && i + 1 < length && statement.charAt(i + 1) == ':') {
+                sql.append("::");
+                i += 2;
+            } else if (ch == ':' && i + 1 < length && Character.isJavaIdentifierStart(statement.charAt(i + 1))) {
+                int end = i + 2;
+                while (end < length && Character.isJavaIdentifierPart(statement.charAt(end))) {
+                    ++end;
+                }
+                names.add(statement.substring(i + 1, end));
+                sql.append('?');
+                i = end;
+            } else {
+                positional |= ch == '?';
+                sql.append(ch);
+                ++i;
+            }
+        }
+
+        if (positional && !names.isEmpty()) {
+            throw new IllegalArgumentException("Statement mixes named and positional parameters: " + statement);
+        }
+        return new NamedStatement(statement, sql.toString(), names);
+    }
+
+    /**
+     * Gets the statement, as written with named parameters.
+     *
+     * @return the statement, as written with named parameters
+     */
+    @Nonnull
+    public String getOriginal() {
+        return this.original;
+    }
+
+    /**
+     * Gets the statement, rewritten with positional parameters.
+     *
+     * @return the statement to be prepared
+     */
+    @Nonnull
+    public String getSql() {
+        return this.sql;
+    }
+
+    /**
+     * Gets the distinct names of the parameters, in the order they first appear.
+     *
+     * @return the distinct names of the parameters
+     */
+    @Nonnull
+    public List<String> getNames() {
+        return new ArrayList<>(this.slotsByName.keySet());
+    }
+
+    /**
+     * Gets the positional indexes, starting from 1, a named parameter was rewritten to.
+     *
+     * @param name the name of the parameter
+     * @return the positional indexes of the parameter, or an empty array if it doesn't appear
+     */
+    @Nonnull
+    public int[] getIndexes(@Nonnull final String name) {
+        int[] indexes = new int[0];
+        for (int i = 0; i < this.names.length; ++i) {
+            if (this.names[i].equals(name)) {
+                indexes = Arrays.copyOf(indexes, indexes.length + 1);
+                indexes[indexes.length - 1] = i + 1;
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Creates empty, reusable {@link Parameters} for this statement.
+     *
+     * @return empty {@link Parameters}
+     */
+    @Nonnull
+    public Parameters parameters() {
+        return new Parameters(this);
+    }
+
+    /**
+     * Creates a {@link Preparer} binding values by name from a {@link Map}.
+     *
+     * @param values the values, keyed by parameter name
+     * @return the {@link Preparer} to set data in the statement
+     */
+    @Nonnull
+    public Preparer bind(@Nonnull final Map<String, ?> values) {
+        return s -> {
+            for (int i = 0; i < this.names.length; ++i) {
+                final Object value = values.get(this.names[i]);
+                if (value == null && !values.containsKey(this.names[i])) {
+                    throw new SQLException("No value for parameter :" + this.names[i] + " in statement: " + this.original);
+                }
+                s.setObject(i + 1, value);
+            }
+        };
+    }
+
+    /**
+     * Creates a {@link Preparer} binding values from a {@link Map}, {@link Parameters}, or the getters of a bean.
+     *
+     * <p>{@link Parameters} must have been created for this statement, or
+     * another parse of the same SQL.</p>
+     *
+     * @param values the values to be bound
+     * @return the {@link Preparer} to set data in the statement
+     * @throws IllegalArgumentException if the values are {@link Parameters} of a different statement
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public Preparer bind(@Nonnull final Object values) {
+        if (values instanceof Map) {
+            return this.bind((Map<String, ?>) values);
+        }
+        if (values instanceof Parameters) {
+            final NamedStatement statement = ((Parameters) values).statement;
+            if (statement != this && !statement.original.equals(this.original)) {
+                throw new IllegalArgumentException("Parameters of statement: " + statement.original
+                        + " can't be bound to statement: " + this.original);
+            }
+            return (Parameters) values;
+        }
+
+        final Map<String, Method> getters = GETTERS.get(values.getClass());
+        return s -> {
+            for (int i = 0; i < this.names.length; ++i) {
+                final Method getter = getters.get(this.names[i]);
+                if (getter == null) {
+                    throw new SQLException("No property for parameter :" + this.names[i] + " in statement: " + this.original);
+                }
+
+                try {
+                    s.setObject(i + 1, getter.invoke(values));
+                } catch (final IllegalAccessException | InvocationTargetException e) {
+                    throw new SQLException("Failed to read property for parameter :" + this.names[i], e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Reusable values for the parameters of a single {@link NamedStatement}.
+     *
+     * <p>Values are held in slots resolved when the statement was parsed, so
+     * binding them is a walk over an array. {@link Parameters} are not
+     * thread-safe, and keep their values until they are set again or
+     * {@link #clear() cleared}.</p>
+     */
+    public static final class Parameters implements Preparer {
+
+        /**
+         * The statement these values are bound to.
+         */
+        @Nonnull private final NamedStatement statement;
+
+        /**
+         * The value of every distinct name.
+         */
+        @Nonnull private final Object[] values;
+
+        /**
+         * Constructs new, empty {@link Parameters}.
+         *
+         * @param statement the statement these values are bound to
+         */
+        private Parameters(@Nonnull final NamedStatement statement) {
+            this.statement = statement;
+            this.values = new Object[statement.slotsByName.size()];
+            this.clear();
+        }
+
+        /**
+         * Sets the value of a named parameter.
+         *
+         * @param name the name of the parameter
+         * @param value the value of the parameter
+         * @return these {@link Parameters}
+         * @throws IllegalArgumentException if the statement has no such parameter
+         */
+        @Nonnull
+        public Parameters set(@Nonnull final String name, @Nullable final Object value) {
+            final Integer slot = this.statement.slotsByName.get(name);
+            if (slot == null) {
+                throw new IllegalArgumentException("No parameter :" + name + " in statement: " + this.statement.original);
+            }
+            this.values[slot] = value;
+            return this;
+        }
+
+        /**
+         * Unsets every value.
+         *
+         * @return these {@link Parameters}
+         */
+        @Nonnull
+        public Parameters clear() {
+            Arrays.fill(this.values, UNSET);
+            return this;
+        }
+
+        @Override
+        public void prepare(@Nonnull final PreparedStatement s) throws SQLException {
+            final int[] slots = this.statement.slots;
+            for (int i = 0; i < slots.length; ++i) {
+                final Object value = this.values[slots[i]];
+                if (value == UNSET) {
+                    throw new SQLException("No value for parameter :" + this.statement.names[i]
+                            + " in statement: " + this.statement.original);
+                }
+                s.setObject(i + 1, value);
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.HandleResults;
+import tech.ferus.util.sql.api.ReturnResults;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * A utility class for scanning an entire table in parallel.
+ *
+ * <p>The table is split into ranges of its (numeric) key column, using the
+ * minimum and maximum values of that column. Each range is then queried on
+ * its own pooled {@link java.sql.Connection}, so a scan can make use of as
+ * many connections as the {@link Database} allows.</p>
+ *
+ * <p>Table and column names are inserted into the generated statements as-is,
+ * so they should never come from untrusted input.</p>
+ */
+public final class ParallelScan {
+
+    /**
+     * The logger for {@link ParallelScan}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(ParallelScan.class);
+
+    /**
+     * Scans a table in parallel, handing every partition to the {@link HandleResults}.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param table the table to be scanned
+     * @param key the numeric column used to partition the table
+     * @param partitions the maximum number of partitions to scan concurrently
+     * @param handle determines what happens with each partition's {@link ResultSet}
+     */
+    public static void scan(@Nonnull final String table,
+                            @Nonnull final String key,
+                            final int partitions,
+                            @Nonnull final HandleResults handle) {
+        scan(DefaultDatabase.getDatabase(), table, key, partitions, handle);
+    }
+
+    /**
+     * Scans a table in parallel, handing every partition to the {@link HandleResults}.
+     *
+     * <p>A thread is started for every partition, and all of them are stopped
+     * once the scan has finished.</p>
+     *
+     * <p>The {@link HandleResults} is called concurrently, once per partition,
+     * and must therefore be thread-safe.</p>
+     *
+     * @param database the {@link Database} to scan the table on
+     * @param table the table to be scanned
+     * @param key the numeric column used to partition the table
+     * @param partitions the maximum number of partitions to scan concurrently
+     * @param handle determines what happens with each partition's {@link ResultSet}
+     */
+    public static void scan(@Nonnull final Database database,
+                            @Nonnull final String table,
+                            @Nonnull final String key,
+                            final int partitions,
+                            @Nonnull final HandleResults handle) {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, partitions));
+        try {
+            scan(database, table, key, partitions, executor, handle);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Scans a table in parallel, handing every partition to the {@link HandleResults}.
+     *
+     * <p>The {@link HandleResults} is called concurrently, once per partition,
+     * and must therefore be thread-safe. This method blocks until every
+     * partition has been handled.</p>
+     *
+     * @param database the {@link Database} to scan the table on
+     * @param table the table to be scanned
+     * @param key the numeric column used to partition the table
+     * @param partitions the maximum number of partitions to split the table into
+     * @param executor the {@link ExecutorService} each partition is scanned on
+     * @param handle determines what happens with each partition's {@link ResultSet}
+     */
+    public static void scan(@Nonnull final Database database,
+                            @Nonnull final String table,
+                            @Nonnull final String key,
+                            final int partitions,
+                            @Nonnull final ExecutorService executor,
+                            @Nonnull final HandleResults handle) {
+        final String statement = rangeStatement(table, key);
+        final List<Future<?>> futures = new ArrayList<>();
+
+        for (final long[] range : partition(database, table, key, partitions)) {
+            futures.add(executor.submit(() -> BasicSql.query(database, statement, s -> {
+                s.setLong(1, range[0]);
+                s.setLong(2, range[1]);
+            }, handle)));
+        }
+
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.error("Interrupted while scanning table: {}", table, e);
+                return;
+            } catch (final ExecutionException e) {
+                LOGGER.error("Failed to scan partition of table: {}", table, e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the data gathered from every partition of a table as a {@link Stream}.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param table the table to be scanned
+     * @param key the numeric column used to partition the table
+     * @param partitions the maximum number of partitions to split the table into
+     * @param handle determines which data to return from each partition's {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return a {@link Stream} of the data returned for each partition
+     */
+    public static <T> Stream<T> stream(@Nonnull final String table,
+                                       @Nonnull final String key,
+                                       final int partitions,
+                                       @Nonnull final ReturnResults<T> handle) {
+        return stream(DefaultDatabase.getDatabase(), table, key, partitions, handle);
+    }
+
+    /**
+     * Returns the data gathered from every partition of a table as a {@link Stream}.
+     *
+     * <p>The partitions are determined immediately, but nothing is queried
+     * until the {@link Stream} is consumed. Every partition is then queried at
+     * once, each on its own thread, which is stopped once its partition has
+     * been handled. Partitions that fail, or for which the {@link ReturnResults}
+     * returns null, are left out.</p>
+     *
+     * @param database the {@link Database} to scan the table on
+     * @param table the table to be scanned
+     * @param key the numeric column used to partition the table
+     * @param partitions the maximum number of partitions to split the table into
+     * @param handle determines which data to return from each partition's {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return a {@link Stream} of the data returned for each partition
+     */
+    public static <T> Stream<T> stream(@Nonnull final Database database,
+                                       @Nonnull final String table,
+                                       @Nonnull final String key,
+                                       final int partitions,
+                                       @Nonnull final ReturnResults<T> handle) {
+        final List<long[]> ranges = partition(database, table, key, partitions);
+
+        return stream(database, rangeStatement(table, key), ranges,
+                () -> Executors.newFixedThreadPool(Math.max(1, ranges.size()), Threads.daemon("basicsql-scan")),
+                true, handle);
+    }
+
+    /**
+     * Returns the data gathered from every partition of a table as a {@link Stream}.
+     *
+     * <p>The partitions are determined immediately, but nothing is queried
+     * until the {@link Stream} is consumed. Every partition is then submitted
+     * to the {@link ExecutorService}, which should be bounded: each partition
+     * blocks a thread for as long as its query runs. The {@link ExecutorService}
+     * is never shut down. Partitions that fail, or for which the
+     * {@link ReturnResults} returns null, are left out.</p>
+     *
+     * @param database the {@link Database} to scan the table on
+     * @param table the table to be scanned
+     * @param key the numeric column used to partition the table
+     * @param partitions the maximum number of partitions to split the table into
+     * @param executor the {@link ExecutorService} each partition is queried on
+     * @param handle determines which data to return from each partition's {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return a {@link Stream} of the data returned for each partition
+     */
+    public static <T> Stream<T> stream(@Nonnull final Database database,
+                                       @Nonnull final String table,
+                                       @Nonnull final String key,
+                                       final int partitions,
+                                       @Nonnull final ExecutorService executor,
+                                       @Nonnull final ReturnResults<T> handle) {
+        return stream(database, rangeStatement(table, key), partition(database, table, key, partitions),
+                () -> executor, false, handle);
+    }
+
+    /**
+     * Returns the data gathered from every range of a table as a {@link Stream}.
+     *
+     * <p>The queries are submitted once the {@link Stream} is consumed, and
+     * kept off the common {@link java.util.concurrent.ForkJoinPool}, which
+     * blocking queries would starve.</p>
+     *
+     * @param database the {@link Database} to scan the table on
+     * @param statement the statement used to query a single range
+     * @param ranges the ranges of the table
+     * @param executor creates or provides the {@link ExecutorService} the ranges are queried on
+     * @param owned whether or not the {@link ExecutorService} is shut down once every range is submitted
+     * @param handle determines which data to return from each range's {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return a {@link Stream} of the data returned for each range
+     */
+    private static <T> Stream<T> stream(@Nonnull final Database database,
+                                        @Nonnull final String statement,
+                                        @Nonnull final List<long[]> ranges,
+                                        @Nonnull final Supplier<ExecutorService> executor,
+                                        final boolean owned,
+                                        @Nonnull final ReturnResults<T> handle) {
+        final Supplier<Spliterator<Future<Optional<T>>>> submit = () -> {
+            final ExecutorService service = executor.get();
+            final List<Future<Optional<T>>> futures = new ArrayList<>(ranges.size());
+            try {
+                for (final long[] range : ranges) {
+                    futures.add(service.submit(() -> BasicSql.returnQuery(database, statement, s -> {
+                        s.setLong(1, range[0]);
+                        s.setLong(2, range[1]);
+                    }, handle)));
+                }
+            } finally {
+                if (owned) {
+                    service.shutdown();
+                }
+            }
+            return futures.spliterator();
+        };
+
+        return StreamSupport.stream(submit, Spliterator.ORDERED | Spliterator.SIZED | Spliterator.SUBSIZED, false)
+                .map(future -> await(future, statement))
+                .filter(Optional::isPresent)
+                .map(Optional::get);
+    }
+
+    /**
+     * Waits for the data returned for a single range.
+     *
+     * @param future the {@link Future} of the data
+     * @param statement the statement the range was queried with
+     * @param <T> the Type of object being returned
+     * @return the data wrapped in an {@link Optional}. {@link Optional#empty()} if the query failed or was interrupted.
+     */
+    private static <T> Optional<T> await(@Nonnull final Future<Optional<T>> future, @Nonnull final String statement) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while scanning partition: {}", statement, e);
+        } catch (final ExecutionException e) {
+            LOGGER.error("Failed to scan partition: {}", statement, e.getCause());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Splits a table into ranges of its key column.
+     *
+     * <p>Every range is an array of two values: the inclusive lower and upper
+     * bound of the key column. The ranges are evenly sized between the
+     * minimum and maximum values of the key column, so a table with gaps in
+     * its keys may produce unevenly filled partitions.</p>
+     *
+     * @param database the {@link Database} the table is found in
+     * @param table the table to be split
+     * @param key the numeric column used to partition the table
+     * @param partitions the maximum number of ranges to split the table into
+     * @return the ranges of the table; empty if the table is empty or couldn't be queried
+     */
+    @Nonnull
+    public static List<long[]> partition(@Nonnull final Database database,
+                                         @Nonnull final String table,
+                                         @Nonnull final String key,
+                                         final int partitions) {
+        final Optional<long[]> bounds = BasicSql.returnQuery(database,
+                "SELECT MIN(" + key + "), MAX(" + key + ") FROM " + table,
+                r -> {
+                    if (!r.next()) {
+                        return null;
+                    }
+
+                    final long min = r.getLong(1);
+                    return r.wasNull() ? null : new long[]{min, r.getLong(2)};
+                });
+
+        if (!bounds.isPresent()) {
+            return new ArrayList<>();
+        }
+
+        return partition(bounds.get()[0], bounds.get()[1], partitions);
+    }
+
+    /**
+     * Splits the range between two values into evenly sized ranges.
+     *
+     * @param min the inclusive lower bound
+     * @param max the inclusive upper bound
+     * @param partitions the maximum number of ranges to split into
+     * @return the inclusive ranges between the two values
+     */
+    @Nonnull
+    static List<long[]> partition(final long min, final long max, final int partitions) {
+        final long span = max - min;
+        if (partitions <= 1 || span <= 0) {
+            // A negative span means the subtraction overflowed.
+            return new ArrayList<>(Arrays.asList(new long[][]{{min, max}}));
+        }
+
+        final long step = span / partitions + 1;
+        final List<long[]> ranges = new ArrayList<>(partitions);
+
+        long lower = min;
+        for (int i = 0; i < partitions && lower <= max; ++i) {
+            final long upper = i == partitions - 1 || max - lower < step ? max : lower + step - 1;
+            ranges.add(new long[]{lower, upper});
+
+            if (upper == max) {
+                break;
+            }
+            lower = upper + 1;
+        }
+
+        return ranges;
+    }
+
+    /**
+     * Creates the statement used to query a single range of a table.
+     *
+     * @param table the table to be queried
+     * @param key the column the table is partitioned on
+     * @return the statement used to query a single range
+     */
+    @Nonnull
+    private static String rangeStatement(@Nonnull final String table, @Nonnull final String key) {
+        return "SELECT * FROM " + table + " WHERE " + key + " BETWEEN ? AND ?";
+    }
+}
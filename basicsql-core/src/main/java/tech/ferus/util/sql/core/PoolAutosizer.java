@@ -0,0 +1,398 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Grows and shrinks the pool of a {@link BasicDatabase} based on how it is used.
+ *
+ * <p>Every sample looks at the average time spent waiting for a connection,
+ * the number of threads waiting for one, and the share of the pool that is
+ * checked out. The pool grows while callers are waiting longer than
+ * allowed, and shrinks while too little of it is in use. Either must hold
+ * for a number of samples in a row before the pool is resized, so that a
+ * single burst or lull doesn't cause the pool to flap.</p>
+ *
+ * <p>c3p0 rebuilds its pool whenever its size is changed, returning
+ * checked out connections to the new pool as they are closed, so the number
+ * of samples required should be kept high enough to make resizing rare.
+ * The built-in {@link BasicPool} is resized in place.</p>
+ */
+public class PoolAutosizer implements AutoCloseable {
+
+    /**
+     * The logger for {@link PoolAutosizer}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(PoolAutosizer.class);
+
+    /**
+     * The {@link BasicDatabase} whose pool is resized.
+     */
+    @Nonnull private final BasicDatabase database;
+
+    /**
+     * The smallest maximum size the pool may be given.
+     */
+    private final int minSize;
+
+    /**
+     * The largest maximum size the pool may be given.
+     */
+    private final int maxSize;
+
+    /**
+     * The average wait, in nanoseconds, above which the pool should grow.
+     */
+    private volatile long growWait = TimeUnit.MILLISECONDS.toNanos(5);
+
+    /**
+     * The share of the pool in use below which the pool should shrink.
+     */
+    private volatile double shrinkUtilization = 0.5;
+
+    /**
+     * The number of samples in a row that must agree before the pool is resized.
+     */
+    private volatile int hysteresis = 3;
+
+    /**
+     * The number of connections the pool is resized by at once.
+     */
+    private volatile int step = 2;
+
+    /**
+     * The thread samples are taken on, once started.
+     */
+    private ScheduledExecutorService scheduler = null;
+
+    /**
+     * The checkout count of the {@link BasicDatabase} at the previous sample.
+     */
+    private long lastCheckouts;
+
+    /**
+     * The checkout wait of the {@link BasicDatabase} at the previous sample.
+     */
+    private long lastCheckoutWait;
+
+    /**
+     * The number of samples in a row that called for the pool to grow.
+     */
+    private int growSamples = 0;
+
+    /**
+     * The number of samples in a row that called for the pool to shrink.
+     */
+    private int shrinkSamples = 0;
+
+    /**
+     * The average checkout wait, in nanoseconds, of the latest sample.
+     */
+    @Nonnull private final AtomicLong wait = new AtomicLong();
+
+    /**
+     * The share of the pool in use, in thousandths, at the latest sample.
+     */
+    @Nonnull private final AtomicInteger utilization = new AtomicInteger();
+
+    /**
+     * The number of connections checked out at the latest sample.
+     */
+    @Nonnull private final AtomicInteger inFlight = new AtomicInteger();
+
+    /**
+     * The number of threads waiting for a connection at the latest sample.
+     */
+    @Nonnull private final AtomicInteger waiting = new AtomicInteger();
+
+    /**
+     * The number of times the pool has grown.
+     */
+    @Nonnull private final AtomicLong grown = new AtomicLong();
+
+    /**
+     * The number of times the pool has shrunk.
+     */
+    @Nonnull private final AtomicLong shrunk = new AtomicLong();
+
+    /**
+     * Constructs a new {@link PoolAutosizer}.
+     *
+     * <p>The pool's current maximum size is clamped between the bounds right away.</p>
+     *
+     * @param database the {@link BasicDatabase} whose pool is resized
+     * @param minSize the smallest maximum size the pool may be given
+     * @param maxSize the largest maximum size the pool may be given
+     */
+    public PoolAutosizer(@Nonnull final BasicDatabase database, final int minSize, final int maxSize) {
+        this.database = database;
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+
+        this.lastCheckouts = database.getCheckoutCount();
+        this.lastCheckoutWait = database.getCheckoutWaitNanos();
+
+        final int size = this.getPoolSize();
+        if (size < this.minSize || size > this.maxSize) {
+            this.resize(Math.max(this.minSize, Math.min(this.maxSize, size)));
+        }
+    }
+
+    /**
+     * Sets the average wait for a connection above which the pool should grow.
+     *
+     * @param wait the average wait
+     * @param unit the unit of the average wait
+     */
+    public void setGrowWait(final long wait, @Nonnull final TimeUnit unit) {
+        this.growWait = unit.toNanos(wait);
+    }
+
+    /**
+     * Sets the share of the pool in use below which the pool should shrink.
+     *
+     * @param shrinkUtilization the share of the pool in use, between 0 and 1
+     */
+    public void setShrinkUtilization(final double shrinkUtilization) {
+        this.shrinkUtilization = shrinkUtilization;
+    }
+
+    /**
+     * Sets the number of samples in a row that must agree before the pool is resized.
+     *
+     * @param hysteresis the number of samples in a row
+     */
+    public void setHysteresis(final int hysteresis) {
+        this.hysteresis = Math.max(1, hysteresis);
+    }
+
+    /**
+     * Sets the number of connections the pool is resized by at once.
+     *
+     * @param step the number of connections
+     */
+    public void setStep(final int step) {
+        this.step = Math.max(1, step);
+    }
+
+    /**
+     * Starts taking samples in the background.
+     *
+     * @param period the time between samples
+     * @param unit the unit of the time between samples
+     */
+    public synchronized void start(final long period, @Nonnull final TimeUnit unit) {
+        if (this.scheduler != null) {
+            throw new IllegalStateException("Autosizer has already been started.");
+        }
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(Threads.daemon("basicsql-autosizer"));
+        this.scheduler.scheduleAtFixedRate(this::scheduledSample, period, period, unit);
+    }
+
+    /**
+     * Stops taking samples in the background.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.scheduler != null) {
+            this.scheduler.shutdownNow();
+        }
+    }
+
+    /**
+     * Takes a sample on the schedule, stopping once the database is closed.
+     *
+     * <p>Failures are logged rather than thrown, as a scheduled task that
+     * throws is silently never run again.</p>
+     */
+    private void scheduledSample() {
+        if (this.database.isClosed()) {
+            LOGGER.debug("Stopping autosizer of closed database: {}", this.database.getProtocol());
+            this.close();
+            return;
+        }
+
+        try {
+            this.sample();
+        } catch (final RuntimeException e) {
+            LOGGER.error("Failed to sample pool of database: {}", this.database.getProtocol(), e);
+        }
+    }
+
+    /**
+     * Takes a single sample, resizing the pool if needed.
+     *
+     * <p>Called periodically once started, but may also be called directly.</p>
+     */
+    public synchronized void sample() {
+        final long checkouts = this.database.getCheckoutCount();
+        final long checkoutWait = this.database.getCheckoutWaitNanos();
+        final long count = checkouts - this.lastCheckouts;
+        this.wait.set(count == 0 ? 0 : (checkoutWait - this.lastCheckoutWait) / count);
+        this.lastCheckouts = checkouts;
+        this.lastCheckoutWait = checkoutWait;
+
+        final int size = this.getPoolSize();
+        try {
+            if (this.database.getPoolType() == PoolType.BASIC) {
+                final BasicPool pool = this.database.getBasicPool();
+                this.inFlight.set(pool.getActiveConnections());
+                this.waiting.set(pool.getWaitingThreads());
+            } else {
+                final ComboPooledDataSource pool = this.database.getDataSource();
+                this.inFlight.set(pool.getNumBusyConnectionsDefaultUser());
+                this.waiting.set(pool.getNumThreadsAwaitingCheckoutDefaultUser());
+            }
+        } catch (final SQLException e) {
+            LOGGER.error("Failed to sample pool of database: {}", this.database.getProtocol(), e);
+            return;
+        }
+        this.utilization.set(this.inFlight.get() * 1000 / Math.max(1, size));
+
+        if (this.wait.get() > this.growWait || this.waiting.get() > 0) {
+            ++this.growSamples;
+            this.shrinkSamples = 0;
+        } else if (this.getUtilization() < this.shrinkUtilization) {
+            ++this.shrinkSamples;
+            this.growSamples = 0;
+        } else {
+            this.growSamples = 0;
+            this.shrinkSamples = 0;
+        }
+
+        if (this.growSamples >= this.hysteresis && size < this.maxSize) {
+            this.growSamples = 0;
+            this.grown.incrementAndGet();
+            LOGGER.info("Growing pool of database {} from {} to {} connections (wait {} us, {} waiting)",
+                    this.database.getProtocol(), size, Math.min(this.maxSize, size + this.step),
+                    TimeUnit.NANOSECONDS.toMicros(this.wait.get()), this.waiting.get());
+            this.resize(Math.min(this.maxSize, size + this.step));
+        } else if (this.shrinkSamples >= this.hysteresis && size > this.minSize) {
+            this.shrinkSamples = 0;
+            this.shrunk.incrementAndGet();
+            LOGGER.info("Shrinking pool of database {} from {} to {} connections ({} in use)",
+                    this.database.getProtocol(), size, Math.max(this.minSize, size - this.step), this.inFlight.get());
+            this.resize(Math.max(this.minSize, size - this.step));
+        }
+    }
+
+    /**
+     * Sets the maximum size of the pool, lowering its minimum and initial size to match if needed.
+     *
+     * @param size the new maximum size of the pool
+     */
+    private void resize(final int size) {
+        final ComboPooledDataSource pool = this.database.getDataSource();
+
+        if (pool.getMinPoolSize() > size) {
+            pool.setMinPoolSize(size);
+        }
+        if (pool.getInitialPoolSize() > size) {
+            pool.setInitialPoolSize(size);
+        }
+        pool.setMaxPoolSize(size);
+
+        if (this.database.getPoolType() == PoolType.BASIC) {
+            this.database.getBasicPool().setMaxSize(size);
+        }
+    }
+
+    /**
+     * Gets the current maximum size of the pool.
+     *
+     * @return the current maximum size of the pool
+     */
+    public int getPoolSize() {
+        if (this.database.getPoolType() == PoolType.BASIC) {
+            return this.database.getBasicPool().getMaxSize();
+        }
+        return this.database.getDataSource().getMaxPoolSize();
+    }
+
+    /**
+     * Gets the average time spent waiting for a connection since the previous sample.
+     *
+     * @return the average wait, in nanoseconds, at the latest sample
+     */
+    public long getWaitNanos() {
+        return this.wait.get();
+    }
+
+    /**
+     * Gets the share of the pool that was in use.
+     *
+     * @return the share of the pool in use, between 0 and 1, at the latest sample
+     */
+    public double getUtilization() {
+        return this.utilization.get() / 1000.0;
+    }
+
+    /**
+     * Gets the number of connections that were checked out.
+     *
+     * @return the number of connections checked out at the latest sample
+     */
+    public int getInFlight() {
+        return this.inFlight.get();
+    }
+
+    /**
+     * Gets the number of threads that were waiting for a connection.
+     *
+     * @return the number of waiting threads at the latest sample
+     */
+    public int getWaiting() {
+        return this.waiting.get();
+    }
+
+    /**
+     * Gets the number of times the pool has grown.
+     *
+     * @return the number of times the pool has grown
+     */
+    public long getGrowCount() {
+        return this.grown.get();
+    }
+
+    /**
+     * Gets the number of times the pool has shrunk.
+     *
+     * @return the number of times the pool has shrunk
+     */
+    public long getShrinkCount() {
+        return this.shrunk.get();
+    }
+}
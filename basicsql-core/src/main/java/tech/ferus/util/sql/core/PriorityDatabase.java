@@ -0,0 +1,517 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+
+import javax.annotation.Nonnull;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/**
+ * Shares the connections of a {@link Database} between {@link Lane}s of work, serving the most urgent first.
+ *
+ * <p>Work is tagged by the {@link Database} it is given: {@link #lane(Lane)}
+ * returns a {@link Database} for each {@link Lane}, which can be passed to
+ * {@link BasicSql} like any other.</p>
+ *
+ * <p>Each {@link Lane} has a reserved share of the connections, which other
+ * lanes may not take from it, and a maximum share it may never exceed. When
+ * a connection is returned, it goes to the most urgent {@link Lane} with
+ * waiting work that is allowed another connection, so interactive work
+ * doesn't queue behind batch work.</p>
+ *
+ * <p>The capacity should match the size of the wrapped {@link Database}'s
+ * pool, so that connections are only ever waited for here.</p>
+ */
+public class PriorityDatabase {
+
+    /**
+     * The {@link Database} whose connections are shared.
+     */
+    @Nonnull private final Database database;
+
+    /**
+     * The number of connections shared between the lanes.
+     */
+    private final int capacity;
+
+    /**
+     * The time, in nanoseconds, to wait for a connection before giving up.
+     */
+    private final long timeout;
+
+    /**
+     * Guards every count below.
+     */
+    @Nonnull private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * The state of every {@link Lane}.
+     */
+    @Nonnull private final Map<Lane, State> lanes = new EnumMap<>(Lane.class);
+
+    /**
+     * The number of connections checked out by every lane.
+     */
+    private int inUse = 0;
+
+    /**
+     * Constructs a new {@link PriorityDatabase}.
+     *
+     * <p>By default, interactive work has a quarter of the connections
+     * reserved and may use all of them, batch work may use three quarters,
+     * and background work a quarter. At least one connection is always left
+     * unreserved, so with a capacity of 1 nothing is reserved and every lane
+     * may use the connection.</p>
+     *
+     * @param database the {@link Database} whose connections are shared
+     * @param capacity the number of connections shared between the lanes
+     * @param timeout the time to wait for a connection before giving up
+     * @param unit the unit of the time to wait
+     */
+    public PriorityDatabase(@Nonnull final Database database,
+                            final int capacity,
+                            final long timeout,
+                            @Nonnull final TimeUnit unit) {
+        this.database = database;
+        this.capacity = Math.max(1, capacity);
+        this.timeout = unit.toNanos(timeout);
+
+        for (final Lane lane : Lane.values()) {
+            this.lanes.put(lane, new State(lane));
+        }
+        this.setShares(Lane.INTERACTIVE, Math.min((this.capacity + 3) / 4, this.capacity - 1), this.capacity);
+        this.setShares(Lane.BATCH, 0, Math.max(1, this.capacity * 3 / 4));
+        this.setShares(Lane.BACKGROUND, 0, Math.max(1, this.capacity / 4));
+    }
+
+    /**
+     * Sets the reserved and maximum share of the connections of a {@link Lane}.
+     *
+     * @param lane the {@link Lane} whose shares are set
+     * @param reserved the number of connections other lanes may not take from it
+     * @param max the number of connections it may never exceed
+     * @throws IllegalArgumentException if the shares are out of bounds, or more connections would be reserved than exist
+     */
+    public void setShares(@Nonnull final Lane lane, final int reserved, final int max) {
+        if (reserved < 0 || max < 1 || reserved > max || max > this.capacity) {
+            throw new IllegalArgumentException("Invalid shares for lane " + lane + ": " + reserved + " reserved, " + max + " max");
+        }
+
+        this.lock.lock();
+        try {
+            int total = reserved;
+            for (final State state : this.lanes.values()) {
+                if (state.lane != lane) {
+                    total += state.reserved;
+                }
+            }
+            if (total > this.capacity) {
+                throw new IllegalArgumentException("Cannot reserve " + total + " of " + this.capacity + " connections");
+            }
+
+            final State state = this.lanes.get(lane);
+            state.reserved = reserved;
+            state.max = max;
+            this.signalNext();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the {@link Database} checking out connections for a {@link Lane}.
+     *
+     * @param lane the {@link Lane} work is tagged with
+     * @return the {@link Database} for the {@link Lane}
+     */
+    @Nonnull
+    public Database lane(@Nonnull final Lane lane) {
+        return this.lanes.get(lane).view;
+    }
+
+    /**
+     * Gets the {@link Database} whose connections are shared.
+     *
+     * @return the {@link Database} whose connections are shared
+     */
+    @Nonnull
+    public Database getDatabase() {
+        return this.database;
+    }
+
+    /**
+     * Checks out a connection for a {@link Lane}, waiting for its turn if needed.
+     *
+     * @param lane the {@link Lane} the connection is for
+     * @return the connection, which gives its turn back when closed
+     * @throws SQLException if no connection was granted in time, or one couldn't be checked out
+     */
+    @Nonnull
+    private Connection acquire(@Nonnull final Lane lane) throws SQLException {
+        final State state = this.lanes.get(lane);
+        final long start = System.nanoTime();
+
+        this.lock.lock();
+        try {
+            ++state.waiting;
+            try {
+                long remaining = this.timeout;
+                while (!this.canGrant(state) || this.isOvertaken(state)) {
+                    if (remaining <= 0) {
+                        ++state.timeouts;
+                        this.signalNext();
+                        throw new SQLTimeoutException("Timed out waiting for a " + lane
+                                + " connection to database: " + this.database.getProtocol());
+                    }
+                    remaining = state.turn.awaitNanos(remaining);
+                }
+            } finally {
+                --state.waiting;
+            }
+
+            ++state.inUse;
+            ++this.inUse;
+
+            final long wait = System.nanoTime() - start;
+            ++state.checkouts;
+            state.waitNanos += wait;
+            state.maxWaitNanos = Math.max(state.maxWaitNanos, wait);
+
+            // Another connection may be free for the next lane in line.
+            this.signalNext();
+        } catch (final InterruptedException e) {
+            this.signalNext();
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a " + lane
+                    + " connection to database: " + this.database.getProtocol(), e);
+        } finally {
+            this.lock.unlock();
+        }
+
+        try {
+            return Connections.onClose(this.database.getConnection(), () -> this.release(state));
+        } catch (final SQLException | RuntimeException e) {
+            this.release(state);
+            throw e;
+        }
+    }
+
+    /**
+     * Gives the turn of a {@link Lane} back, passing it to the next lane in line.
+     *
+     * @param state the {@link Lane} the connection was for
+     */
+    private void release(@Nonnull final State state) {
+        this.lock.lock();
+        try {
+            --state.inUse;
+            --this.inUse;
+            this.signalNext();
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Determines whether or not a {@link Lane} may be given another connection.
+     *
+     * <p>Must be called while holding the lock.</p>
+     *
+     * @param state the {@link Lane} asking for a connection
+     * @return true if another connection may be given; false otherwise
+     */
+    private boolean canGrant(@Nonnull final State state) {
+        if (state.inUse >= state.max || this.inUse >= this.capacity) {
+            return false;
+        }
+
+        int held = 0;
+        for (final State other : this.lanes.values()) {
+            if (other != state) {
+                held += Math.max(0, other.reserved - other.inUse);
+            }
+        }
+        return this.capacity - this.inUse - 1 >= held || state.inUse < state.reserved;
+    }
+
+    /**
+     * Determines whether or not a more urgent {@link Lane} is waiting and could be given a connection.
+     *
+     * <p>Must be called while holding the lock.</p>
+     *
+     * @param state the {@link Lane} asking for a connection
+     * @return true if a more urgent {@link Lane} should go first; false otherwise
+     */
+    private boolean isOvertaken(@Nonnull final State state) {
+        for (final State other : this.lanes.values()) {
+            if (other.lane.ordinal() >= state.lane.ordinal()) {
+                return false;
+            }
+            if (other.waiting > 0 && this.canGrant(other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wakes a waiter of the most urgent {@link Lane} that may be given a connection.
+     *
+     * <p>Must be called while holding the lock.</p>
+     */
+    private void signalNext() {
+        for (final State state : this.lanes.values()) {
+            if (state.waiting > 0 && this.canGrant(state)) {
+                state.turn.signal();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Reads a count of a {@link Lane} while holding the lock.
+     *
+     * @param lane the {@link Lane} being read
+     * @param count the count to be read
+     * @return the count
+     */
+    private long read(@Nonnull final Lane lane, @Nonnull final ToLongFunction<State> count) {
+        this.lock.lock();
+        try {
+            return count.applyAsLong(this.lanes.get(lane));
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    /**
+     * Gets the number of threads waiting for a connection in a {@link Lane}.
+     *
+     * @param lane the {@link Lane} being read
+     * @return the number of waiting threads
+     */
+    public int getQueueDepth(@Nonnull final Lane lane) {
+        return (int) this.read(lane, state -> state.waiting);
+    }
+
+    /**
+     * Gets the number of connections checked out by a {@link Lane}.
+     *
+     * @param lane the {@link Lane} being read
+     * @return the number of checked out connections
+     */
+    public int getInUse(@Nonnull final Lane lane) {
+        return (int) this.read(lane, state -> state.inUse);
+    }
+
+    /**
+     * Gets the number of connections a {@link Lane} has been granted.
+     *
+     * @param lane the {@link Lane} being read
+     * @return the number of granted connections
+     */
+    public long getCheckoutCount(@Nonnull final Lane lane) {
+        return this.read(lane, state -> state.checkouts);
+    }
+
+    /**
+     * Gets the number of times a {@link Lane} gave up waiting for a connection.
+     *
+     * @param lane the {@link Lane} being read
+     * @return the number of timeouts
+     */
+    public long getTimeoutCount(@Nonnull final Lane lane) {
+        return this.read(lane, state -> state.timeouts);
+    }
+
+    /**
+     * Gets the total time a {@link Lane} has spent waiting for granted connections.
+     *
+     * @param lane the {@link Lane} being read
+     * @return the total wait, in nanoseconds
+     */
+    public long getWaitNanos(@Nonnull final Lane lane) {
+        return this.read(lane, state -> state.waitNanos);
+    }
+
+    /**
+     * Gets the longest time a {@link Lane} has waited for a granted connection.
+     *
+     * @param lane the {@link Lane} being read
+     * @return the longest wait, in nanoseconds
+     */
+    public long getMaxWaitNanos(@Nonnull final Lane lane) {
+        return this.read(lane, state -> state.maxWaitNanos);
+    }
+
+    /**
+     * The shares, counts and view of a single {@link Lane}.
+     */
+    private final class State {
+
+        /**
+         * The {@link Lane} this is the state of.
+         */
+        @Nonnull private final Lane lane;
+
+        /**
+         * Signalled when this {@link Lane} may be next to be given a connection.
+         */
+        @Nonnull private final Condition turn = PriorityDatabase.this.lock.newCondition();
+
+        /**
+         * The {@link Database} checking out connections for this {@link Lane}.
+         */
+        @Nonnull private final Database view;
+
+        /**
+         * The number of connections other lanes may not take from this one.
+         */
+        private int reserved;
+
+        /**
+         * The number of connections this {@link Lane} may never exceed.
+         */
+        private int max;
+
+        /**
+         * The number of threads waiting for a connection.
+         */
+        private int waiting = 0;
+
+        /**
+         * The number of checked out connections.
+         */
+        private int inUse = 0;
+
+        /**
+         * The number of granted connections.
+         */
+        private long checkouts = 0;
+
+        /**
+         * The number of times a thread gave up waiting.
+         */
+        private long timeouts = 0;
+
+        /**
+         * The total time, in nanoseconds, spent waiting for granted connections.
+         */
+        private long waitNanos = 0;
+
+        /**
+         * The longest time, in nanoseconds, spent waiting for a granted connection.
+         */
+        private long maxWaitNanos = 0;
+
+        /**
+         * Constructs a new {@link State}.
+         *
+         * @param lane the {@link Lane} this is the state of
+         */
+        private State(@Nonnull final Lane lane) {
+            this.lane = lane;
+            this.view = new LaneDatabase(lane);
+        }
+    }
+
+    /**
+     * The {@link Database} checking out connections for a single {@link Lane}.
+     */
+    private final class LaneDatabase implements Database {
+
+        /**
+         * The {@link Lane} connections are checked out for.
+         */
+        @Nonnull private final Lane lane;
+
+        /**
+         * Constructs a new {@link LaneDatabase}.
+         *
+         * @param lane the {@link Lane} connections are checked out for
+         */
+        private LaneDatabase(@Nonnull final Lane lane) {
+            this.lane = lane;
+        }
+
+        @Nonnull
+        @Override
+        public String getProtocol() {
+            return PriorityDatabase.this.database.getProtocol();
+        }
+
+        @Nonnull
+        @Override
+        public DataSource getDataSource() {
+            return PriorityDatabase.this.database.getDataSource();
+        }
+
+        @Override
+        public void configure() {
+            PriorityDatabase.this.database.configure();
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return PriorityDatabase.this.acquire(this.lane);
+        }
+
+        @Override
+        public boolean isDefaultDatabase() {
+            return DefaultDatabase.isDefaultDatabase(this);
+        }
+
+        /**
+         * Closes the shared {@link Database}, and with it every {@link Lane}.
+         */
+        @Override
+        public void close() {
+            PriorityDatabase.this.database.close();
+        }
+
+        /**
+         * Drains and closes the shared {@link Database}, and with it every {@link Lane}.
+         */
+        @Override
+        public boolean drain(final long timeout, @Nonnull final TimeUnit unit) {
+            return PriorityDatabase.this.database.drain(timeout, unit);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return PriorityDatabase.this.database.isClosed();
+        }
+    }
+}
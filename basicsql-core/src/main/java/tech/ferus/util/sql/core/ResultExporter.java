@@ -0,0 +1,349 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.Preparer;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Streams the rows of a {@link ResultSet} straight into a {@link WritableByteChannel}.
+ *
+ * <p>Every value is encoded by the {@link ColumnEncoder} registered for its
+ * column's {@link Types type} into a direct {@link ByteBuffer}, which is
+ * reused for every row of an export. Large results can therefore be
+ * exported without building a line or byte array per row.</p>
+ *
+ * <p>Integers are encoded without creating any objects, as are
+ * floating-point numbers and booleans in {@link ExportFormat#BINARY}. Binary
+ * values in {@link ExportFormat#BINARY} are read with
+ * {@link ResultSet#getBytes(int)}, so one array is created per value. Every
+ * other value is read with {@link ResultSet#getString(int)}, so one string is
+ * still created per value; a {@link ColumnEncoder} can be registered for
+ * types where that matters.</p>
+ *
+ * <p>A {@link ResultExporter} may be shared between threads, as long as its
+ * encoders are no longer changed.</p>
+ */
+public class ResultExporter {
+
+    /**
+     * The size of the buffer used by every export.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The buffer reused by every export on the same thread.
+     */
+    private static final ThreadLocal<ByteBuffer> BUFFERS = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+    /**
+     * The format this exporter writes.
+     */
+    @Nonnull private final ExportFormat format;
+
+    /**
+     * The encoders registered for specific column types.
+     */
+    @Nonnull private final Map<Integer, ColumnEncoder> encoders = new HashMap<>();
+
+    /**
+     * Constructs a new {@link ResultExporter}.
+     *
+     * @param format the format to write
+     */
+    public ResultExporter(@Nonnull final ExportFormat format) {
+        this.format = format;
+    }
+
+    /**
+     * Gets the format this exporter writes.
+     *
+     * @return the format this exporter writes
+     */
+    @Nonnull
+    public ExportFormat getFormat() {
+        return this.format;
+    }
+
+    /**
+     * Registers the {@link ColumnEncoder} used for columns of a type, replacing the default one.
+     *
+     * @param type the {@link Types type} of column to be encoded
+     * @param encoder the {@link ColumnEncoder} to be used for the type
+     */
+    public void setEncoder(final int type, @Nonnull final ColumnEncoder encoder) {
+        this.encoders.put(type, encoder);
+    }
+
+    /**
+     * Exports the results of a query to a file, replacing it if it exists.
+     *
+     * @param database the {@link Database} to execute the query on
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param path the file to export to
+     * @return the number of exported rows wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public Optional<Long> export(@Nonnull final Database database,
+                                 @Nonnull final String statement,
+                                 @Nonnull final Preparer preparer,
+                                 @Nonnull final Path path) {
+        return BasicSql.returnQuery(database, statement, preparer, r -> {
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                return this.export(r, channel);
+            } catch (final IOException e) {
+                throw new SQLException("Failed to export to file: " + path, e);
+            }
+        });
+    }
+
+    /**
+     * Exports the results of a query to a {@link WritableByteChannel}.
+     *
+     * <p>The channel is not closed afterwards.</p>
+     *
+     * @param database the {@link Database} to execute the query on
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param channel the {@link WritableByteChannel} to export to
+     * @return the number of exported rows wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public Optional<Long> export(@Nonnull final Database database,
+                                 @Nonnull final String statement,
+                                 @Nonnull final Preparer preparer,
+                                 @Nonnull final WritableByteChannel channel) {
+        return BasicSql.returnQuery(database, statement, preparer, r -> {
+            try {
+                return this.export(r, channel);
+            } catch (final IOException e) {
+                throw new SQLException("Failed to export to channel", e);
+            }
+        });
+    }
+
+    /**
+     * Exports every remaining row of a {@link ResultSet} to a {@link WritableByteChannel}.
+     *
+     * <p>The channel is not closed afterwards.</p>
+     *
+     * @param r the {@link ResultSet} to be exported
+     * @param channel the {@link WritableByteChannel} to export to
+     * @return the number of exported rows
+     * @throws SQLException if there is an exception reading from the {@link ResultSet}
+     * @throws IOException if there is an exception writing to the channel
+     */
+    public long export(@Nonnull final ResultSet r, @Nonnull final WritableByteChannel channel)
+            throws SQLException, IOException {
+        final ExportBuffer out = new ExportBuffer(BUFFERS.get(), channel);
+        final ResultSetMetaData meta = r.getMetaData();
+        final int columns = meta.getColumnCount();
+
+        final ColumnEncoder[] encoders = new ColumnEncoder[columns];
+        for (int i = 0; i < columns; ++i) {
+            encoders[i] = this.getEncoder(meta.getColumnType(i + 1));
+        }
+
+        this.writeHeader(meta, out);
+
+        long rows = 0;
+        while (r.next()) {
+            for (int i = 0; i < columns; ++i) {
+                if (this.format == ExportFormat.CSV && i > 0) {
+                    out.putByte(',');
+                }
+                encoders[i].encode(r, i + 1, out);
+            }
+
+            if (this.format == ExportFormat.CSV) {
+                out.putByte('\n');
+            }
+            ++rows;
+        }
+
+        out.flush();
+        return rows;
+    }
+
+    /**
+     * Writes the column labels (and, for {@link ExportFormat#BINARY}, types) of an export.
+     *
+     * @param meta the {@link ResultSetMetaData} of the export
+     * @param out the {@link ExportBuffer} to write to
+     * @throws SQLException if there is an exception reading the {@link ResultSetMetaData}
+     * @throws IOException if there is an exception writing to the channel
+     */
+    private void writeHeader(@Nonnull final ResultSetMetaData meta, @Nonnull final ExportBuffer out)
+            throws SQLException, IOException {
+        final int columns = meta.getColumnCount();
+
+        if (this.format == ExportFormat.BINARY) {
+            out.putInt(columns);
+            for (int i = 1; i <= columns; ++i) {
+                out.putInt(meta.getColumnType(i));
+                out.putPrefixedUtf8(meta.getColumnLabel(i));
+            }
+            return;
+        }
+
+        for (int i = 1; i <= columns; ++i) {
+            if (i > 1) {
+                out.putByte(',');
+            }
+            out.putCsv(meta.getColumnLabel(i));
+        }
+        out.putByte('\n');
+    }
+
+    /**
+     * Gets the {@link ColumnEncoder} for a column type.
+     *
+     * @param type the {@link Types type} of the column
+     * @return the registered {@link ColumnEncoder}, or the default for this format
+     */
+    @Nonnull
+    private ColumnEncoder getEncoder(final int type) {
+        final ColumnEncoder encoder = this.encoders.get(type);
+        if (encoder != null) {
+            return encoder;
+        }
+
+        return this.format == ExportFormat.CSV ? csvEncoder(type) : binaryEncoder(type);
+    }
+
+    /**
+     * Gets the default {@link ColumnEncoder} of a column type for {@link ExportFormat#CSV}.
+     *
+     * @param type the {@link Types type} of the column
+     * @return the default {@link ColumnEncoder} for the type
+     */
+    @Nonnull
+    private static ColumnEncoder csvEncoder(final int type) {
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return (r, column, out) -> {
+                    final long value = r.getLong(column);
+                    if (!r.wasNull()) {
+                        out.putDecimal(value);
+                    }
+                };
+            default:
+                return (r, column, out) -> {
+                    final String value = r.getString(column);
+                    if (value != null) {
+                        out.putCsv(value);
+                    }
+                };
+        }
+    }
+
+    /**
+     * Gets the default {@link ColumnEncoder} of a column type for {@link ExportFormat#BINARY}.
+     *
+     * @param type the {@link Types type} of the column
+     * @return the default {@link ColumnEncoder} for the type
+     */
+    @Nonnull
+    private static ColumnEncoder binaryEncoder(final int type) {
+        switch (type) {
+            case Types.TINYINT:
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+                return (r, column, out) -> {
+                    final long value = r.getLong(column);
+                    if (r.wasNull()) {
+                        out.putInt(-1);
+                    } else {
+                        out.putInt(8);
+                        out.putLong(value);
+                    }
+                };
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return (r, column, out) -> {
+                    final double value = r.getDouble(column);
+                    if (r.wasNull()) {
+                        out.putInt(-1);
+                    } else {
+                        out.putInt(8);
+                        out.putDouble(value);
+                    }
+                };
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return (r, column, out) -> {
+                    final boolean value = r.getBoolean(column);
+                    if (r.wasNull()) {
+                        out.putInt(-1);
+                    } else {
+                        out.putInt(1);
+                        out.putByte(value ? 1 : 0);
+                    }
+                };
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+            case Types.BLOB:
+                return (r, column, out) -> {
+                    final byte[] value = r.getBytes(column);
+                    if (value == null) {
+                        out.putInt(-1);
+                    } else {
+                        out.putInt(value.length);
+                        out.putBytes(value);
+                    }
+                };
+            default:
+                return (r, column, out) -> {
+                    final String value = r.getString(column);
+                    if (value == null) {
+                        out.putInt(-1);
+                    } else {
+                        out.putPrefixedUtf8(value);
+                    }
+                };
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.Preparer;
+import tech.ferus.util.sql.api.ReturnResults;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Coalesces identical queries running at the same time into a single execution.
+ *
+ * <p>Two queries are identical if they are run on the same {@link Database},
+ * with the same statement, the same parameter values and the same
+ * {@link ReturnResults} instance. Queries with different (or capturing)
+ * lambdas as their {@link ReturnResults} are therefore never coalesced,
+ * as their results may differ in type. While one is
+ * running, identical ones wait for it and share its result rather than
+ * checking out a connection of their own. If it fails, every one of them
+ * fails with it.</p>
+ *
+ * <p>Coalescing is used by {@link #returnQuery(Database, String, Preparer, ReturnResults)},
+ * or by {@link BasicSql#returnQuery(Database, String, Preparer, ReturnResults)}
+ * for every {@link Database} it has been {@link #enable(Database) enabled}
+ * for. The result is shared between threads as-is, so it should not be
+ * modified.</p>
+ *
+ * <p>The parameter values are found by running the {@link Preparer} against
+ * a recording statement, then replaying them on the real one. Queries
+ * using streams as parameters, and queries made while the thread already
+ * holds a connection of the {@link Database} (such as within
+ * {@link BasicSql#withConnection(Database, tech.ferus.util.sql.api.HandleConnection)}),
+ * are never coalesced.</p>
+ */
+public class SingleFlight {
+
+    /**
+     * The logger for {@link SingleFlight}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SingleFlight.class);
+
+    /**
+     * The {@link Database}s every query of which is coalesced.
+     */
+    private static final Set<Database> ENABLED = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    /**
+     * The queries currently running, by their {@link Key}.
+     */
+    private static final Map<Key, CompletableFuture<Object>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    /**
+     * The number of queries that shared the result of another.
+     */
+    private static final LongAdder COALESCED = new LongAdder();
+
+    /**
+     * The number of queries that were run on behalf of others.
+     */
+    private static final LongAdder EXECUTED = new LongAdder();
+
+    /**
+     * Creates the statements parameter values are recorded with.
+     */
+    private static final Constructor<?> RECORDER;
+
+    static {
+        try {
+            RECORDER = Proxy.getProxyClass(SingleFlight.class.getClassLoader(), PreparedStatement.class)
+                    .getConstructor(InvocationHandler.class);
+        } catch (final NoSuchMethodException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Coalesces every query of a {@link Database} made through {@link BasicSql#returnQuery(Database, String, Preparer, ReturnResults)}.
+     *
+     * @param database the {@link Database} whose queries are coalesced
+     */
+    public static void enable(@Nonnull final Database database) {
+        ENABLED.add(database);
+    }
+
+    /**
+     * Stops coalescing every query of a {@link Database}.
+     *
+     * @param database the {@link Database} whose queries are no longer coalesced
+     */
+    public static void disable(@Nonnull final Database database) {
+        ENABLED.remove(database);
+    }
+
+    /**
+     * Determines whether or not every query of a {@link Database} is coalesced.
+     *
+     * @param database the {@link Database} to check
+     * @return true if its queries are coalesced; false otherwise
+     */
+    public static boolean isEnabled(@Nonnull final Database database) {
+        return !ENABLED.isEmpty() && ENABLED.contains(database);
+    }
+
+    /**
+     * Returns the data gathered from a query, sharing it with identical queries running at the same time.
+     *
+     * @param database the database to execute the query on
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param handle determines which data to return from a {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return the data from a {@link ResultSet} wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> Optional<T> returnQuery(@Nonnull final Database database,
+                                              @Nonnull final String statement,
+                                              @Nonnull final Preparer preparer,
+                                              @Nonnull final ReturnResults<T> handle) {
+        LOGGER.debug("Attempting to query: {}", statement);
+
+        final List<Object[]> calls;
+        try {
+            calls = ConnectionScope.isActive(database) ? null : record(preparer);
+        } catch (final SQLException e) {
+            LOGGER.error("Failed to prepare query: {}", statement, e);
+            return Optional.empty();
+        }
+
+        try {
+            if (calls == null) {
+                return Optional.ofNullable(BasicSql.runQuery(database, statement, preparer, handle));
+            }
+
+            final Key key = new Key(database, statement, calls, handle);
+            final CompletableFuture<Object> flight = new CompletableFuture<>();
+            final CompletableFuture<Object> existing = IN_FLIGHT.putIfAbsent(key, flight);
+
+            if (existing != null) {
+                COALESCED.increment();
+                LOGGER.debug("Sharing result of identical query: {}", statement);
+                final Optional<T> results = Optional.ofNullable((T) existing.get());
+                LOGGER.debug("Finished querying: {}", statement);
+                return results;
+            }
+
+            EXECUTED.increment();
+            try {
+                final T result = BasicSql.runQuery(database, statement, s -> replay(s, calls), handle);
+                flight.complete(result);
+                LOGGER.debug("Finished querying: {}", statement);
+                return Optional.ofNullable(result);
+            } catch (final SQLException | RuntimeException | Error e) {
+                flight.completeExceptionally(e);
+                throw e;
+            } finally {
+                IN_FLIGHT.remove(key, flight);
+            }
+        } catch (final SQLException e) {
+            LOGGER.error("Failed to execute query: {}", statement, e);
+            return Optional.empty();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            LOGGER.error("Failed to execute shared query: {}", statement, cause);
+            return Optional.empty();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.error("Interrupted while waiting for shared query: {}", statement);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Gets the number of queries that shared the result of another, rather than being run.
+     *
+     * @return the number of coalesced queries
+     */
+    public static long getCoalescedCount() {
+        return COALESCED.sum();
+    }
+
+    /**
+     * Gets the number of coalescable queries that were run.
+     *
+     * @return the number of queries run
+     */
+    public static long getExecutedCount() {
+        return EXECUTED.sum();
+    }
+
+    /**
+     * Records the calls a {@link Preparer} makes to a statement.
+     *
+     * @param preparer the {@link Preparer} whose calls are recorded
+     * @return every call, as the {@link Method} followed by its arguments, or null if the calls can't be compared
+     * @throws SQLException if the {@link Preparer} failed
+     */
+    private static List<Object[]> record(@Nonnull final Preparer preparer) throws SQLException {
+        final List<Object[]> calls = new ArrayList<>();
+        final boolean[] comparable = {true};
+
+        final InvocationHandler recorder = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return "RecordingStatement";
+                }
+            }
+
+            if (!method.getName().startsWith("set") || method.getReturnType() != void.class) {
+                throw new UnsupportedOperationException("Only setters may be called while preparing a shared query.");
+            }
+
+            final Object[] call = new Object[(args == null ? 0 : args.length) + 1];
+            call[0] = method;
+            for (int i = 1; i < call.length; ++i) {
+                final Object arg = args[i - 1];
+                if (arg instanceof byte[]) {
+                    call[i] = ByteBuffer.wrap((byte[]) arg);
+                } else if (arg instanceof java.io.InputStream || arg instanceof java.io.Reader
+                        || arg instanceof java.sql.Blob || arg instanceof java.sql.Clob) {
+                    comparable[0] = false;
+                    call[i] = arg;
+                } else {
+                    call[i] = arg;
+                }
+            }
+            calls.add(call);
+            return null;
+        };
+
+        try {
+            preparer.prepare((PreparedStatement) RECORDER.newInstance(recorder));
+        } catch (final ReflectiveOperationException e) {
+            throw new SQLException("Failed to record parameters", e);
+        } catch (final UnsupportedOperationException e) {
+            return null;
+        }
+        return comparable[0] ? calls : null;
+    }
+
+    /**
+     * Replays recorded calls on a statement.
+     *
+     * @param s the statement the calls are replayed on
+     * @param calls the recorded calls
+     * @throws SQLException if a call failed
+     */
+    private static void replay(@Nonnull final PreparedStatement s, @Nonnull final List<Object[]> calls) throws SQLException {
+        for (final Object[] call : calls) {
+            final Object[] args = Arrays.copyOfRange(call, 1, call.length);
+            for (int i = 0; i < args.length; ++i) {
+                if (args[i] instanceof ByteBuffer) {
+                    args[i] = ((ByteBuffer) args[i]).array();
+                }
+            }
+
+            try {
+                ((Method) call[0]).invoke(s, args);
+            } catch (final InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new SQLException("Failed to replay parameter", e.getCause());
+            } catch (final IllegalAccessException e) {
+                throw new SQLException("Failed to replay parameter", e);
+            }
+        }
+    }
+
+    /**
+     * Identifies identical queries.
+     */
+    private static final class Key {
+
+        /**
+         * The {@link Database} the query is run on.
+         */
+        @Nonnull private final Database database;
+
+        /**
+         * The statement being queried.
+         */
+        @Nonnull private final String statement;
+
+        /**
+         * The calls made to set the parameters of the statement.
+         */
+        @Nonnull private final List<List<Object>> calls;
+
+        /**
+         * Determines which data to return from the {@link ResultSet}, compared by identity.
+         */
+        @Nonnull private final ReturnResults<?> handle;
+
+        /**
+         * The hash of this {@link Key}.
+         */
+        private final int hash;
+
+        /**
+         * Constructs a new {@link Key}.
+         *
+         * @param database the {@link Database} the query is run on
+         * @param statement the statement being queried
+         * @param calls the calls made to set the parameters of the statement
+         * @param handle determines which data to return from the {@link ResultSet}
+         */
+        private Key(@Nonnull final Database database,
+                    @Nonnull final String statement,
+                    @Nonnull final List<Object[]> calls,
+                    @Nonnull final ReturnResults<?> handle) {
+            this.database = database;
+            this.statement = statement;
+            this.handle = handle;
+            this.calls = new ArrayList<>(calls.size());
+            for (final Object[] call : calls) {
+                this.calls.add(Arrays.asList(call));
+            }
+            this.hash = 31 * (31 * (31 * System.identityHashCode(database) + statement.hashCode())
+                    + this.calls.hashCode()) + System.identityHashCode(handle);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+            return this.hash == key.hash
+                    && this.database == key.database
+                    && this.handle == key.handle
+                    && this.statement.equals(key.statement)
+                    && this.calls.equals(key.calls);
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Is told when BasicSql operations begin and end, such as to record them.
+ *
+ * <p>Only one {@link SqlListener} is installed at a time, through
+ * {@link SqlTrace#setListener(SqlListener)}. Without one, or while it
+ * isn't {@link #isEnabled(SqlOperation) enabled} for an operation, BasicSql
+ * does no extra work beyond reading a field.</p>
+ *
+ * <p>While a query is traced, the {@link java.sql.ResultSet} handed to its
+ * handler is a reflective proxy counting the rows read, so every call made
+ * on it, such as each {@code getString}, goes through
+ * {@link java.lang.reflect.Method#invoke(Object, Object...)}. Queries reading
+ * many rows are measurably slower while traced, which is worth keeping in
+ * mind before enabling {@link SqlOperation#QUERY} and
+ * {@link SqlOperation#RETURN_QUERY} for every query.</p>
+ */
+public interface SqlListener {
+
+    /**
+     * Determines whether or not an operation should be traced at all.
+     *
+     * <p>Called at the start of every operation, so it should be cheap.</p>
+     *
+     * @param operation the operation about to begin
+     * @return true if the operation should be traced; false otherwise
+     */
+    boolean isEnabled(@Nonnull final SqlOperation operation);
+
+    /**
+     * Called as a traced operation begins.
+     *
+     * @param trace the trace of the operation, with only its operation, protocol and statement known
+     */
+    void begin(@Nonnull final SqlTrace trace);
+
+    /**
+     * Called once a traced operation has ended, successfully or not.
+     *
+     * @param trace the complete trace of the operation
+     */
+    void end(@Nonnull final SqlTrace trace);
+}
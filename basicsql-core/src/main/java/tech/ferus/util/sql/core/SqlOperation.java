@@ -0,0 +1,56 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+/**
+ * The operations of BasicSql a {@link SqlListener} is told about.
+ */
+public enum SqlOperation {
+
+    /**
+     * A statement run by {@link BasicSql#execute(tech.ferus.util.sql.api.Database, String, tech.ferus.util.sql.api.Preparer)}.
+     */
+    EXECUTE,
+
+    /**
+     * A query run by {@link BasicSql#query(tech.ferus.util.sql.api.Database, String, tech.ferus.util.sql.api.Preparer, tech.ferus.util.sql.api.HandleResults)}.
+     */
+    QUERY,
+
+    /**
+     * A query run by {@link BasicSql#returnQuery(tech.ferus.util.sql.api.Database, String, tech.ferus.util.sql.api.Preparer, tech.ferus.util.sql.api.ReturnResults)}.
+     */
+    RETURN_QUERY,
+
+    /**
+     * A connection checked out of the pool of a {@link BasicDatabase}.
+     */
+    CHECKOUT,
+
+    /**
+     * A connection closed, and returned to its pool, by BasicSql.
+     */
+    CLOSE
+}
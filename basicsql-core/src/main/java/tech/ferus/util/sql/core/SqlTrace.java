@@ -0,0 +1,398 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+
+/**
+ * The phases, row count and outcome of a single BasicSql operation, as handed to a {@link SqlListener}.
+ *
+ * <p>An operation runs through up to four phases, each of which is timed:
+ * checking out a connection, preparing and executing the statement,
+ * handling its results, and closing everything. Phases that weren't
+ * reached, or don't apply to the operation, last 0 nanoseconds.</p>
+ */
+public final class SqlTrace {
+
+    /**
+     * The logger for {@link SqlTrace}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqlTrace.class);
+
+    /**
+     * The installed {@link SqlListener}, if any.
+     */
+    @Nullable private static volatile SqlListener listener = null;
+
+    /**
+     * The operation being traced.
+     */
+    @Nonnull private final SqlOperation operation;
+
+    /**
+     * The protocol of the {@link Database} the operation runs on.
+     */
+    @Nonnull private final String protocol;
+
+    /**
+     * The statement the operation runs, or an empty string for connection operations.
+     */
+    @Nonnull private final String statement;
+
+    /**
+     * The {@link SqlListener} that began the trace.
+     */
+    @Nonnull private final SqlListener owner;
+
+    /**
+     * The {@link System#nanoTime()} at which the operation began.
+     */
+    private final long start = System.nanoTime();
+
+    /**
+     * The {@link System#nanoTime()} at which the connection was checked out.
+     */
+    private long checkedOut = 0;
+
+    /**
+     * The {@link System#nanoTime()} at which the statement was executed.
+     */
+    private long executed = 0;
+
+    /**
+     * The {@link System#nanoTime()} at which the results were handled.
+     */
+    private long handled = 0;
+
+    /**
+     * The {@link System#nanoTime()} at which the operation ended.
+     */
+    private long ended = 0;
+
+    /**
+     * The number of rows read or changed, or -1 if unknown.
+     */
+    private long rows = -1;
+
+    /**
+     * Whether or not the operation finished successfully.
+     */
+    private boolean succeeded = false;
+
+    /**
+     * The reason the operation failed, if known.
+     */
+    @Nullable private Throwable failure = null;
+
+    /**
+     * Anything the {@link SqlListener} needs to keep between {@link SqlListener#begin(SqlTrace)} and {@link SqlListener#end(SqlTrace)}.
+     */
+    @Nullable private Object attachment = null;
+
+    /**
+     * Constructs a new {@link SqlTrace}.
+     *
+     * @param operation the operation being traced
+     * @param protocol the protocol of the {@link Database} the operation runs on
+     * @param statement the statement the operation runs
+     * @param owner the {@link SqlListener} that began the trace
+     */
+    private SqlTrace(@Nonnull final SqlOperation operation,
+                     @Nonnull final String protocol,
+                     @Nonnull final String statement,
+                     @Nonnull final SqlListener owner) {
+        this.operation = operation;
+        this.protocol = protocol;
+        this.statement = statement;
+        this.owner = owner;
+    }
+
+    /**
+     * Installs the {@link SqlListener} told about every operation, replacing any other.
+     *
+     * @param listener the {@link SqlListener} to install, or null to remove the current one
+     */
+    public static void setListener(@Nullable final SqlListener listener) {
+        SqlTrace.listener = listener;
+    }
+
+    /**
+     * Gets the installed {@link SqlListener}.
+     *
+     * @return the installed {@link SqlListener}, or null if there isn't one
+     */
+    @Nullable
+    public static SqlListener getListener() {
+        return SqlTrace.listener;
+    }
+
+    /**
+     * Begins tracing an operation, if the installed {@link SqlListener} wants it.
+     *
+     * @param operation the operation beginning
+     * @param database the {@link Database} the operation runs on
+     * @param statement the statement the operation runs
+     * @return the trace, or null if the operation isn't traced
+     */
+    @Nullable
+    static SqlTrace begin(@Nonnull final SqlOperation operation,
+                          @Nonnull final Database database,
+                          @Nonnull final String statement) {
+        final SqlListener listener = SqlTrace.listener;
+        if (listener == null || !listener.isEnabled(operation)) {
+            return null;
+        }
+
+        final SqlTrace trace = new SqlTrace(operation, database.getProtocol(), statement, listener);
+        try {
+            listener.begin(trace);
+        } catch (final RuntimeException e) {
+            LOGGER.error("SqlListener failed to begin trace of: {}", statement, e);
+        }
+        return trace;
+    }
+
+    /**
+     * Marks the end of checking out a connection.
+     */
+    void checkedOut() {
+        this.checkedOut = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of preparing and executing the statement.
+     */
+    void executed() {
+        this.executed = System.nanoTime();
+    }
+
+    /**
+     * Marks the end of handling the results.
+     */
+    void handled() {
+        this.handled = System.nanoTime();
+    }
+
+    /**
+     * Sets the number of rows read or changed.
+     *
+     * @param rows the number of rows
+     */
+    void setRows(final long rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * Marks the operation as having finished successfully.
+     */
+    void succeed() {
+        this.succeeded = true;
+    }
+
+    /**
+     * Marks the operation as having failed.
+     *
+     * @param failure the reason the operation failed
+     */
+    void fail(@Nonnull final Throwable failure) {
+        this.failure = failure;
+    }
+
+    /**
+     * Wraps a {@link ResultSet} so that the rows read through it are counted.
+     *
+     * <p>The handler isn't ours to count rows in, so every call on the
+     * {@link ResultSet} goes through a reflective proxy instead, as noted
+     * on {@link SqlListener}.</p>
+     *
+     * @param r the {@link ResultSet} to be counted
+     * @return the counting {@link ResultSet}
+     */
+    @Nonnull
+    ResultSet count(@Nonnull final ResultSet r) {
+        this.rows = 0;
+        return (ResultSet) Proxy.newProxyInstance(SqlTrace.class.getClassLoader(), new Class<?>[]{ResultSet.class},
+                (proxy, method, args) -> {
+                    try {
+                        final Object result = method.invoke(r, args);
+                        if (Boolean.TRUE.equals(result) && method.getName().equals("next")) {
+                            ++this.rows;
+                        }
+                        return result;
+                    } catch (final InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    /**
+     * Ends the trace and hands it to the {@link SqlListener} that began it.
+     */
+    void end() {
+        this.ended = System.nanoTime();
+        try {
+            this.owner.end(this);
+        } catch (final RuntimeException e) {
+            LOGGER.error("SqlListener failed to end trace of: {}", this.statement, e);
+        }
+    }
+
+    /**
+     * Gets the operation being traced.
+     *
+     * @return the operation being traced
+     */
+    @Nonnull
+    public SqlOperation getOperation() {
+        return this.operation;
+    }
+
+    /**
+     * Gets the protocol of the {@link Database} the operation runs on.
+     *
+     * @return the protocol of the {@link Database}
+     */
+    @Nonnull
+    public String getProtocol() {
+        return this.protocol;
+    }
+
+    /**
+     * Gets the statement the operation runs.
+     *
+     * @return the statement, or an empty string for connection operations
+     */
+    @Nonnull
+    public String getStatement() {
+        return this.statement;
+    }
+
+    /**
+     * Gets the time spent checking out a connection.
+     *
+     * @return the time, in nanoseconds
+     */
+    public long getCheckoutNanos() {
+        return this.checkedOut == 0 ? 0 : this.checkedOut - this.start;
+    }
+
+    /**
+     * Gets the time spent preparing and executing the statement.
+     *
+     * @return the time, in nanoseconds
+     */
+    public long getExecuteNanos() {
+        return this.executed == 0 || this.checkedOut == 0 ? 0 : this.executed - this.checkedOut;
+    }
+
+    /**
+     * Gets the time spent handling the results.
+     *
+     * @return the time, in nanoseconds
+     */
+    public long getHandleNanos() {
+        return this.handled == 0 || this.executed == 0 ? 0 : this.handled - this.executed;
+    }
+
+    /**
+     * Gets the time spent closing everything, after the last phase that was reached.
+     *
+     * @return the time, in nanoseconds
+     */
+    public long getCloseNanos() {
+        if (this.ended == 0) {
+            return 0;
+        }
+        final long last = Math.max(this.start, Math.max(this.checkedOut, Math.max(this.executed, this.handled)));
+        return this.ended - last;
+    }
+
+    /**
+     * Gets the time the whole operation took.
+     *
+     * @return the time, in nanoseconds, or 0 if the operation hasn't ended
+     */
+    public long getDurationNanos() {
+        return this.ended == 0 ? 0 : this.ended - this.start;
+    }
+
+    /**
+     * Gets the number of rows read or changed.
+     *
+     * <p>Rows read are counted as the results are handled, through a proxy
+     * whose overhead is described on {@link SqlListener}.</p>
+     *
+     * @return the number of rows, or -1 if unknown
+     */
+    public long getRows() {
+        return this.rows;
+    }
+
+    /**
+     * Determines whether or not the operation finished successfully.
+     *
+     * @return true if the operation succeeded; false otherwise
+     */
+    public boolean isSuccess() {
+        return this.succeeded && this.failure == null;
+    }
+
+    /**
+     * Gets the reason the operation failed.
+     *
+     * @return the reason the operation failed, or null if it succeeded or the reason isn't known
+     */
+    @Nullable
+    public Throwable getFailure() {
+        return this.failure;
+    }
+
+    /**
+     * Gets what the {@link SqlListener} attached to this trace.
+     *
+     * @return the attachment, or null if there isn't one
+     */
+    @Nullable
+    public Object getAttachment() {
+        return this.attachment;
+    }
+
+    /**
+     * Attaches anything the {@link SqlListener} needs to keep until the trace ends.
+     *
+     * @param attachment the attachment
+     */
+    public void setAttachment(@Nullable final Object attachment) {
+        this.attachment = attachment;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.core;
+
+import tech.ferus.util.sql.api.Database;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Internal helpers for the background threads started by BasicSql.
+ */
+final class Threads {
+
+    private Threads() {}
+
+    /**
+     * Creates a {@link ThreadFactory} for named daemon threads.
+     *
+     * <p>Daemon threads are used so that background work never keeps the JVM alive.</p>
+     *
+     * @param name the prefix of the name of every created thread
+     * @return a {@link ThreadFactory} for named daemon threads
+     */
+    @Nonnull
+    static ThreadFactory daemon(@Nonnull final String name) {
+        final AtomicInteger count = new AtomicInteger();
+
+        return r -> {
+            final Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Creates a bounded {@link ExecutorService} of named daemon threads, for work that blocks on a {@link Database}.
+     *
+     * <p>Work beyond the number of threads is queued, and idle threads are
+     * stopped after a minute.</p>
+     *
+     * @param name the prefix of the name of every created thread
+     * @param threads the most threads running at once
+     * @return a bounded {@link ExecutorService}
+     */
+    @Nonnull
+    static ExecutorService bounded(@Nonnull final String name, final int threads) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(), daemon(name));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Gets the most connections a {@link Database} may have checked out at once.
+     *
+     * <p>More threads than this blocking on the {@link Database} would only
+     * wait for a connection.</p>
+     *
+     * @param database the {@link Database}
+     * @return the maximum size of its pool, or twice the number of processors if unknown
+     */
+    static int poolSize(@Nonnull final Database database) {
+        if (database instanceof BasicDatabase) {
+            return Math.max(1, ((BasicDatabase) database).getDataSource().getMaxPoolSize());
+        }
+        return Runtime.getRuntime().availableProcessors() * 2;
+    }
+}
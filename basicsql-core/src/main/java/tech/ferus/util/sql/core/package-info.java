@@ -27,12 +27,28 @@
  * The core implementation for BasicSql's API.
  *
  * <p>{@link tech.ferus.util.sql.core.BasicDatabase} is the core
- * implementation of {@link tech.ferus.util.sql.api.Database}</p>
+ * implementation of {@link tech.ferus.util.sql.api.Database}, pooling
+ * connections with either c3p0 or the built-in
+ * {@link tech.ferus.util.sql.core.BasicPool}.</p>
  *
  * <p>Utility classes:
  * <ul>
  *     <li>{@link tech.ferus.util.sql.core.BasicSql}</li>
+ *     <li>{@link tech.ferus.util.sql.core.BatchLoader}</li>
+ *     <li>{@link tech.ferus.util.sql.core.CsvImporter}</li>
+ *     <li>{@link tech.ferus.util.sql.core.DatabaseRegistry}</li>
  *     <li>{@link tech.ferus.util.sql.core.DefaultDatabase}</li>
+ *     <li>{@link tech.ferus.util.sql.core.DetachedResult}</li>
+ *     <li>{@link tech.ferus.util.sql.core.ExistenceFilter}</li>
+ *     <li>{@link tech.ferus.util.sql.core.HedgedQuery}</li>
+ *     <li>{@link tech.ferus.util.sql.core.HoldTracker}</li>
+ *     <li>{@link tech.ferus.util.sql.core.Lobs}</li>
+ *     <li>{@link tech.ferus.util.sql.core.NamedStatement}</li>
+ *     <li>{@link tech.ferus.util.sql.core.ParallelScan}</li>
+ *     <li>{@link tech.ferus.util.sql.core.PoolAutosizer}</li>
+ *     <li>{@link tech.ferus.util.sql.core.PriorityDatabase}</li>
+ *     <li>{@link tech.ferus.util.sql.core.ResultExporter}</li>
+ *     <li>{@link tech.ferus.util.sql.core.SingleFlight}</li>
  * </ul>
  */
 package tech.ferus.util.sql.core;
\ No newline at end of file
@@ -99,4 +99,31 @@ public class UsageExamples {
                 r -> r.next() ? r.getInt("age") : -1)
                 .orElse(-1);
     }
+
+    /*
+        Nested calls on the same database reuse the connection of the outer call,
+        so looking something up while handling rows won't need a second connection.
+     */
+    public static void queryNested() {
+        BasicSql.query("SELECT name, team FROM users", h -> {
+            while (h.next()) {
+                final int team = h.getInt("team");
+                final String teamName = BasicSql.returnQuery("SELECT name FROM teams WHERE id=?",
+                        s -> s.setInt(1, team),
+                        r -> r.next() ? r.getString("name") : null)
+                        .orElse("none");
+                // Do something
+            }
+        });
+    }
+
+    /*
+        You can also hold on to one connection for several calls yourself.
+     */
+    public static void executeTogether() {
+        BasicSql.withConnection(c -> {
+            BasicSql.execute("DELETE FROM sessions WHERE expired=TRUE");
+            BasicSql.execute("DELETE FROM tokens WHERE expired=TRUE");
+        });
+    }
 }
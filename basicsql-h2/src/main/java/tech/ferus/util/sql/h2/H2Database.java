@@ -26,6 +26,7 @@ package tech.ferus.util.sql.h2;
 
 import tech.ferus.util.sql.api.Database;
 import tech.ferus.util.sql.core.BasicDatabase;
+import tech.ferus.util.sql.core.PoolType;
 
 import javax.annotation.Nonnull;
 
@@ -49,6 +50,11 @@ public class H2Database extends BasicDatabase {
      */
     private final boolean memory;
 
+    /**
+     * The settings appended to the url of this database.
+     */
+    @Nonnull private H2Profile profile = new H2Profile();
+
     /**
      * Constructs a {@link Database} for H2.
      */
@@ -77,7 +83,18 @@ public class H2Database extends BasicDatabase {
      * @param memory whether or not this database is found in memory
      */
     public H2Database(@Nonnull final String path, final boolean memory) {
-        super("h2");
+        this(path, memory, PoolType.C3P0);
+    }
+
+    /**
+     * Constructs a {@link Database} for H2.
+     *
+     * @param path the data to follow <code>jdbc:h2:</code> or <code>jdbc:h2:mem:</code>
+     * @param memory whether or not this database is found in memory
+     * @param poolType the pool connections are checked out from
+     */
+    public H2Database(@Nonnull final String path, final boolean memory, @Nonnull final PoolType poolType) {
+        super("h2", poolType);
 
         this.path = path;
         this.memory = memory;
@@ -85,6 +102,34 @@ public class H2Database extends BasicDatabase {
         this.configure();
     }
 
+    /**
+     * Constructs a {@link Database} for a named H2 database in memory, kept for as long as the JVM lives.
+     *
+     * <p>Every connection, and every other {@link H2Database} of the same
+     * name, shares the database. It isn't closed when its last connection
+     * is, so it survives the pool closing its connections.</p>
+     *
+     * @param name the name of the database
+     * @return a new {@link H2Database}
+     */
+    @Nonnull
+    public static H2Database shared(@Nonnull final String name) {
+        return shared(name, PoolType.C3P0);
+    }
+
+    /**
+     * Constructs a {@link Database} for a named H2 database in memory, kept for as long as the JVM lives.
+     *
+     * @param name the name of the database
+     * @param poolType the pool connections are checked out from
+     * @return a new {@link H2Database}
+     * @see #shared(String)
+     */
+    @Nonnull
+    public static H2Database shared(@Nonnull final String name, @Nonnull final PoolType poolType) {
+        return new H2Database(name + ";DB_CLOSE_DELAY=-1", true, poolType);
+    }
+
     /**
      * Gets the following part to: <code>jdbc:h2:</code>.
      *
@@ -109,12 +154,35 @@ public class H2Database extends BasicDatabase {
         return this.memory;
     }
 
+    /**
+     * Gets the settings appended to the url of this database.
+     *
+     * @return the settings appended to the url of this database
+     */
+    @Nonnull
+    public H2Profile getProfile() {
+        return this.profile;
+    }
+
+    /**
+     * Appends the settings of a {@link H2Profile} to the url of this database.
+     *
+     * <p>Should be called before the {@link Database} is first used, so that
+     * every connection, and the database itself, is opened with them.</p>
+     *
+     * @param profile the {@link H2Profile} to be applied
+     */
+    public void applyProfile(@Nonnull final H2Profile profile) {
+        this.profile = profile;
+        this.configure();
+    }
+
     @Override
     public void configure() {
         if (this.isMemory()) {
-            this.getDataSource().setJdbcUrl("jdbc:h2:mem:" + this.path);
+            this.getDataSource().setJdbcUrl("jdbc:h2:mem:" + this.path + this.profile.toUrlSettings());
         } else {
-            this.getDataSource().setJdbcUrl("jdbc:h2:" + this.path);
+            this.getDataSource().setJdbcUrl("jdbc:h2:" + this.path + this.profile.toUrlSettings());
         }
     }
 }
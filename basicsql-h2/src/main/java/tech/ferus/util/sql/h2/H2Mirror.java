@@ -0,0 +1,552 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.h2;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.HandleResults;
+import tech.ferus.util.sql.api.Preparer;
+import tech.ferus.util.sql.api.ReturnResults;
+import tech.ferus.util.sql.core.BasicSql;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps copies of tables of a {@link Database} in a local {@link H2Database}, to be read without leaving the process.
+ *
+ * <p>Each mirrored table is copied whole at first, then refreshed by
+ * copying only the rows whose version column, such as an
+ * {@code updated_at} timestamp or a version number, is at least the
+ * highest one seen so far. Rows are merged into the copy by their key.</p>
+ *
+ * <p>Refreshing by version alone doesn't notice deleted rows, or rows
+ * committed with a version lower than one already seen, so the copies may
+ * also be {@link #setFullRefreshEvery(int) fully refreshed} from time to
+ * time.</p>
+ *
+ * <p>Queries run through {@link #returnQuery(String, Preparer, ReturnResults)}
+ * and {@link #query(String, Preparer, HandleResults)} read the copies while
+ * they are fresher than {@link #setMaxStaleness(long, TimeUnit) the bound},
+ * and the source {@link Database} otherwise.</p>
+ */
+public class H2Mirror implements AutoCloseable {
+
+    /**
+     * The logger for {@link H2Mirror}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(H2Mirror.class);
+
+    /**
+     * The number of rows merged into a copy per batch.
+     */
+    private static final int BATCH_SIZE = 500;
+
+    /**
+     * The number of refresh threads started, for naming them.
+     */
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    /**
+     * The {@link Database} tables are copied from.
+     */
+    @Nonnull private final Database source;
+
+    /**
+     * The {@link H2Database} tables are copied to.
+     */
+    @Nonnull private final H2Database local;
+
+    /**
+     * The mirrored tables, by name.
+     */
+    @Nonnull private final Map<String, Table> tables = new ConcurrentHashMap<>();
+
+    /**
+     * Refreshes the copies, once {@link #start(long, TimeUnit) started}.
+     */
+    @Nonnull private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        // Named as core's daemon threads are, which this module can't reach.
+        final Thread thread = new Thread(r, "basicsql-mirror-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * The longest time, in nanoseconds, since the last refresh for the copies to be read.
+     */
+    private volatile long maxStaleness = Long.MAX_VALUE;
+
+    /**
+     * The number of refreshes between full refreshes, or 0 for never.
+     */
+    private volatile int fullRefreshEvery = 0;
+
+    /**
+     * Constructs a new {@link H2Mirror}.
+     *
+     * @param source the {@link Database} tables are copied from
+     * @param local the {@link H2Database} tables are copied to
+     */
+    public H2Mirror(@Nonnull final Database source, @Nonnull final H2Database local) {
+        this.source = source;
+        this.local = local;
+    }
+
+    /**
+     * Copies a table, and keeps it refreshed from now on.
+     *
+     * <p>The copy is created with the same name and columns as the table,
+     * and should only be written to by this {@link H2Mirror}.</p>
+     *
+     * @param table the name of the table
+     * @param key the column, or comma-separated columns, uniquely identifying a row
+     * @param version the column increasing whenever a row is inserted or updated
+     * @return true if the table was copied; false otherwise
+     */
+    public boolean mirror(@Nonnull final String table, @Nonnull final String key, @Nonnull final String version) {
+        final Table mirrored = new Table(table, key, version);
+        if (this.tables.putIfAbsent(table, mirrored) != null) {
+            throw new IllegalArgumentException("Table is already mirrored: " + table);
+        }
+        return this.refresh(mirrored, true);
+    }
+
+    /**
+     * Sets the longest time since the last refresh for the copies to be read instead of the source.
+     *
+     * @param maxStaleness the longest time since the last refresh
+     * @param unit the unit of the time
+     */
+    public void setMaxStaleness(final long maxStaleness, @Nonnull final TimeUnit unit) {
+        this.maxStaleness = unit.toNanos(maxStaleness);
+    }
+
+    /**
+     * Sets how often the copies are fully refreshed, removing rows since deleted.
+     *
+     * @param refreshes the number of refreshes between full refreshes, or 0 for never
+     */
+    public void setFullRefreshEvery(final int refreshes) {
+        this.fullRefreshEvery = Math.max(0, refreshes);
+    }
+
+    /**
+     * Starts refreshing every copy on a background thread.
+     *
+     * @param interval the time between the end of a refresh and the start of the next
+     * @param unit the unit of the time
+     */
+    public void start(final long interval, @Nonnull final TimeUnit unit) {
+        this.scheduler.scheduleWithFixedDelay(this::refreshAll, interval, interval, unit);
+    }
+
+    /**
+     * Refreshes every copy now.
+     *
+     * @return true if every copy was refreshed; false otherwise
+     */
+    public boolean refreshAll() {
+        boolean refreshed = true;
+        for (final Table table : this.tables.values()) {
+            final int every = this.fullRefreshEvery;
+            refreshed &= this.refresh(table, every > 0 && table.refreshes % every == every - 1);
+        }
+        return refreshed;
+    }
+
+    /**
+     * Refreshes the copy of a table now.
+     *
+     * @param table the name of the table
+     * @return true if the copy was refreshed; false otherwise
+     * @throws IllegalArgumentException if the table isn't mirrored
+     */
+    public boolean refresh(@Nonnull final String table) {
+        final Table mirrored = this.tables.get(table);
+        if (mirrored == null) {
+            throw new IllegalArgumentException("Table isn't mirrored: " + table);
+        }
+        return this.refresh(mirrored, false);
+    }
+
+    /**
+     * Copies the rows of a table changed since its last refresh, or every row.
+     *
+     * @param table the table to refresh
+     * @param full whether or not to replace the copy with every row
+     * @return true if the copy was refreshed; false otherwise
+     */
+    private boolean refresh(@Nonnull final Table table, final boolean full) {
+        synchronized (table) {
+            final long start = System.nanoTime();
+            final Object mark = full ? null : table.mark;
+            final String statement = mark == null
+                    ? "SELECT * FROM " + table.name
+                    : "SELECT * FROM " + table.name + " WHERE " + table.version + " >= ?";
+
+            LOGGER.debug("Attempting to refresh mirror of table: {}", table.name);
+            final Optional<Optional<Object>> newMark = BasicSql.returnQuery(this.source, statement, s -> {
+                if (mark != null) {
+                    s.setObject(1, mark);
+                }
+            }, r -> Optional.ofNullable(this.copy(table, r, mark == null)));
+
+            if (!newMark.isPresent()) {
+                return false;
+            }
+
+            newMark.get().ifPresent(m -> table.mark = m);
+            table.lastRefresh = start;
+            ++table.refreshes;
+            LOGGER.debug("Finished refreshing mirror of table: {}", table.name);
+            return true;
+        }
+    }
+
+    /**
+     * Merges rows of a table into its copy, in a single transaction.
+     *
+     * @param table the table being refreshed
+     * @param r the rows to be merged
+     * @param replace whether or not to remove every row of the copy first
+     * @return the highest version merged, or the previous one if no row was
+     * @throws SQLException if the copy couldn't be written
+     */
+    @Nullable
+    private Object copy(@Nonnull final Table table, @Nonnull final ResultSet r, final boolean replace) throws SQLException {
+        final ResultSetMetaData meta = r.getMetaData();
+        final int columns = meta.getColumnCount();
+        Object mark = table.mark;
+
+        try (final Connection c = this.local.getConnection()) {
+            if (table.merge == null) {
+                this.create(c, table, meta);
+            }
+
+            c.setAutoCommit(false);
+            try (final PreparedStatement s = c.prepareStatement(table.merge)) {
+                if (replace) {
+                    try (final Statement delete = c.createStatement()) {
+                        delete.execute("DELETE FROM " + table.name);
+                    }
+                    mark = null;
+                }
+
+                final int versionColumn = r.findColumn(table.version);
+                int pending = 0;
+                while (r.next()) {
+                    for (int i = 1; i <= columns; ++i) {
+                        s.setObject(i, r.getObject(i));
+                    }
+                    s.addBatch();
+                    mark = max(mark, r.getObject(versionColumn));
+
+                    if (++pending == BATCH_SIZE) {
+                        s.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    s.executeBatch();
+                }
+                c.commit();
+            } catch (final SQLException | RuntimeException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+            }
+        }
+        return mark;
+    }
+
+    /**
+     * Creates the copy of a table, if it doesn't exist, and the statement merging rows into it.
+     *
+     * @param c the {@link Connection} to the local {@link H2Database}
+     * @param table the table being copied
+     * @param meta the columns of the table
+     * @throws SQLException if the copy couldn't be created
+     */
+    private void create(@Nonnull final Connection c,
+                        @Nonnull final Table table,
+                        @Nonnull final ResultSetMetaData meta) throws SQLException {
+        final StringBuilder create = new StringBuilder("CREATE TABLE IF NOT EXISTS ").append(table.name).append(" (");
+        final StringBuilder names = new StringBuilder();
+        final StringBuilder values = new StringBuilder();
+
+        for (int i = 1; i <= meta.getColumnCount(); ++i) {
+            if (i > 1) {
+                create.append(", ");
+                names.append(", ");
+                values.append(", ");
+            }
+            create.append(meta.getColumnLabel(i)).append(' ').append(toH2Type(meta, i));
+            names.append(meta.getColumnLabel(i));
+            values.append('?');
+        }
+        create.append(", PRIMARY KEY (").append(table.key).append("))");
+
+        try (final Statement s = c.createStatement()) {
+            s.execute(create.toString());
+            s.execute("CREATE INDEX IF NOT EXISTS " + table.name + "_mirror_version ON " + table.name + " (" + table.version + ")");
+        }
+        table.merge = "MERGE INTO " + table.name + " (" + names + ") KEY (" + table.key + ") VALUES (" + values + ")";
+    }
+
+    /**
+     * Gets the H2 type of a column of another {@link Database}.
+     *
+     * @param meta the columns of a table
+     * @param column the index of the column
+     * @return the H2 type of the column
+     * @throws SQLException if the type of the column couldn't be read
+     */
+    @Nonnull
+    private static String toH2Type(@Nonnull final ResultSetMetaData meta, final int column) throws SQLException {
+        switch (meta.getColumnType(column)) {
+            case Types.BIT:
+            case Types.BOOLEAN:
+                return "BOOLEAN";
+            case Types.TINYINT:
+                return "TINYINT";
+            case Types.SMALLINT:
+                return "SMALLINT";
+            case Types.INTEGER:
+                return "INT";
+            case Types.BIGINT:
+                return "BIGINT";
+            case Types.REAL:
+                return "REAL";
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return "DOUBLE";
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+                return "DECIMAL(" + Math.max(1, meta.getPrecision(column)) + ", " + Math.max(0, meta.getScale(column)) + ")";
+            case Types.DATE:
+                return "DATE";
+            case Types.TIME:
+                return "TIME";
+            case Types.TIMESTAMP:
+                return "TIMESTAMP";
+            case Types.BINARY:
+            case Types.VARBINARY:
+            case Types.LONGVARBINARY:
+                return "VARBINARY";
+            case Types.BLOB:
+                return "BLOB";
+            case Types.CLOB:
+            case Types.NCLOB:
+                return "CLOB";
+            default:
+                return "VARCHAR";
+        }
+    }
+
+    /**
+     * Gets the higher of two versions.
+     *
+     * @param a a version, or null
+     * @param b another version, or null
+     * @return the higher version, or null if both are null
+     */
+    @Nullable
+    @SuppressWarnings("unchecked")
+    private static Object max(@Nullable final Object a, @Nullable final Object b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        return ((Comparable<Object>) b).compareTo(a) > 0 ? b : a;
+    }
+
+    /**
+     * Gets the time since the copy refreshed longest ago was refreshed.
+     *
+     * @return the time, in nanoseconds, or {@link Long#MAX_VALUE} if no table is mirrored or a copy has never been refreshed
+     */
+    public long getStalenessNanos() {
+        if (this.tables.isEmpty()) {
+            return Long.MAX_VALUE;
+        }
+
+        final long now = System.nanoTime();
+        long staleness = 0;
+        for (final Table table : this.tables.values()) {
+            if (table.refreshes == 0) {
+                return Long.MAX_VALUE;
+            }
+            staleness = Math.max(staleness, now - table.lastRefresh);
+        }
+        return staleness;
+    }
+
+    /**
+     * Determines whether or not the copies are fresh enough to be read instead of the source.
+     *
+     * <p>Copies are never fresh while no table is mirrored, or a copy has
+     * never been refreshed, however long the maximum staleness.</p>
+     *
+     * @return true if the copies are fresh enough; false otherwise
+     */
+    public boolean isFresh() {
+        final long staleness = this.getStalenessNanos();
+        return staleness != Long.MAX_VALUE && staleness <= this.maxStaleness;
+    }
+
+    /**
+     * Gets the names of the mirrored tables.
+     *
+     * @return the names of the mirrored tables
+     */
+    @Nonnull
+    public List<String> getTables() {
+        return Collections.unmodifiableList(new ArrayList<>(this.tables.keySet()));
+    }
+
+    /**
+     * Gets the {@link Database} queries are currently sent to.
+     *
+     * @return the local {@link H2Database} if the copies are fresh; the source {@link Database} otherwise
+     */
+    @Nonnull
+    public Database getDatabase() {
+        return this.isFresh() ? this.local : this.source;
+    }
+
+    /**
+     * Executes a query against the mirrored tables.
+     *
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param handle determines what happens with the {@link ResultSet}
+     */
+    public void query(@Nonnull final String statement,
+                      @Nonnull final Preparer preparer,
+                      @Nonnull final HandleResults handle) {
+        BasicSql.query(this.getDatabase(), statement, preparer, handle);
+    }
+
+    /**
+     * Returns the data gathered from a query against the mirrored tables.
+     *
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param handle determines which data to return from a {@link ResultSet}
+     * @param <T> the Type of object being returned
+     * @return the data from a {@link ResultSet} wrapped in an {@link Optional}. {@link Optional#empty()} otherwise.
+     */
+    public <T> Optional<T> returnQuery(@Nonnull final String statement,
+                                       @Nonnull final Preparer preparer,
+                                       @Nonnull final ReturnResults<T> handle) {
+        return BasicSql.returnQuery(this.getDatabase(), statement, preparer, handle);
+    }
+
+    /**
+     * Stops refreshing the copies.
+     *
+     * <p>Neither {@link Database} is closed.</p>
+     */
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+    /**
+     * A mirrored table, and how far its copy has been refreshed.
+     */
+    private static final class Table {
+
+        /**
+         * The name of the table.
+         */
+        @Nonnull private final String name;
+
+        /**
+         * The column, or comma-separated columns, uniquely identifying a row.
+         */
+        @Nonnull private final String key;
+
+        /**
+         * The column increasing whenever a row is inserted or updated.
+         */
+        @Nonnull private final String version;
+
+        /**
+         * The statement merging a row into the copy, once the copy is created.
+         */
+        @Nullable private String merge = null;
+
+        /**
+         * The highest version copied so far.
+         */
+        @Nullable private volatile Object mark = null;
+
+        /**
+         * The {@link System#nanoTime()} at which the last successful refresh started.
+         */
+        private volatile long lastRefresh = 0;
+
+        /**
+         * The number of successful refreshes.
+         */
+        private volatile int refreshes = 0;
+
+        /**
+         * Constructs a new {@link Table}.
+         *
+         * @param name the name of the table
+         * @param key the column, or comma-separated columns, uniquely identifying a row
+         * @param version the column increasing whenever a row is inserted or updated
+         */
+        private Table(@Nonnull final String name, @Nonnull final String key, @Nonnull final String version) {
+            this.name = name;
+            this.key = key;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.h2;
+
+import javax.annotation.Nonnull;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The settings appended to the url of a {@link H2Database}.
+ *
+ * <p>Settings left unset keep H2's defaults. Database-wide settings, such
+ * as the cache size and MVStore settings, only take effect when the
+ * database is opened by its first connection.</p>
+ *
+ * <p>For more information, read "Database URL Overview" at:<br>
+ * http://www.h2database.com/html/features.html</p>
+ */
+public class H2Profile {
+
+    /**
+     * The settings that have been set, in the order they were set.
+     */
+    @Nonnull private final Map<String, String> settings = new LinkedHashMap<>();
+
+    /**
+     * Creates a profile suited to large scans.
+     *
+     * <p>Uses a 64 MiB cache and lazy query execution, so that rows of a
+     * large result are produced as they are read rather than all at once.</p>
+     *
+     * @return a new, scan-friendly {@link H2Profile}
+     */
+    @Nonnull
+    public static H2Profile performance() {
+        return new H2Profile()
+                .setCacheSize(64 * 1024)
+                .setLazyQueryExecution(true);
+    }
+
+    /**
+     * Sets the size of the page cache.
+     *
+     * @param cacheSize the size of the cache, in KiB
+     * @return this {@link H2Profile}
+     */
+    @Nonnull
+    public H2Profile setCacheSize(final int cacheSize) {
+        this.settings.put("CACHE_SIZE", Integer.toString(cacheSize));
+        return this;
+    }
+
+    /**
+     * Sets whether or not queries produce rows as they are read, rather than all at once.
+     *
+     * @param lazy true to produce rows as they are read; false otherwise
+     * @return this {@link H2Profile}
+     */
+    @Nonnull
+    public H2Profile setLazyQueryExecution(final boolean lazy) {
+        this.settings.put("LAZY_QUERY_EXECUTION", lazy ? "TRUE" : "FALSE");
+        return this;
+    }
+
+    /**
+     * Sets how long to wait for a lock before failing.
+     *
+     * @param lockTimeout the time to wait, in milliseconds
+     * @return this {@link H2Profile}
+     */
+    @Nonnull
+    public H2Profile setLockTimeout(final int lockTimeout) {
+        this.settings.put("LOCK_TIMEOUT", Integer.toString(lockTimeout));
+        return this;
+    }
+
+    /**
+     * Sets whether or not the database is stored with the MVStore, rather than the older PageStore.
+     *
+     * @param mvStore true to use the MVStore; false otherwise
+     * @return this {@link H2Profile}
+     */
+    @Nonnull
+    public H2Profile setMvStore(final boolean mvStore) {
+        this.settings.put("MV_STORE", mvStore ? "TRUE" : "FALSE");
+        return this;
+    }
+
+    /**
+     * Sets whether or not the MVStore compresses the pages it writes.
+     *
+     * @param compress true to compress pages; false otherwise
+     * @return this {@link H2Profile}
+     */
+    @Nonnull
+    public H2Profile setCompress(final boolean compress) {
+        this.settings.put("COMPRESS", compress ? "TRUE" : "FALSE");
+        return this;
+    }
+
+    /**
+     * Sets how long the MVStore keeps old versions of pages before reusing their space.
+     *
+     * @param retentionTime the time to keep old versions, in milliseconds
+     * @return this {@link H2Profile}
+     */
+    @Nonnull
+    public H2Profile setRetentionTime(final int retentionTime) {
+        this.settings.put("RETENTION_TIME", Integer.toString(retentionTime));
+        return this;
+    }
+
+    /**
+     * Sets how long changes may wait before they are written to disk.
+     *
+     * @param writeDelay the time changes may wait, in milliseconds
+     * @return this {@link H2Profile}
+     */
+    @Nonnull
+    public H2Profile setWriteDelay(final int writeDelay) {
+        this.settings.put("WRITE_DELAY", Integer.toString(writeDelay));
+        return this;
+    }
+
+    /**
+     * Gets the settings as they are appended to a url.
+     *
+     * @return every setting that has been set, each preceded by <code>;</code>
+     */
+    @Nonnull
+    public String toUrlSettings() {
+        final StringBuilder builder = new StringBuilder();
+        this.settings.forEach((key, value) -> builder.append(';').append(key).append('=').append(value));
+        return builder.toString();
+    }
+}
@@ -24,6 +24,9 @@
  */
 /**
  * {@link tech.ferus.util.sql.h2.H2Database} is the implementation
- * of {@link tech.ferus.util.sql.api.Database} for an H2 database.
+ * of {@link tech.ferus.util.sql.api.Database} for an H2 database, and
+ * {@link tech.ferus.util.sql.h2.H2Profile} tunes its settings.
+ * {@link tech.ferus.util.sql.h2.H2Mirror} keeps local copies of the tables
+ * of another {@link tech.ferus.util.sql.api.Database} in one.
  */
 package tech.ferus.util.sql.h2;
\ No newline at end of file
@@ -0,0 +1,152 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.jfr;
+
+import javax.annotation.Nonnull;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Reduces statements to fingerprints, so that statements which only differ
+ * in their literals or whitespace are recorded the same.
+ */
+final class Fingerprints {
+
+    /**
+     * The most fingerprints kept at once.
+     */
+    private static final int MAX_CACHED = 1024;
+
+    /**
+     * The fingerprints of recent statements.
+     */
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * Hidden constructor, as {@link Fingerprints} is a utility.
+     */
+    private Fingerprints() {}
+
+    /**
+     * Gets the fingerprint of a statement.
+     *
+     * @param statement the statement
+     * @return the fingerprint of the statement
+     */
+    @Nonnull
+    static String of(@Nonnull final String statement) {
+        final String cached = CACHE.get(statement);
+        if (cached != null) {
+            return cached;
+        }
+
+        final String fingerprint = normalize(statement);
+        if (CACHE.size() >= MAX_CACHED) {
+            CACHE.clear();
+        }
+        CACHE.put(statement, fingerprint);
+        return fingerprint;
+    }
+
+    /**
+     * Replaces the string and number literals of a statement with {@code ?} and collapses its whitespace.
+     *
+     * @param statement the statement
+     * @return the normalized statement
+     */
+    @Nonnull
+    static String normalize(@Nonnull final String statement) {
+        final StringBuilder builder = new StringBuilder(statement.length());
+        final int length = statement.length();
+        int i = 0;
+
+        while (i < length) {
+            final char c = statement.charAt(i);
+
+            if (c == '\'') {
+                i = skipQuoted(statement, i);
+                builder.append('?');
+            } else if (Character.isWhitespace(c)) {
+                while (i < length && Character.isWhitespace(statement.charAt(i))) {
+                    ++i;
+                }
+                if (builder.length() > 0 && i < length) {
+                    builder.append(' ');
+                }
+            } else if (Character.isDigit(c) && !isPartOfWord(builder)) {
+                while (i < length && (Character.isLetterOrDigit(statement.charAt(i)) || statement.charAt(i) == '.')) {
+                    ++i;
+                }
+                builder.append('?');
+            } else if (c == '"' || c == '`') {
+                final int end = skipQuoted(statement, i);
+                builder.append(statement, i, end);
+                i = end;
+            } else {
+                builder.append(c);
+                ++i;
+            }
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Skips a quoted literal or identifier, including doubled quotes within it.
+     *
+     * @param statement the statement
+     * @param start the index of the opening quote
+     * @return the index just after the closing quote
+     */
+    private static int skipQuoted(@Nonnull final String statement, final int start) {
+        final char quote = statement.charAt(start);
+        int i = start + 1;
+        while (i < statement.length()) {
+            if (statement.charAt(i) == quote) {
+                if (i + 1 < statement.length() && statement.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            ++i;
+        }
+        return i;
+    }
+
+    /**
+     * Determines whether or not a digit would continue an identifier, like {@code table2}.
+     *
+     * @param builder the fingerprint so far
+     * @return true if the last character written belongs to an identifier; false otherwise
+     */
+    private static boolean isPartOfWord(@Nonnull final StringBuilder builder) {
+        if (builder.length() == 0) {
+            return false;
+        }
+        final char last = builder.charAt(builder.length() - 1);
+        return Character.isLetterOrDigit(last) || last == '_' || last == '$';
+    }
+}
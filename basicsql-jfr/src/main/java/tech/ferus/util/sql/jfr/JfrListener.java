@@ -0,0 +1,175 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.jfr;
+
+import tech.ferus.util.sql.core.SqlListener;
+import tech.ferus.util.sql.core.SqlOperation;
+import tech.ferus.util.sql.core.SqlTrace;
+
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Recording;
+import javax.annotation.Nonnull;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Records BasicSql operations as Java Flight Recorder events.
+ *
+ * <p>Once {@link #install() installed}, each operation is only traced while
+ * its event is enabled in a running recording, so the cost otherwise is a
+ * single check per operation. The threshold and stack traces of each event
+ * are set as with any other event, through a {@code .jfc} file or
+ * {@link Recording#enable(Class)}, by its name:</p>
+ *
+ * <ul>
+ *     <li>{@code tech.ferus.basicsql.Execute}</li>
+ *     <li>{@code tech.ferus.basicsql.Query}</li>
+ *     <li>{@code tech.ferus.basicsql.ReturnQuery}</li>
+ *     <li>{@code tech.ferus.basicsql.Checkout}</li>
+ *     <li>{@code tech.ferus.basicsql.Close}</li>
+ * </ul>
+ */
+public final class JfrListener implements SqlListener {
+
+    /**
+     * The event class of each operation.
+     */
+    private static final Map<SqlOperation, Class<? extends SqlEvent>> EVENTS = new EnumMap<>(SqlOperation.class);
+
+    static {
+        EVENTS.put(SqlOperation.EXECUTE, ExecuteEvent.class);
+        EVENTS.put(SqlOperation.QUERY, QueryEvent.class);
+        EVENTS.put(SqlOperation.RETURN_QUERY, ReturnQueryEvent.class);
+        EVENTS.put(SqlOperation.CHECKOUT, CheckoutEvent.class);
+        EVENTS.put(SqlOperation.CLOSE, CloseEvent.class);
+    }
+
+    /**
+     * The {@link EventType} of each operation, indexed by ordinal.
+     */
+    @Nonnull private final EventType[] types = new EventType[SqlOperation.values().length];
+
+    /**
+     * Constructs a new {@link JfrListener}.
+     */
+    public JfrListener() {
+        for (final Map.Entry<SqlOperation, Class<? extends SqlEvent>> entry : EVENTS.entrySet()) {
+            this.types[entry.getKey().ordinal()] = EventType.getEventType(entry.getValue());
+        }
+    }
+
+    /**
+     * Installs a {@link JfrListener}, replacing any other {@link SqlListener}.
+     */
+    public static void install() {
+        SqlTrace.setListener(new JfrListener());
+    }
+
+    /**
+     * Removes the installed {@link JfrListener}, if it is installed.
+     */
+    public static void uninstall() {
+        if (SqlTrace.getListener() instanceof JfrListener) {
+            SqlTrace.setListener(null);
+        }
+    }
+
+    /**
+     * Enables every BasicSql event in a {@link Recording}, with their default thresholds and stack traces.
+     *
+     * @param recording the {@link Recording} to enable the events in
+     */
+    public static void enableAll(@Nonnull final Recording recording) {
+        for (final Class<? extends SqlEvent> event : EVENTS.values()) {
+            recording.enable(event);
+        }
+    }
+
+    @Override
+    public boolean isEnabled(@Nonnull final SqlOperation operation) {
+        return this.types[operation.ordinal()].isEnabled();
+    }
+
+    @Override
+    public void begin(@Nonnull final SqlTrace trace) {
+        final Event event = create(trace.getOperation());
+        event.begin();
+        trace.setAttachment(event);
+    }
+
+    @Override
+    public void end(@Nonnull final SqlTrace trace) {
+        final SqlEvent event = (SqlEvent) trace.getAttachment();
+        if (event == null) {
+            return;
+        }
+
+        event.end();
+        if (!event.shouldCommit()) {
+            return;
+        }
+
+        event.protocol = trace.getProtocol();
+        event.success = trace.isSuccess();
+        if (trace.getFailure() != null) {
+            event.failure = trace.getFailure().toString();
+        }
+
+        if (event instanceof StatementEvent) {
+            final StatementEvent statement = (StatementEvent) event;
+            statement.fingerprint = Fingerprints.of(trace.getStatement());
+            statement.checkoutTime = trace.getCheckoutNanos();
+            statement.executeTime = trace.getExecuteNanos();
+            statement.handleTime = trace.getHandleNanos();
+            statement.closeTime = trace.getCloseNanos();
+            statement.rows = trace.getRows();
+        }
+
+        event.commit();
+    }
+
+    /**
+     * Creates the event of an operation.
+     *
+     * @param operation the operation
+     * @return the new event
+     */
+    @Nonnull
+    private static SqlEvent create(@Nonnull final SqlOperation operation) {
+        switch (operation) {
+            case EXECUTE:
+                return new ExecuteEvent();
+            case QUERY:
+                return new QueryEvent();
+            case RETURN_QUERY:
+                return new ReturnQueryEvent();
+            case CHECKOUT:
+                return new CheckoutEvent();
+            default:
+                return new CloseEvent();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Timespan;
+
+/**
+ * The fields shared by events of statements and queries.
+ */
+abstract class StatementEvent extends SqlEvent {
+
+    /**
+     * The statement, with its literals replaced by {@code ?}.
+     */
+    @Label("Fingerprint")
+    @Description("The statement, with its literals replaced by ?")
+    String fingerprint;
+
+    /**
+     * The time spent checking out a connection.
+     */
+    @Label("Checkout Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long checkoutTime;
+
+    /**
+     * The time spent preparing and executing the statement.
+     */
+    @Label("Execute Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long executeTime;
+
+    /**
+     * The time spent handling the results.
+     */
+    @Label("Handle Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long handleTime;
+
+    /**
+     * The time spent closing everything.
+     */
+    @Label("Close Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long closeTime;
+
+    /**
+     * The number of rows read or changed, or -1 if unknown.
+     */
+    @Label("Rows")
+    @Description("The number of rows read or changed, or -1 if unknown")
+    long rows;
+}
@@ -0,0 +1,164 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.loadtest;
+
+import tech.ferus.util.sql.core.BasicSql;
+import tech.ferus.util.sql.h2.H2Database;
+import tech.ferus.util.sql.h2.H2Profile;
+
+import javax.annotation.Nonnull;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares full scans of a large table in H2 with its default settings and with {@link H2Profile#performance()}.
+ *
+ * <p>Each scan reads every row of the table. The time to the first row,
+ * the time to the last row, and the heap in use once the first row has
+ * been read are reported, as the lazy execution of the profile mostly
+ * changes how early rows arrive and how many are held at once.</p>
+ *
+ * <p>Options are passed as <code>--name=value</code>:</p>
+ * <ul>
+ *     <li><code>rows</code>: the number of rows in the test table (default 1000000)</li>
+ *     <li><code>scans</code>: the number of scans to average for each setup (default 5)</li>
+ * </ul>
+ */
+public class H2Benchmark {
+
+    /**
+     * The number of rows in the test table.
+     */
+    private final int rows;
+
+    /**
+     * The number of scans to average.
+     */
+    private final int scans;
+
+    /**
+     * Constructs a new {@link H2Benchmark}.
+     *
+     * @param rows the number of rows in the test table
+     * @param scans the number of scans to average
+     */
+    public H2Benchmark(final int rows, final int scans) {
+        this.rows = rows;
+        this.scans = scans;
+    }
+
+    /**
+     * Fills a database, then measures its scans and prints them.
+     *
+     * @param label the name of the setup being measured
+     * @param database the {@link H2Database} being measured
+     * @param out where the results are printed
+     * @throws SQLException if the database couldn't be scanned
+     */
+    public void run(@Nonnull final String label,
+                    @Nonnull final H2Database database,
+                    @Nonnull final PrintStream out) throws SQLException {
+        BasicSql.execute(database, "CREATE TABLE bench (id INT PRIMARY KEY, value VARCHAR(100))");
+        BasicSql.execute(database, "INSERT INTO bench SELECT X, SPACE(100) FROM SYSTEM_RANGE(1, ?)",
+                s -> s.setInt(1, this.rows));
+
+        final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long first = 0;
+        long last = 0;
+        long heap = 0;
+
+        try (final Connection c = database.getConnection()) {
+            for (int i = 0; i < this.scans; ++i) {
+                System.gc();
+                final long before = memory.getHeapMemoryUsage().getUsed();
+                final long start = System.nanoTime();
+
+                long count = 0;
+                try (final Statement s = c.createStatement();
+                     final ResultSet r = s.executeQuery("SELECT * FROM bench")) {
+                    if (r.next()) {
+                        first += System.nanoTime() - start;
+                        heap += Math.max(0, memory.getHeapMemoryUsage().getUsed() - before);
+                        ++count;
+                    }
+                    while (r.next()) {
+                        ++count;
+                    }
+                }
+                last += System.nanoTime() - start;
+
+                if (count != this.rows) {
+                    throw new SQLException("Expected " + this.rows + " rows but scanned " + count);
+                }
+            }
+        }
+
+        out.printf("%-12s first row %9.2fms  all rows %9.2fms  %10.0f rows/s  heap at first row %7.1f MiB%n",
+                label,
+                first / this.scans / 1e6,
+                last / this.scans / 1e6,
+                this.rows / (last / (double) this.scans / 1e9),
+                heap / (double) this.scans / (1024 * 1024));
+
+        BasicSql.execute(database, "DROP TABLE bench");
+        database.close();
+    }
+
+    /**
+     * Runs a {@link H2Benchmark} against every setup from the command line.
+     *
+     * @param args the options, as described by {@link H2Benchmark}
+     * @throws SQLException if a database couldn't be scanned
+     */
+    public static void main(final String[] args) throws SQLException {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0) {
+                throw new IllegalArgumentException("Expected --name=value but found: " + arg);
+            }
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+
+        final H2Benchmark benchmark = new H2Benchmark(
+                Integer.parseInt(options.getOrDefault("rows", "1000000")),
+                Integer.parseInt(options.getOrDefault("scans", "5")));
+
+        System.out.printf("%d rows, %d scans%n", benchmark.rows, benchmark.scans);
+
+        benchmark.run("default", H2Database.shared("basicsql-h2benchmark-default"), System.out);
+
+        final H2Database profiled = H2Database.shared("basicsql-h2benchmark-performance");
+        profiled.applyProfile(H2Profile.performance());
+        benchmark.run("performance", profiled, System.out);
+    }
+}
@@ -0,0 +1,366 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.loadtest;
+
+import tech.ferus.util.sql.core.BasicDatabase;
+import tech.ferus.util.sql.core.BasicPool;
+import tech.ferus.util.sql.core.BasicSql;
+import tech.ferus.util.sql.core.PoolType;
+import tech.ferus.util.sql.h2.H2Database;
+import tech.ferus.util.sql.sqlite.SqliteDatabase;
+
+import com.mchange.v2.c3p0.ComboPooledDataSource;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a mixed read/write workload through {@link BasicSql} and reports latency and pool statistics.
+ *
+ * <p>Options are passed as <code>--name=value</code>:</p>
+ * <ul>
+ *     <li><code>database</code>: <code>h2</code> (default) or <code>sqlite</code></li>
+ *     <li><code>path</code>: the database file; an in-memory H2 database or a temporary SQLite file if absent</li>
+ *     <li><code>threads</code>: the number of threads issuing operations (default 8)</li>
+ *     <li><code>rate</code>: the total operations per second to aim for, or 0 to go as fast as possible (default 0)</li>
+ *     <li><code>reads</code>: the share of operations that are reads, between 0 and 1 (default 0.8)</li>
+ *     <li><code>rows</code>: the number of rows in the test table (default 10000)</li>
+ *     <li><code>pool</code>: the maximum size of the pool (default 10)</li>
+ *     <li><code>pooltype</code>: <code>c3p0</code> (default) or <code>basic</code></li>
+ *     <li><code>duration</code>: the number of seconds to run for (default 60)</li>
+ *     <li><code>interval</code>: the number of seconds between reports (default 5)</li>
+ * </ul>
+ *
+ * <p>When running at a fixed rate, every operation has an intended start
+ * time. Latency is measured from that time rather than from when the
+ * operation actually started, so operations delayed by an earlier slow one
+ * are counted as slow too (correcting for coordinated omission). Service
+ * time, measured from the actual start, is reported alongside.</p>
+ */
+public class LoadTest {
+
+    /**
+     * The highest latency, in nanoseconds, the histograms can record.
+     */
+    private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * The {@link BasicDatabase} under test.
+     */
+    @Nonnull private final BasicDatabase database;
+
+    /**
+     * The number of threads issuing operations.
+     */
+    private final int threads;
+
+    /**
+     * The total operations per second to aim for, or 0 to go as fast as possible.
+     */
+    private final double rate;
+
+    /**
+     * The share of operations that are reads.
+     */
+    private final double reads;
+
+    /**
+     * The number of rows in the test table.
+     */
+    private final int rows;
+
+    /**
+     * The latency of every operation, measured from its intended start.
+     */
+    @Nonnull private final Map<Operation, Recorder> latency = new EnumMap<>(Operation.class);
+
+    /**
+     * The latency of every operation, measured from its actual start.
+     */
+    @Nonnull private final Map<Operation, Recorder> service = new EnumMap<>(Operation.class);
+
+    /**
+     * Whether or not the worker threads should keep going.
+     */
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a new {@link LoadTest}.
+     *
+     * @param database the {@link BasicDatabase} under test
+     * @param threads the number of threads issuing operations
+     * @param rate the total operations per second to aim for, or 0 to go as fast as possible
+     * @param reads the share of operations that are reads
+     * @param rows the number of rows in the test table
+     */
+    public LoadTest(@Nonnull final BasicDatabase database,
+                    final int threads,
+                    final double rate,
+                    final double reads,
+                    final int rows) {
+        this.database = database;
+        this.threads = threads;
+        this.rate = rate;
+        this.reads = reads;
+        this.rows = rows;
+
+        for (final Operation operation : Operation.values()) {
+            this.latency.put(operation, new Recorder(MAX_LATENCY, 3));
+            this.service.put(operation, new Recorder(MAX_LATENCY, 3));
+        }
+    }
+
+    /**
+     * Creates and fills the test table.
+     */
+    public void setUp() {
+        BasicSql.execute(this.database, "DROP TABLE IF EXISTS loadtest");
+        BasicSql.execute(this.database, "CREATE TABLE loadtest (id BIGINT PRIMARY KEY, value VARCHAR(64), counter INT)");
+        BasicSql.withConnection(this.database, c -> {
+            c.setAutoCommit(false);
+            for (int i = 0; i < this.rows; ++i) {
+                final int id = i;
+                BasicSql.execute(this.database, "INSERT INTO loadtest VALUES (?, ?, 0)", s -> {
+                    s.setLong(1, id);
+                    s.setString(2, "value-" + id);
+                });
+            }
+            c.commit();
+            c.setAutoCommit(true);
+        });
+    }
+
+    /**
+     * Runs the workload, printing a report every interval and a summary at the end.
+     *
+     * @param duration the number of seconds to run for
+     * @param interval the number of seconds between reports
+     * @param out the stream to print to
+     * @throws InterruptedException if interrupted while running
+     */
+    public void run(final long duration, final long interval, @Nonnull final PrintStream out)
+            throws InterruptedException {
+        final Thread[] workers = new Thread[this.threads];
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i] = new Thread(this::work, "loadtest-" + i);
+            workers[i].start();
+        }
+
+        final Map<Operation, Histogram> totalLatency = new EnumMap<>(Operation.class);
+        final Map<Operation, Histogram> totalService = new EnumMap<>(Operation.class);
+        for (final Operation operation : Operation.values()) {
+            totalLatency.put(operation, new Histogram(MAX_LATENCY, 3));
+            totalService.put(operation, new Histogram(MAX_LATENCY, 3));
+        }
+
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(duration);
+        long last = start;
+        while (System.nanoTime() < end) {
+            Thread.sleep(Math.min(TimeUnit.SECONDS.toMillis(interval),
+                    Math.max(1, TimeUnit.NANOSECONDS.toMillis(end - System.nanoTime()))));
+
+            final long now = System.nanoTime();
+            out.printf("[%5ds] %s%n", TimeUnit.NANOSECONDS.toSeconds(now - start), this.poolStats());
+            for (final Operation operation : Operation.values()) {
+                final Histogram latency = this.latency.get(operation).getIntervalHistogram();
+                final Histogram service = this.service.get(operation).getIntervalHistogram();
+                totalLatency.get(operation).add(latency);
+                totalService.get(operation).add(service);
+                print(out, operation, latency, service, now - last);
+            }
+            last = now;
+        }
+
+        this.running = false;
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+
+        out.printf("[total ] %s%n", this.poolStats());
+        for (final Operation operation : Operation.values()) {
+            print(out, operation, totalLatency.get(operation), totalService.get(operation), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Issues operations until stopped, at this thread's share of the rate if there is one.
+     */
+    private void work() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final long period = this.rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * this.threads / this.rate) : 0;
+        long intended = System.nanoTime();
+
+        while (this.running) {
+            if (period > 0) {
+                intended += period;
+                final long delay = intended - System.nanoTime();
+                if (delay > 0) {
+                    LockSupport.parkNanos(delay);
+                }
+            }
+
+            final Operation operation = random.nextDouble() < this.reads ? Operation.READ : Operation.WRITE;
+            final long started = System.nanoTime();
+            operation.execute(this.database, this.rows);
+            final long finished = System.nanoTime();
+
+            this.service.get(operation).recordValue(Math.min(MAX_LATENCY, finished - started));
+            this.latency.get(operation).recordValue(Math.min(MAX_LATENCY, finished - (period > 0 ? intended : started)));
+        }
+    }
+
+    /**
+     * Describes the current state of the pool.
+     *
+     * @return the current state of the pool
+     */
+    @Nonnull
+    private String poolStats() {
+        final long checkouts = this.database.getCheckoutCount();
+        final String wait = String.format("checkouts=%d wait avg=%s", checkouts,
+                millis(this.database.getCheckoutWaitNanos() / Math.max(1, checkouts)));
+
+        if (this.database.getPoolType() == PoolType.BASIC) {
+            final BasicPool pool = this.database.getBasicPool();
+            return String.format("pool busy=%d idle=%d total=%d waiting=%d %s",
+                    pool.getActiveConnections(),
+                    pool.getIdleConnections(),
+                    pool.getTotalConnections(),
+                    pool.getWaitingThreads(),
+                    wait);
+        }
+
+        final ComboPooledDataSource pool = this.database.getDataSource();
+        try {
+            return String.format("pool busy=%d idle=%d total=%d waiting=%d %s",
+                    pool.getNumBusyConnectionsDefaultUser(),
+                    pool.getNumIdleConnectionsDefaultUser(),
+                    pool.getNumConnectionsDefaultUser(),
+                    pool.getNumThreadsAwaitingCheckoutDefaultUser(),
+                    wait);
+        } catch (final SQLException e) {
+            return "pool unavailable: " + e.getMessage() + " " + wait;
+        }
+    }
+
+    /**
+     * Prints the throughput and latency percentiles of an operation.
+     *
+     * @param out the stream to print to
+     * @param operation the operation being reported
+     * @param latency the latency measured from intended start
+     * @param service the latency measured from actual start
+     * @param elapsed the time, in nanoseconds, the histograms cover
+     */
+    private static void print(@Nonnull final PrintStream out,
+                              @Nonnull final Operation operation,
+                              @Nonnull final Histogram latency,
+                              @Nonnull final Histogram service,
+                              final long elapsed) {
+        out.printf("  %-5s %9.1f ops/s | latency p50=%s p99=%s p999=%s max=%s | service p50=%s p99=%s p999=%s%n",
+                operation.name().toLowerCase(),
+                latency.getTotalCount() * 1e9 / Math.max(1, elapsed),
+                millis(latency.getValueAtPercentile(50)),
+                millis(latency.getValueAtPercentile(99)),
+                millis(latency.getValueAtPercentile(99.9)),
+                millis(latency.getMaxValue()),
+                millis(service.getValueAtPercentile(50)),
+                millis(service.getValueAtPercentile(99)),
+                millis(service.getValueAtPercentile(99.9)));
+    }
+
+    /**
+     * Formats nanoseconds as milliseconds.
+     *
+     * @param nanos the nanoseconds to be formatted
+     * @return the nanoseconds as milliseconds
+     */
+    @Nonnull
+    private static String millis(final long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+
+    /**
+     * Runs a {@link LoadTest} from the command line.
+     *
+     * @param args the options, as described by {@link LoadTest}
+     * @throws IOException if a temporary database file couldn't be created
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0) {
+                throw new IllegalArgumentException("Expected --name=value but found: " + arg);
+            }
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+
+        final String type = options.getOrDefault("database", "h2");
+        final String path = options.get("path");
+        final PoolType poolType = PoolType.valueOf(options.getOrDefault("pooltype", "c3p0").toUpperCase());
+        final BasicDatabase database;
+        switch (type) {
+            case "h2":
+                database = path == null
+                        ? new H2Database("loadtest;DB_CLOSE_DELAY=-1", true, poolType)
+                        : new H2Database(path, false, poolType);
+                break;
+            case "sqlite":
+                database = new SqliteDatabase(path == null
+                        ? Files.createTempFile("basicsql-loadtest", ".db").toString()
+                        : path, poolType);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown database: " + type);
+        }
+        database.getDataSource().setMaxPoolSize(Integer.parseInt(options.getOrDefault("pool", "10")));
+
+        final LoadTest test = new LoadTest(database,
+                Integer.parseInt(options.getOrDefault("threads", "8")),
+                Double.parseDouble(options.getOrDefault("rate", "0")),
+                Double.parseDouble(options.getOrDefault("reads", "0.8")),
+                Integer.parseInt(options.getOrDefault("rows", "10000")));
+
+        test.setUp();
+        test.run(Long.parseLong(options.getOrDefault("duration", "60")),
+                Long.parseLong(options.getOrDefault("interval", "5")),
+                System.out);
+
+        database.close();
+    }
+}
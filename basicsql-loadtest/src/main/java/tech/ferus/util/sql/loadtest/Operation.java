@@ -0,0 +1,70 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.loadtest;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.core.BasicSql;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The operations a {@link LoadTest} mixes together.
+ */
+public enum Operation {
+
+    /**
+     * Reads a single random row by its key.
+     */
+    READ {
+        @Override
+        void execute(@Nonnull final Database database, final int rows) {
+            final long id = ThreadLocalRandom.current().nextLong(rows);
+            BasicSql.returnQuery(database, "SELECT value, counter FROM loadtest WHERE id=?",
+                    s -> s.setLong(1, id),
+                    r -> r.next() ? r.getInt(2) : null);
+        }
+    },
+
+    /**
+     * Updates a single random row by its key.
+     */
+    WRITE {
+        @Override
+        void execute(@Nonnull final Database database, final int rows) {
+            final long id = ThreadLocalRandom.current().nextLong(rows);
+            BasicSql.execute(database, "UPDATE loadtest SET counter=counter+1 WHERE id=?",
+                    s -> s.setLong(1, id));
+        }
+    };
+
+    /**
+     * Executes this operation once.
+     *
+     * @param database the {@link Database} to execute on
+     * @param rows the number of rows in the test table
+     */
+    abstract void execute(@Nonnull final Database database, final int rows);
+}
@@ -0,0 +1,198 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.loadtest;
+
+import tech.ferus.util.sql.core.BasicDatabase;
+import tech.ferus.util.sql.core.PoolType;
+import tech.ferus.util.sql.h2.H2Database;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import javax.annotation.Nonnull;
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares how quickly connections are checked out of each {@link PoolType} under contention.
+ *
+ * <p>Every thread checks out a connection, optionally runs a trivial query
+ * on it, and returns it, as fast as it can. With more threads than
+ * connections, most of the time measured is spent handing connections from
+ * one thread to another.</p>
+ *
+ * <p>Options are passed as <code>--name=value</code>:</p>
+ * <ul>
+ *     <li><code>threads</code>: the number of threads checking out connections (default 32)</li>
+ *     <li><code>pool</code>: the maximum size of the pool (default 8)</li>
+ *     <li><code>query</code>: whether or not to run <code>SELECT 1</code> on every checkout (default false)</li>
+ *     <li><code>warmup</code>: the number of seconds to run before measuring (default 2)</li>
+ *     <li><code>duration</code>: the number of seconds to measure for (default 10)</li>
+ * </ul>
+ */
+public class PoolBenchmark {
+
+    /**
+     * The highest checkout latency, in nanoseconds, the histograms can record.
+     */
+    private static final long MAX_LATENCY = TimeUnit.MINUTES.toNanos(1);
+
+    /**
+     * The number of threads checking out connections.
+     */
+    private final int threads;
+
+    /**
+     * The maximum size of the pool.
+     */
+    private final int pool;
+
+    /**
+     * Whether or not to run a query on every checkout.
+     */
+    private final boolean query;
+
+    /**
+     * Constructs a new {@link PoolBenchmark}.
+     *
+     * @param threads the number of threads checking out connections
+     * @param pool the maximum size of the pool
+     * @param query whether or not to run a query on every checkout
+     */
+    public PoolBenchmark(final int threads, final int pool, final boolean query) {
+        this.threads = threads;
+        this.pool = pool;
+        this.query = query;
+    }
+
+    /**
+     * Runs the benchmark against a single {@link PoolType} and prints its results.
+     *
+     * @param type the {@link PoolType} being measured
+     * @param warmup the number of seconds to run before measuring
+     * @param duration the number of seconds to measure for
+     * @param out where the results are printed
+     * @throws InterruptedException if interrupted while running
+     */
+    public void run(@Nonnull final PoolType type,
+                    final long warmup,
+                    final long duration,
+                    @Nonnull final PrintStream out) throws InterruptedException {
+        final BasicDatabase database = new H2Database("poolbenchmark;DB_CLOSE_DELAY=-1", true, type);
+        database.getDataSource().setMaxPoolSize(this.pool);
+        database.getDataSource().setMinPoolSize(this.pool);
+        database.getDataSource().setInitialPoolSize(this.pool);
+        database.getDataSource().setCheckoutTimeout((int) TimeUnit.MINUTES.toMillis(1));
+
+        final Recorder recorder = new Recorder(MAX_LATENCY, 3);
+        final AtomicLong failures = new AtomicLong();
+        final List<Thread> workers = new ArrayList<>(this.threads);
+        final AtomicBoolean running = new AtomicBoolean(true);
+
+        for (int i = 0; i < this.threads; ++i) {
+            final Thread worker = new Thread(() -> {
+                while (running.get()) {
+                    final long start = System.nanoTime();
+                    try (final Connection c = database.getConnection()) {
+                        recorder.recordValue(Math.min(MAX_LATENCY, System.nanoTime() - start));
+                        if (this.query) {
+                            try (final Statement s = c.createStatement()) {
+                                s.execute("SELECT 1");
+                            }
+                        }
+                    } catch (final SQLException e) {
+                        failures.incrementAndGet();
+                    }
+                }
+            }, "basicsql-poolbenchmark-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+
+        database.warmUp();
+        workers.forEach(Thread::start);
+        Thread.sleep(TimeUnit.SECONDS.toMillis(warmup));
+
+        recorder.getIntervalHistogram();
+        final long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        final Histogram checkouts = recorder.getIntervalHistogram();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        running.set(false);
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+
+        out.printf("%-6s %12.0f ops/s  p50 %8.2fus  p99 %8.2fus  p99.9 %9.2fus  max %10.2fus  failures %d%n",
+                type,
+                checkouts.getTotalCount() / seconds,
+                checkouts.getValueAtPercentile(50) / 1e3,
+                checkouts.getValueAtPercentile(99) / 1e3,
+                checkouts.getValueAtPercentile(99.9) / 1e3,
+                checkouts.getMaxValue() / 1e3,
+                failures.get());
+
+        database.close();
+    }
+
+    /**
+     * Runs a {@link PoolBenchmark} against every {@link PoolType} from the command line.
+     *
+     * @param args the options, as described by {@link PoolBenchmark}
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(final String[] args) throws InterruptedException {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0) {
+                throw new IllegalArgumentException("Expected --name=value but found: " + arg);
+            }
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+
+        final PoolBenchmark benchmark = new PoolBenchmark(
+                Integer.parseInt(options.getOrDefault("threads", "32")),
+                Integer.parseInt(options.getOrDefault("pool", "8")),
+                Boolean.parseBoolean(options.getOrDefault("query", "false")));
+
+        System.out.printf("%d threads, %d connections%n", benchmark.threads, benchmark.pool);
+        for (final PoolType type : PoolType.values()) {
+            benchmark.run(type,
+                    Long.parseLong(options.getOrDefault("warmup", "2")),
+                    Long.parseLong(options.getOrDefault("duration", "10")),
+                    System.out);
+        }
+    }
+}
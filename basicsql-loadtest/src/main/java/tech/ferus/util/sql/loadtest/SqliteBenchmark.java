@@ -0,0 +1,218 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.loadtest;
+
+import tech.ferus.util.sql.api.BatchPreparer;
+import tech.ferus.util.sql.core.BasicSql;
+import tech.ferus.util.sql.sqlite.SqliteDatabase;
+import tech.ferus.util.sql.sqlite.SqliteProfile;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Compares the read throughput of SQLite with its default settings, with {@link SqliteProfile#performance()}, and in shared memory.
+ *
+ * <p>Every reading thread repeatedly reads a random row by its primary key,
+ * and every writing thread repeatedly updates one, each keeping its own
+ * connection for the whole run so that only the database is measured. Reads
+ * and writes that fail, such as on a locked table, are counted apart rather
+ * than stopping the thread.</p>
+ *
+ * <p>Options are passed as <code>--name=value</code>:</p>
+ * <ul>
+ *     <li><code>threads</code>: the number of reading threads (default 4)</li>
+ *     <li><code>writers</code>: the number of writing threads (default 1)</li>
+ *     <li><code>rows</code>: the number of rows in the test table (default 100000)</li>
+ *     <li><code>duration</code>: the number of seconds to measure each setup for (default 10)</li>
+ * </ul>
+ */
+public class SqliteBenchmark {
+
+    /**
+     * The number of reading threads.
+     */
+    private final int threads;
+
+    /**
+     * The number of writing threads.
+     */
+    private final int writers;
+
+    /**
+     * The number of rows in the test table.
+     */
+    private final int rows;
+
+    /**
+     * Constructs a new {@link SqliteBenchmark}.
+     *
+     * @param threads the number of reading threads
+     * @param writers the number of writing threads
+     * @param rows the number of rows in the test table
+     */
+    public SqliteBenchmark(final int threads, final int writers, final int rows) {
+        this.threads = threads;
+        this.writers = writers;
+        this.rows = rows;
+    }
+
+    /**
+     * Fills a database, then measures its read and write throughput and prints it.
+     *
+     * @param label the name of the setup being measured
+     * @param database the {@link SqliteDatabase} being measured
+     * @param duration the number of seconds to measure for
+     * @param out where the results are printed
+     * @throws InterruptedException if interrupted while running
+     */
+    public void run(@Nonnull final String label,
+                    @Nonnull final SqliteDatabase database,
+                    final long duration,
+                    @Nonnull final PrintStream out) throws InterruptedException {
+        database.getDataSource().setMaxPoolSize(this.threads + this.writers + 1);
+
+        BasicSql.execute(database, "CREATE TABLE IF NOT EXISTS bench (id INTEGER PRIMARY KEY, value TEXT NOT NULL)");
+        final List<Integer> ids = IntStream.range(0, this.rows).boxed().collect(Collectors.toList());
+        BasicSql.insertBatch(database, "INSERT INTO bench (id, value) VALUES (?, ?)", ids,
+                (BatchPreparer<Integer>) (s, id) -> {
+                    s.setInt(1, id);
+                    s.setString(2, "value-" + id + "-" + Long.toHexString(ThreadLocalRandom.current().nextLong()));
+                });
+
+        final LongAdder reads = new LongAdder();
+        final LongAdder writes = new LongAdder();
+        final LongAdder failedReads = new LongAdder();
+        final LongAdder failedWrites = new LongAdder();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final List<Thread> workers = new ArrayList<>(this.threads + this.writers);
+        for (int i = 0; i < this.threads + this.writers; ++i) {
+            final boolean writer = i >= this.threads;
+            final Thread worker = new Thread(() -> {
+                final String statement = writer
+                        ? "UPDATE bench SET value = ? WHERE id = ?"
+                        : "SELECT value FROM bench WHERE id = ?";
+                try (final Connection c = database.getConnection();
+                     final PreparedStatement s = c.prepareStatement(statement)) {
+                    final ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (running.get()) {
+                        try {
+                            if (writer) {
+                                s.setString(1, "value-" + Long.toHexString(random.nextLong()));
+                                s.setInt(2, random.nextInt(this.rows));
+                                s.executeUpdate();
+                                writes.increment();
+                            } else {
+                                s.setInt(1, random.nextInt(this.rows));
+                                try (final ResultSet r = s.executeQuery()) {
+                                    if (r.next()) {
+                                        reads.increment();
+                                    } else {
+                                        failedReads.increment();
+                                    }
+                                }
+                            }
+                        } catch (final SQLException e) {
+                            (writer ? failedWrites : failedReads).increment();
+                        }
+                    }
+                } catch (final SQLException e) {
+                    out.println(label + ": " + e.getMessage());
+                }
+            }, "basicsql-sqlitebenchmark-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+
+        workers.forEach(Thread::start);
+        final long start = System.nanoTime();
+        Thread.sleep(TimeUnit.SECONDS.toMillis(duration));
+        running.set(false);
+        for (final Thread worker : workers) {
+            worker.join();
+        }
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        out.printf("%-12s %12.0f reads/s %10d failed  %10.0f writes/s %10d failed%n",
+                label, reads.sum() / seconds, failedReads.sum(), writes.sum() / seconds, failedWrites.sum());
+        database.close();
+    }
+
+    /**
+     * Runs a {@link SqliteBenchmark} against every setup from the command line.
+     *
+     * @param args the options, as described by {@link SqliteBenchmark}
+     * @throws IOException if a temporary database file couldn't be created
+     * @throws InterruptedException if interrupted while running
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        final Map<String, String> options = new HashMap<>();
+        for (final String arg : args) {
+            final int split = arg.indexOf('=');
+            if (!arg.startsWith("--") || split < 0) {
+                throw new IllegalArgumentException("Expected --name=value but found: " + arg);
+            }
+            options.put(arg.substring(2, split), arg.substring(split + 1));
+        }
+
+        final SqliteBenchmark benchmark = new SqliteBenchmark(
+                Integer.parseInt(options.getOrDefault("threads", "4")),
+                Integer.parseInt(options.getOrDefault("writers", "1")),
+                Integer.parseInt(options.getOrDefault("rows", "100000")));
+        final long duration = Long.parseLong(options.getOrDefault("duration", "10"));
+
+        System.out.printf("%d readers, %d writers, %d rows%n", benchmark.threads, benchmark.writers, benchmark.rows);
+
+        final Path plain = Files.createTempFile("basicsql-sqlitebenchmark", ".db");
+        benchmark.run("default", new SqliteDatabase(plain.toString()), duration, System.out);
+
+        final Path tuned = Files.createTempFile("basicsql-sqlitebenchmark", ".db");
+        final SqliteDatabase profiled = new SqliteDatabase(tuned.toString());
+        profiled.applyProfile(SqliteProfile.performance());
+        benchmark.run("performance", profiled, duration, System.out);
+
+        benchmark.run("shared", SqliteDatabase.shared("basicsql-sqlitebenchmark"), duration, System.out);
+
+        Files.deleteIfExists(plain);
+        Files.deleteIfExists(tuned);
+    }
+}
@@ -26,6 +26,7 @@ package tech.ferus.util.sql.maria;
 
 import tech.ferus.util.sql.api.Database;
 import tech.ferus.util.sql.core.BasicDatabase;
+import tech.ferus.util.sql.core.PoolType;
 
 import javax.annotation.Nonnull;
 
@@ -73,7 +74,26 @@ public class MariaDatabase extends BasicDatabase {
                          @Nonnull final String database,
                          @Nonnull final String username,
                          @Nonnull final String password) {
-        super("mariadb");
+        this(host, port, database, username, password, PoolType.C3P0);
+    }
+
+    /**
+     * Constructs a {@link Database} for MariaDB.
+     *
+     * @param host the location of the remote/local host of this database
+     * @param port the port used to connect to this database
+     * @param database the name of the database that you're connecting to
+     * @param username the username of the database that you're connecting to
+     * @param password the password for the user of the database that you're connecting to
+     * @param poolType the pool connections are checked out from
+     */
+    public MariaDatabase(@Nonnull final String host,
+                         final int port,
+                         @Nonnull final String database,
+                         @Nonnull final String username,
+                         @Nonnull final String password,
+                         @Nonnull final PoolType poolType) {
+        super("mariadb", poolType);
 
         this.host = host;
         this.port = port;
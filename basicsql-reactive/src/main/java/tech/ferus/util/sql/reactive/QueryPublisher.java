@@ -0,0 +1,355 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.reactive;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.Preparer;
+import tech.ferus.util.sql.api.RowMapper;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Publisher} of the rows of a query.
+ *
+ * <p>Every {@link Subscriber} runs the query separately. Nothing is queried
+ * until the first row is requested, and rows are only read from the
+ * {@link ResultSet} as they are requested, so results larger than memory can
+ * be streamed as long as the driver doesn't buffer them itself (MySQL, for
+ * instance, only streams with a fetch size of {@link Integer#MIN_VALUE}).</p>
+ *
+ * <p>All JDBC work happens on the given {@link Executor}, never on the
+ * subscriber's thread. The {@link Connection} is held from the first request
+ * until the last row has been delivered, an error occurs or the subscription
+ * is cancelled. Cancelling also cancels a statement that is still running.</p>
+ *
+ * @param <T> the Type of object each row is shaped into
+ */
+public class QueryPublisher<T> implements Publisher<T> {
+
+    /**
+     * The logger for {@link QueryPublisher}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(QueryPublisher.class);
+
+    /**
+     * The {@link Database} to execute the query on.
+     */
+    @Nonnull private final Database database;
+
+    /**
+     * The statement to be queried.
+     */
+    @Nonnull private final String statement;
+
+    /**
+     * The {@link Preparer} to set the data in the statement.
+     */
+    @Nonnull private final Preparer preparer;
+
+    /**
+     * Shapes every row into an object.
+     */
+    @Nonnull private final RowMapper<T> mapper;
+
+    /**
+     * Runs the JDBC work of every subscription.
+     */
+    @Nonnull private final Executor executor;
+
+    /**
+     * Constructs a new {@link QueryPublisher}.
+     *
+     * @param database the {@link Database} to execute the query on
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param mapper shapes every row into an object
+     * @param executor runs the JDBC work of every subscription
+     */
+    public QueryPublisher(@Nonnull final Database database,
+                          @Nonnull final String statement,
+                          @Nonnull final Preparer preparer,
+                          @Nonnull final RowMapper<T> mapper,
+                          @Nonnull final Executor executor) {
+        this.database = database;
+        this.statement = statement;
+        this.preparer = preparer;
+        this.mapper = mapper;
+        this.executor = executor;
+    }
+
+    @Override
+    public void subscribe(final Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("Subscriber may not be null.");
+        }
+
+        subscriber.onSubscribe(new QuerySubscription(subscriber));
+    }
+
+    /**
+     * The state of a single {@link Subscriber}'s query.
+     */
+    private final class QuerySubscription implements Subscription {
+
+        /**
+         * The {@link Subscriber} rows are delivered to.
+         */
+        @Nonnull private final Subscriber<? super T> subscriber;
+
+        /**
+         * The number of rows requested but not yet delivered.
+         */
+        @Nonnull private final AtomicLong demand = new AtomicLong();
+
+        /**
+         * The number of times work has been scheduled but not yet done.
+         */
+        @Nonnull private final AtomicInteger pending = new AtomicInteger();
+
+        /**
+         * Whether or not the subscription has been cancelled.
+         */
+        private volatile boolean cancelled = false;
+
+        /**
+         * The error caused by an invalid request, to be signalled from the {@link Executor}.
+         */
+        @Nullable private volatile IllegalArgumentException invalid = null;
+
+        /**
+         * The statement, once it is being executed, so that it can be cancelled from any thread.
+         */
+        @Nullable private volatile PreparedStatement running = null;
+
+        /**
+         * Whether or not a terminal signal has been sent, or the subscription has been cleaned up.
+         *
+         * <p>Only accessed from the {@link Executor}, one task at a time.</p>
+         */
+        private boolean done = false;
+
+        /**
+         * The {@link Connection}, once opened.
+         */
+        @Nullable private Connection connection = null;
+
+        /**
+         * The statement, once prepared.
+         */
+        @Nullable private PreparedStatement prepared = null;
+
+        /**
+         * The {@link ResultSet}, once queried.
+         */
+        @Nullable private ResultSet results = null;
+
+        /**
+         * Constructs a new {@link QuerySubscription}.
+         *
+         * @param subscriber the {@link Subscriber} rows are delivered to
+         */
+        private QuerySubscription(@Nonnull final Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(final long n) {
+            if (n <= 0) {
+                this.invalid = new IllegalArgumentException("Requested " + n + " rows, but must be positive.");
+                this.schedule();
+                return;
+            }
+
+            long current;
+            long next;
+            do {
+                current = this.demand.get();
+                next = current + n < 0 ? Long.MAX_VALUE : current + n;
+            } while (!this.demand.compareAndSet(current, next));
+
+            this.schedule();
+        }
+
+        @Override
+        public void cancel() {
+            if (this.cancelled) {
+                return;
+            }
+            this.cancelled = true;
+
+            final PreparedStatement running = this.running;
+            if (running != null) try {
+                running.cancel();
+            } catch (final SQLException e) {
+                LOGGER.debug("Failed to cancel statement: {}", QueryPublisher.this.statement, e);
+            }
+
+            this.schedule();
+        }
+
+        /**
+         * Schedules the work of this subscription, unless it is already scheduled.
+         */
+        private void schedule() {
+            if (this.pending.getAndIncrement() != 0) {
+                return;
+            }
+
+            try {
+                QueryPublisher.this.executor.execute(this::drain);
+            } catch (final RejectedExecutionException e) {
+                this.pending.set(0);
+                if (!this.cancelled) {
+                    this.cancelled = true;
+                    this.subscriber.onError(e);
+                }
+            }
+        }
+
+        /**
+         * Does the work of this subscription until no more has been scheduled.
+         */
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!this.done) {
+                    this.emit();
+                }
+                missed = this.pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /**
+         * Delivers as many rows as have been requested, opening the query first if needed.
+         */
+        private void emit() {
+            final QueryPublisher<T> publisher = QueryPublisher.this;
+
+            try {
+                final IllegalArgumentException invalid = this.invalid;
+                if (invalid != null && !this.cancelled) {
+                    this.close();
+                    this.subscriber.onError(invalid);
+                    return;
+                }
+
+                if (this.cancelled) {
+                    this.close();
+                    return;
+                }
+
+                if (this.results == null) {
+                    LOGGER.debug("Attempting to query: {}", publisher.statement);
+                    this.connection = publisher.database.getConnection();
+                    this.prepared = this.connection.prepareStatement(publisher.statement);
+                    publisher.preparer.prepare(this.prepared);
+                    this.running = this.prepared;
+                    this.results = this.prepared.executeQuery();
+                }
+
+                final long requested = this.demand.get();
+                long emitted = 0;
+                while (emitted != requested) {
+                    if (this.cancelled) {
+                        this.close();
+                        return;
+                    }
+
+                    if (!this.results.next()) {
+                        this.close();
+                        LOGGER.debug("Finished querying: {}", publisher.statement);
+                        this.subscriber.onComplete();
+                        return;
+                    }
+
+                    final T value = publisher.mapper.map(this.results);
+                    if (value == null) {
+                        throw new NullPointerException("RowMapper returned null for statement: " + publisher.statement);
+                    }
+
+                    this.subscriber.onNext(value);
+                    ++emitted;
+                }
+
+                if (requested != Long.MAX_VALUE) {
+                    this.demand.addAndGet(-emitted);
+                }
+            } catch (final SQLException | RuntimeException e) {
+                final boolean cancelled = this.cancelled;
+                this.close();
+
+                if (!cancelled) {
+                    LOGGER.error("Failed to execute query: {}", publisher.statement, e);
+                    this.subscriber.onError(e);
+                }
+            }
+        }
+
+        /**
+         * Closes any open objects, and stops any further work.
+         */
+        private void close() {
+            this.done = true;
+            this.cancelled = true;
+            this.running = null;
+
+            if (this.results != null) try {
+                this.results.close();
+            } catch (final SQLException e) {
+                LOGGER.error("Failed to close ResultSet for statement: {}", QueryPublisher.this.statement);
+            }
+
+            if (this.prepared != null) try {
+                this.prepared.close();
+            } catch (final SQLException e) {
+                LOGGER.error("Failed to close Statement for statement: {}", QueryPublisher.this.statement);
+            }
+
+            if (this.connection != null) try {
+                this.connection.close();
+            } catch (final SQLException e) {
+                LOGGER.error("Failed to close Connection for statement: {}", QueryPublisher.this.statement);
+            }
+
+            this.results = null;
+            this.prepared = null;
+            this.connection = null;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.reactive;
+
+import tech.ferus.util.sql.api.Database;
+import tech.ferus.util.sql.api.Preparer;
+import tech.ferus.util.sql.api.RowMapper;
+import tech.ferus.util.sql.core.DefaultDatabase;
+
+import org.reactivestreams.Publisher;
+import javax.annotation.Nonnull;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A utility class for querying through Reactive Streams.
+ *
+ * <p>Unless another {@link java.util.concurrent.Executor} is given, all JDBC
+ * work is done on a shared scheduler with a fixed number of daemon threads
+ * (twice the number of processors), so blocking calls never run on the
+ * threads of a reactive stack.</p>
+ */
+public final class ReactiveSql {
+
+    /**
+     * The scheduler shared by every query that isn't given its own.
+     */
+    private static final ExecutorService SCHEDULER = newScheduler(Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Creates a {@link Publisher} of the rows of a query.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param statement the statement to be queried
+     * @param mapper shapes every row into an object
+     * @param <T> the Type of object each row is shaped into
+     * @return a {@link Publisher} of the rows of the query
+     */
+    public static <T> Publisher<T> query(@Nonnull final String statement,
+                                         @Nonnull final RowMapper<T> mapper) {
+        return query(DefaultDatabase.getDatabase(), statement, s -> {}, mapper);
+    }
+
+    /**
+     * Creates a {@link Publisher} of the rows of a query.
+     *
+     * <p>Uses the default {@link Database}.</p>
+     *
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param mapper shapes every row into an object
+     * @param <T> the Type of object each row is shaped into
+     * @return a {@link Publisher} of the rows of the query
+     */
+    public static <T> Publisher<T> query(@Nonnull final String statement,
+                                         @Nonnull final Preparer preparer,
+                                         @Nonnull final RowMapper<T> mapper) {
+        return query(DefaultDatabase.getDatabase(), statement, preparer, mapper);
+    }
+
+    /**
+     * Creates a {@link Publisher} of the rows of a query.
+     *
+     * @param database the {@link Database} to execute the query on
+     * @param statement the statement to be queried
+     * @param mapper shapes every row into an object
+     * @param <T> the Type of object each row is shaped into
+     * @return a {@link Publisher} of the rows of the query
+     */
+    public static <T> Publisher<T> query(@Nonnull final Database database,
+                                         @Nonnull final String statement,
+                                         @Nonnull final RowMapper<T> mapper) {
+        return query(database, statement, s -> {}, mapper);
+    }
+
+    /**
+     * Creates a {@link Publisher} of the rows of a query.
+     *
+     * @param database the {@link Database} to execute the query on
+     * @param statement the statement to be queried
+     * @param preparer the {@link Preparer} to set the data in the statement
+     * @param mapper shapes every row into an object
+     * @param <T> the Type of object each row is shaped into
+     * @return a {@link Publisher} of the rows of the query
+     */
+    public static <T> Publisher<T> query(@Nonnull final Database database,
+                                         @Nonnull final String statement,
+                                         @Nonnull final Preparer preparer,
+                                         @Nonnull final RowMapper<T> mapper) {
+        return new QueryPublisher<>(database, statement, preparer, mapper, SCHEDULER);
+    }
+
+    /**
+     * Creates a scheduler suitable for {@link QueryPublisher}s.
+     *
+     * <p>The scheduler has a fixed number of daemon threads, and queues any work beyond that.</p>
+     *
+     * @param threads the number of threads
+     * @return a new scheduler
+     */
+    @Nonnull
+    public static ExecutorService newScheduler(final int threads) {
+        final AtomicInteger count = new AtomicInteger();
+
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+            final Thread thread = new Thread(r, "basicsql-reactive-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -26,19 +26,46 @@ package tech.ferus.util.sql.sqlite;
 
 import tech.ferus.util.sql.api.Database;
 import tech.ferus.util.sql.core.BasicDatabase;
+import tech.ferus.util.sql.core.PoolType;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
 
 /**
  * The {@link Database} implementation for SQLite.
+ *
+ * <p>{@link #SqliteDatabase()} gives every pooled connection its own,
+ * private in-memory database. To share one in-memory database between every
+ * connection, use {@link #shared(String)}.</p>
  */
 public class SqliteDatabase extends BasicDatabase {
 
+    /**
+     * The logger for {@link SqliteDatabase}.
+     */
+    private static final Logger LOGGER = LoggerFactory.getLogger(SqliteDatabase.class);
+
     /**
      * The following part to: <code>jdbc:sqlite:</code>.
      */
     @Nonnull private final String path;
 
+    /**
+     * The name of the shared in-memory database, if this is one.
+     */
+    @Nullable private final String sharedName;
+
+    /**
+     * The connection keeping a shared in-memory database alive, once opened.
+     */
+    @Nullable private volatile Connection anchor = null;
+
     /**
      * Constructs a {@link Database} for SQLite.
      */
@@ -52,20 +79,155 @@ public class SqliteDatabase extends BasicDatabase {
      * @param path the data to follow <code>jdbc:sqlite:</code>
      */
     public SqliteDatabase(@Nonnull final String path) {
-        super("sqlite");
+        this(path, PoolType.C3P0);
+    }
+
+    /**
+     * Constructs a {@link Database} for SQLite.
+     *
+     * @param path the data to follow <code>jdbc:sqlite:</code>
+     * @param poolType the pool connections are checked out from
+     */
+    public SqliteDatabase(@Nonnull final String path, @Nonnull final PoolType poolType) {
+        this(path, null, poolType);
+    }
+
+    /**
+     * Constructs a {@link Database} for SQLite.
+     *
+     * @param path the data to follow <code>jdbc:sqlite:</code>
+     * @param sharedName the name of the shared in-memory database, if this is one
+     * @param poolType the pool connections are checked out from
+     */
+    private SqliteDatabase(@Nonnull final String path, @Nullable final String sharedName, @Nonnull final PoolType poolType) {
+        super("sqlite", poolType);
 
         this.path = path;
+        this.sharedName = sharedName;
 
         this.configure();
     }
 
+    /**
+     * Constructs a {@link Database} for a named SQLite database in memory, shared by every connection.
+     *
+     * <p>The database is created by the first connection and kept alive by
+     * a connection held by this {@link SqliteDatabase}, so that it survives
+     * the pool closing its connections. Connections share a page cache and
+     * lock tables rather than the whole database. A connection finding a
+     * table locked fails at once with <code>SQLITE_LOCKED_SHAREDCACHE</code>
+     * ("database table is locked") rather than waiting, as
+     * <code>busy_timeout</code> doesn't apply to it, so
+     * {@link SqliteProfile#setReadUncommitted(boolean) read_uncommitted} is
+     * turned on for every connection: reads take no locks, and so neither
+     * fail nor block writers, but may see rows written by transactions that
+     * are not yet committed. Writes to a table while another connection's
+     * transaction has written to it still fail, so long transactions
+     * writing to the same tables should be avoided.</p>
+     *
+     * @param name the name of the database; other {@link SqliteDatabase}s of the same name share it
+     * @return a new {@link SqliteDatabase}
+     */
+    @Nonnull
+    public static SqliteDatabase shared(@Nonnull final String name) {
+        return shared(name, PoolType.C3P0);
+    }
+
+    /**
+     * Constructs a {@link Database} for a named SQLite database in memory, shared by every connection.
+     *
+     * @param name the name of the database; other {@link SqliteDatabase}s of the same name share it
+     * @param poolType the pool connections are checked out from
+     * @return a new {@link SqliteDatabase}
+     * @see #shared(String)
+     */
+    @Nonnull
+    public static SqliteDatabase shared(@Nonnull final String name, @Nonnull final PoolType poolType) {
+        final SqliteDatabase database = new SqliteDatabase("file:" + name + "?mode=memory&cache=shared", name, poolType);
+        database.applyProfile(new SqliteProfile().setReadUncommitted(true));
+        return database;
+    }
+
     /**
      * Determines whether or not the {@link Database} is to be found in memory.
      *
      * @return true if the {@link Database} is found in memory; false otherwise
      */
     public boolean isMemory() {
-        return this.path.isEmpty();
+        return this.path.isEmpty() || this.sharedName != null;
+    }
+
+    /**
+     * Determines whether or not the {@link Database} is in memory and shared by every connection.
+     *
+     * @return true if the {@link Database} is a shared in-memory database; false otherwise
+     */
+    public boolean isShared() {
+        return this.sharedName != null;
+    }
+
+    /**
+     * Applies a {@link SqliteProfile} to every connection opened from now on.
+     *
+     * <p>Should be called before the {@link Database} is first used, so that
+     * every connection, and the page size of a new database, is covered.</p>
+     *
+     * @param profile the {@link SqliteProfile} to be applied
+     */
+    public void applyProfile(@Nonnull final SqliteProfile profile) {
+        profile.getPragmas().forEach(this::addInitStatement);
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (this.sharedName != null && this.anchor == null && !this.isClosed()) {
+            this.openAnchor();
+        }
+        return super.getConnection();
+    }
+
+    /**
+     * Opens the connection keeping a shared in-memory database alive, if it isn't already open.
+     *
+     * @throws SQLException if the connection couldn't be opened
+     */
+    private synchronized void openAnchor() throws SQLException {
+        if (this.anchor != null || this.isClosed()) {
+            return;
+        }
+
+        final Connection anchor = DriverManager.getConnection(this.getDataSource().getJdbcUrl());
+        try (final Statement s = anchor.createStatement()) {
+            for (final String statement : this.getInitStatements()) {
+                s.execute(statement);
+            }
+        } catch (final SQLException e) {
+            anchor.close();
+            throw e;
+        }
+        this.anchor = anchor;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>A shared in-memory database is discarded once closed.</p>
+     */
+    @Override
+    public void close() {
+        super.close();
+
+        synchronized (this) {
+            final Connection anchor = this.anchor;
+            if (anchor != null) {
+                this.anchor = null;
+                try {
+                    anchor.close();
+                } catch (final SQLException e) {
+                    LOGGER.error("Failed to close shared in-memory database: {}", this.sharedName, e);
+                }
+            }
+        }
     }
 
     /**
@@ -80,7 +242,7 @@ public class SqliteDatabase extends BasicDatabase {
 
     @Override
     public void configure() {
-        if (this.isMemory()) {
+        if (this.path.isEmpty()) {
             this.getDataSource().setJdbcUrl("jdbc:sqlite::memory:");
         } else {
             this.getDataSource().setJdbcUrl("jdbc:sqlite:" + this.path);
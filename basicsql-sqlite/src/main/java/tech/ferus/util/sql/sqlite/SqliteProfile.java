@@ -0,0 +1,198 @@
+/*
+ * This file is part of BasicSql, licensed under the MIT License (MIT).
+ *
+ * Copyright (c) FerusTech LLC <https://ferus.tech>
+ * Copyright (c) contributors
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package tech.ferus.util.sql.sqlite;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The storage settings applied to every new connection of a {@link SqliteDatabase}.
+ *
+ * <p>Settings left unset keep SQLite's defaults. The page size only takes
+ * effect on a database that is still empty (or after a <code>VACUUM</code>).</p>
+ *
+ * <p>For more information, read "Pragma statements supported by SQLite" at:<br>
+ * https://www.sqlite.org/pragma.html</p>
+ */
+public class SqliteProfile {
+
+    /**
+     * Where SQLite keeps temporary tables and indices.
+     */
+    public enum TempStore {
+
+        /**
+         * As chosen when SQLite was compiled.
+         */
+        DEFAULT,
+
+        /**
+         * In temporary files.
+         */
+        FILE,
+
+        /**
+         * In memory.
+         */
+        MEMORY
+    }
+
+    /**
+     * The number of bytes of the database file to memory-map.
+     */
+    @Nullable private Long mmapSize = null;
+
+    /**
+     * The size of the page cache; pages if positive, KiB if negative.
+     */
+    @Nullable private Integer cacheSize = null;
+
+    /**
+     * The size, in bytes, of a database page.
+     */
+    @Nullable private Integer pageSize = null;
+
+    /**
+     * Where temporary tables and indices are kept.
+     */
+    @Nullable private TempStore tempStore = null;
+
+    /**
+     * Whether or not connections sharing a cache read without locking tables.
+     */
+    @Nullable private Boolean readUncommitted = null;
+
+    /**
+     * Creates a profile suited to read-heavy workloads.
+     *
+     * <p>Memory-maps up to 256 MiB of the database, keeps a 64 MiB page
+     * cache per connection, uses 4 KiB pages and keeps temporary tables in
+     * memory.</p>
+     *
+     * @return a new, read-heavy {@link SqliteProfile}
+     */
+    @Nonnull
+    public static SqliteProfile performance() {
+        return new SqliteProfile()
+                .setMmapSize(256L * 1024 * 1024)
+                .setCacheSize(-64 * 1024)
+                .setPageSize(4096)
+                .setTempStore(TempStore.MEMORY);
+    }
+
+    /**
+     * Sets the number of bytes of the database file to memory-map.
+     *
+     * @param mmapSize the number of bytes, or 0 to disable memory-mapping
+     * @return this {@link SqliteProfile}
+     */
+    @Nonnull
+    public SqliteProfile setMmapSize(final long mmapSize) {
+        this.mmapSize = mmapSize;
+        return this;
+    }
+
+    /**
+     * Sets the size of the page cache of every connection.
+     *
+     * @param cacheSize the number of pages if positive, or the number of KiB if negative
+     * @return this {@link SqliteProfile}
+     */
+    @Nonnull
+    public SqliteProfile setCacheSize(final int cacheSize) {
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    /**
+     * Sets the size of a database page.
+     *
+     * @param pageSize the size, in bytes, of a page; a power of two between 512 and 65536
+     * @return this {@link SqliteProfile}
+     */
+    @Nonnull
+    public SqliteProfile setPageSize(final int pageSize) {
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Sets where temporary tables and indices are kept.
+     *
+     * @param tempStore where temporary tables and indices are kept
+     * @return this {@link SqliteProfile}
+     */
+    @Nonnull
+    public SqliteProfile setTempStore(@Nonnull final TempStore tempStore) {
+        this.tempStore = tempStore;
+        return this;
+    }
+
+    /**
+     * Sets whether or not connections sharing a cache read without locking tables.
+     *
+     * <p>Only affects shared in-memory databases, whose connections
+     * otherwise fail at once, rather than wait, when a table they read or
+     * write is locked by another connection. Reading without locks means
+     * that readers may see rows written by transactions that are not yet
+     * committed, and may be rolled back.</p>
+     *
+     * @param readUncommitted true to read without locking tables
+     * @return this {@link SqliteProfile}
+     */
+    @Nonnull
+    public SqliteProfile setReadUncommitted(final boolean readUncommitted) {
+        this.readUncommitted = readUncommitted;
+        return this;
+    }
+
+    /**
+     * Gets the statements applying this profile to a connection.
+     *
+     * @return the <code>PRAGMA</code> statements for every setting that has been set
+     */
+    @Nonnull
+    public List<String> getPragmas() {
+        final List<String> pragmas = new ArrayList<>(5);
+        if (this.pageSize != null) {
+            pragmas.add("PRAGMA page_size = " + this.pageSize);
+        }
+        if (this.mmapSize != null) {
+            pragmas.add("PRAGMA mmap_size = " + this.mmapSize);
+        }
+        if (this.cacheSize != null) {
+            pragmas.add("PRAGMA cache_size = " + this.cacheSize);
+        }
+        if (this.tempStore != null) {
+            pragmas.add("PRAGMA temp_store = " + this.tempStore.name());
+        }
+        if (this.readUncommitted != null) {
+            pragmas.add("PRAGMA read_uncommitted = " + (this.readUncommitted ? 1 : 0));
+        }
+        return pragmas;
+    }
+}
@@ -25,6 +25,7 @@
 
 /**
  * {@link tech.ferus.util.sql.sqlite.SqliteDatabase} is the implementation
- * of {@link tech.ferus.util.sql.api.Database} for SQLite.
+ * of {@link tech.ferus.util.sql.api.Database} for SQLite, and
+ * {@link tech.ferus.util.sql.sqlite.SqliteProfile} tunes its storage.
  */
 package tech.ferus.util.sql.sqlite;
\ No newline at end of file